@@ -0,0 +1,112 @@
+/*
+ * ColumnsBenchmark.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct.benchmark;
+
+import com.nextbreakpoint.memstruct.MemStruct;
+import com.nextbreakpoint.memstruct.MemStructColumns;
+import com.nextbreakpoint.memstruct.MemStructException;
+import com.nextbreakpoint.memstruct.MemStructField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+
+/**
+ * Sums one field of all structs, reading the column array, the columns through field handles,
+ * and the rows stored one after the other in an array through field handles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnsBenchmark {
+    private static final String DEFINITION = "flags dc.b 0\nid dc.l 0\nqty dc.i 0\nside dc.w 0\nprice dc.d 0\nrate dc.f 0\nname ds.b 16";
+
+    @Param({ "100000" })
+    private int mrecords;
+
+    private MemStructColumns mcolumns;
+    private MemStructField mprice;
+
+    private byte[] mrows;
+    private int mrecordSize;
+
+    @Setup
+    public void setup() throws MemStructException {
+        MemStruct record = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+
+        mprice = record.getField("price");
+        mrecordSize = record.sizeOf();
+        mrows = new byte[mrecords * mrecordSize];
+
+        for (int i = 0; i < mrecords; i++) {
+            mprice.setDouble(mrows, i * mrecordSize, i * 0.25);
+        }
+
+        mcolumns = new MemStructColumns(record, mrecords);
+        mcolumns.addRows(mrows, 0, mrecords);
+    }
+
+    @Benchmark
+    public double columnArray() throws MemStructException {
+        double[] prices = mcolumns.getDoubleColumn(mprice);
+
+        double sum = 0;
+
+        for (int i = 0; i < mrecords; i++) sum += prices[i];
+
+        return sum;
+    }
+
+    @Benchmark
+    public double columnHandle() throws MemStructException {
+        double sum = 0;
+
+        for (int i = 0; i < mrecords; i++) sum += mcolumns.getDouble(mprice, i);
+
+        return sum;
+    }
+
+    @Benchmark
+    public double rowHandle() throws MemStructException {
+        double sum = 0;
+
+        for (int i = 0; i < mrecords; i++) sum += mprice.getDouble(mrows, i * mrecordSize);
+
+        return sum;
+    }
+}
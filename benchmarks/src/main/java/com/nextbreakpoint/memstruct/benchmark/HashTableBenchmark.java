@@ -0,0 +1,199 @@
+/*
+ * HashTableBenchmark.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct.benchmark;
+
+import com.nextbreakpoint.memstruct.MemStruct;
+import com.nextbreakpoint.memstruct.MemStructException;
+import com.nextbreakpoint.memstruct.MemStructField;
+import com.nextbreakpoint.memstruct.MemStructHashTable;
+import com.nextbreakpoint.memstruct.MemStructView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+
+/**
+ * Looks up and updates random entries of a hash table of structs and of a HashMap of objects with the same fields.
+ * The memory per entry is printed by main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashTableBenchmark {
+    private static final String DEFINITION = "id dc.l 0\nprice dc.d 0\nqty dc.i 0";
+
+    @Param({ "1000000" })
+    private int mentries;
+
+    private MemStructHashTable mtable;
+    private MemStructView mview;
+    private MemStruct mrecord;
+    private MemStructField mprice;
+
+    private HashMap<Long, Order> mmap;
+
+    private long mseed = 1;
+
+    @Setup
+    public void setup() throws MemStructException {
+        mrecord = layout();
+        mprice = mrecord.getField("price");
+        mtable = table(mrecord, mentries);
+        mview = mtable.view();
+        mmap = map(mentries);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mtable.close();
+    }
+
+    @Benchmark
+    public double tableFind() throws MemStructException {
+        return mtable.find(nextKey(), mview) ? mview.getDouble(mprice) : 0;
+    }
+
+    @Benchmark
+    public double mapGet() {
+        Order order = mmap.get(nextKey());
+
+        return order != null ? order.mprice : 0;
+    }
+
+    @Benchmark
+    public boolean tablePut() throws MemStructException {
+        long key = nextKey();
+
+        mrecord.set("id", key);
+        mrecord.setDouble("price", key * 0.5);
+
+        return mtable.put(mrecord);
+    }
+
+    @Benchmark
+    public Order mapPut() {
+        long key = nextKey();
+
+        return mmap.put(key, new Order(key, key * 0.5, 1));
+    }
+
+    private long nextKey() {
+        // xorshift, so that keys are visited in random order
+        mseed ^= mseed << 13;
+        mseed ^= mseed >>> 7;
+        mseed ^= mseed << 17;
+
+        return (mseed & Long.MAX_VALUE) % mentries;
+    }
+
+    private static MemStruct layout() throws MemStructException {
+        return new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+    }
+
+    private static MemStructHashTable table(MemStruct record, int entries) throws MemStructException {
+        // the capacity leaves the table below the load factor, so that it doesn't grow
+        MemStructHashTable table = new MemStructHashTable(record, new String[] { "id" }, entries * 2L);
+
+        for (int i = 0; i < entries; i++) {
+            record.set("id", i);
+            record.setDouble("price", i * 0.5);
+            record.set("qty", 1);
+            table.put(record);
+        }
+
+        return table;
+    }
+
+    private static HashMap<Long, Order> map(int entries) {
+        HashMap<Long, Order> map = new HashMap<Long, Order>();
+
+        for (int i = 0; i < entries; i++) {
+            map.put((long) i, new Order(i, i * 0.5, 1));
+        }
+
+        return map;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Prints the memory per entry of a table and of a map with one million entries.
+     */
+    public static void main(String[] args) throws Exception {
+        int entries = 1000000;
+
+        MemStruct record = layout();
+
+        long before = usedMemory();
+
+        HashMap<Long, Order> map = map(entries);
+
+        long heap = usedMemory() - before;
+
+        MemStructHashTable table = table(record, entries);
+
+        // each slot contains a 4 bytes header and the struct
+        long offHeap = table.capacity() * (record.sizeOf() + 4);
+
+        System.out.println("HashMap heap per entry: " + heap / entries + " bytes (" + map.size() + " entries)");
+        System.out.println("MemStructHashTable off heap per entry: " + offHeap / table.size() + " bytes (" + table.size() + " entries, " + table.capacity() + " slots)");
+
+        table.close();
+    }
+
+    private static final class Order {
+        private final long mid;
+        private final double mprice;
+        private final int mqty;
+
+        Order(long id, double price, int qty) {
+            mid = id;
+            mprice = price;
+            mqty = qty;
+        }
+    }
+}
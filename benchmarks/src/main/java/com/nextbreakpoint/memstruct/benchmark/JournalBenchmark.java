@@ -0,0 +1,142 @@
+/*
+ * JournalBenchmark.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct.benchmark;
+
+import com.nextbreakpoint.memstruct.MemStruct;
+import com.nextbreakpoint.memstruct.MemStructException;
+import com.nextbreakpoint.memstruct.MemStructJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+
+/**
+ * Commits updates of two fields to a journal, one update per commit, sixteen updates per commit,
+ * and one update per commit from four threads, which share the forces of the journal.
+ * The throughput depends on the time the file system takes to force the journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+    private static final int RECORDS = 1024;
+
+    private static final int BATCH = 16;
+
+    private File mrecords;
+    private File mjournal;
+
+    private MemStructJournal mstore;
+
+    private final AtomicInteger mthreads = new AtomicInteger();
+
+    @Setup
+    public void setup() throws IOException, MemStructException {
+        mrecords = File.createTempFile("memstruct", ".dat");
+        mjournal = File.createTempFile("memstruct", ".log");
+        mrecords.delete();
+        mjournal.delete();
+
+        MemStruct layout = new MemStruct("value dc.l 0\ncheck dc.l 0\nprice dc.d 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+
+        mstore = new MemStructJournal(mrecords, mjournal, layout, RECORDS, 100);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mstore.close();
+        mrecords.delete();
+        mjournal.delete();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private int mrecord;
+        private long mvalue;
+
+        @Setup
+        public void setup(JournalBenchmark benchmark) {
+            // each thread updates its own records
+            mrecord = benchmark.mthreads.getAndIncrement() * 64;
+        }
+
+        int next() {
+            mvalue++;
+
+            return mrecord + (int) (mvalue % 64);
+        }
+    }
+
+    @Benchmark
+    public long commitEach(Writer writer) throws MemStructException {
+        return update(writer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long commitBatch(Writer writer) throws MemStructException {
+        for (int i = 0; i < BATCH; i++) {
+            int record = writer.next();
+
+            mstore.set(record, "value", writer.mvalue);
+            mstore.set(record, "check", writer.mvalue * 31);
+        }
+
+        return mstore.commit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long groupCommit(Writer writer) throws MemStructException {
+        return update(writer);
+    }
+
+    private long update(Writer writer) throws MemStructException {
+        int record = writer.next();
+
+        mstore.set(record, "value", writer.mvalue);
+        mstore.set(record, "check", writer.mvalue * 31);
+
+        return mstore.commit();
+    }
+}
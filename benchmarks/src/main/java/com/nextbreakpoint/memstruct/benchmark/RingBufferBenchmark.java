@@ -0,0 +1,443 @@
+/*
+ * RingBufferBenchmark.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct.benchmark;
+
+import com.nextbreakpoint.memstruct.MemStruct;
+import com.nextbreakpoint.memstruct.MemStructException;
+import com.nextbreakpoint.memstruct.MemStructField;
+import com.nextbreakpoint.memstruct.MemStructRingBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.ProducerType.PRODUCER_MULTI;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.ProducerType.PRODUCER_SINGLE;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.WaitStrategy.WAIT_YIELD;
+
+/**
+ * Compares a ring buffer of struct slots with an ArrayBlockingQueue of message objects.
+ * <p>
+ * The spsc and mpsc groups measure the throughput of one or two producer threads and one consumer thread.
+ * Producers and consumers retry without waiting when the buffer is full or empty, checking whether the
+ * measurement is over, so that no thread is left waiting when the other threads stop.
+ * <p>
+ * The ping-pong benchmarks measure the round trip latency of a message sent to an echo thread, which waits
+ * with the given wait strategy, and the batch benchmarks measure the cost per message without other threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+    private static final String DEFINITION = "id dc.l 0\nprice dc.d 0\nqty dc.i 0";
+
+    private static final int CAPACITY = 1024;
+
+    private static final int BATCH = 64;
+
+    @State(Scope.Group)
+    public static class SingleProducer extends Ring {
+        @Setup
+        public void setup() throws MemStructException {
+            create(PRODUCER_SINGLE);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class MultiProducer extends Ring {
+        @Setup
+        public void setup() throws MemStructException {
+            create(PRODUCER_MULTI);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Queue {
+        private final ArrayBlockingQueue<Order> mqueue = new ArrayBlockingQueue<Order>(CAPACITY);
+
+        void produce(Control control) {
+            Order order = new Order(1, 0.5);
+
+            while (!mqueue.offer(order)) {
+                if (control.stopMeasurement) return;
+
+                Thread.yield();
+            }
+        }
+
+        long consume(Control control) {
+            Order order;
+
+            while ((order = mqueue.poll()) == null) {
+                if (control.stopMeasurement) return 0;
+
+                Thread.yield();
+            }
+
+            return order.mid;
+        }
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public void spscProduce(SingleProducer ring, Control control) throws MemStructException {
+        ring.produce(control);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public long spscConsume(SingleProducer ring, Control control) throws MemStructException {
+        return ring.consume(control);
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(2)
+    public void mpscProduce(MultiProducer ring, Control control) throws MemStructException {
+        ring.produce(control);
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(1)
+    public long mpscConsume(MultiProducer ring, Control control) throws MemStructException {
+        return ring.consume(control);
+    }
+
+    @Benchmark
+    @Group("queueSpsc")
+    @GroupThreads(1)
+    public void queueSpscProduce(Queue queue, Control control) {
+        queue.produce(control);
+    }
+
+    @Benchmark
+    @Group("queueSpsc")
+    @GroupThreads(1)
+    public long queueSpscConsume(Queue queue, Control control) {
+        return queue.consume(control);
+    }
+
+    @Benchmark
+    @Group("queueMpsc")
+    @GroupThreads(2)
+    public void queueMpscProduce(Queue queue, Control control) {
+        queue.produce(control);
+    }
+
+    @Benchmark
+    @Group("queueMpsc")
+    @GroupThreads(1)
+    public long queueMpscConsume(Queue queue, Control control) {
+        return queue.consume(control);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long ringPingPong(RingEcho echo) throws MemStructException {
+        return echo.roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long queuePingPong(QueueEcho echo) throws InterruptedException {
+        return echo.roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long ringBatch(Batch batch) throws MemStructException {
+        return batch.ring();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long queueBatch(Batch batch) {
+        return batch.queue();
+    }
+
+    /**
+     * A ring buffer whose producers and consumer retry until the measurement is over.
+     */
+    public static class Ring {
+        private MemStructRingBuffer mring;
+        private MemStructField mid;
+        private MemStructField mprice;
+        private Consumer mconsumer;
+
+        void create(MemStructRingBuffer.ProducerType producerType) throws MemStructException {
+            MemStruct layout = layout();
+            mring = new MemStructRingBuffer(layout, CAPACITY, producerType, WAIT_YIELD);
+            mid = layout.getField("id");
+            mprice = layout.getField("price");
+            mconsumer = new Consumer(mid);
+        }
+
+        void produce(Control control) throws MemStructException {
+            long sequence;
+
+            while ((sequence = mring.tryNext(1)) < 0) {
+                if (control.stopMeasurement) return;
+
+                Thread.yield();
+            }
+
+            int offset = mring.offsetOf(sequence);
+            mid.setLong(mring.getBytes(), offset, sequence);
+            mprice.setDouble(mring.getBytes(), offset, 0.5);
+            mring.publish(sequence);
+        }
+
+        long consume(Control control) throws MemStructException {
+            while (mring.poll(mconsumer, 1) == 0) {
+                if (control.stopMeasurement) return 0;
+
+                Thread.yield();
+            }
+
+            return mconsumer.mvalue;
+        }
+    }
+
+    /**
+     * Two ring buffers and a thread which sends back the messages it receives, waiting with the given strategy.
+     */
+    @State(Scope.Thread)
+    public static class RingEcho {
+        @Param({ "WAIT_YIELD", "WAIT_PARK", "WAIT_BLOCKING" })
+        private MemStructRingBuffer.WaitStrategy mwaitStrategy;
+
+        private MemStructRingBuffer mping;
+        private MemStructRingBuffer mpong;
+        private MemStructField mid;
+        private Consumer mconsumer;
+        private Thread mthread;
+        private volatile boolean mstopped;
+
+        @Setup(Level.Trial)
+        public void setup() throws MemStructException {
+            MemStruct layout = layout();
+            mping = new MemStructRingBuffer(layout, 64, PRODUCER_SINGLE, mwaitStrategy);
+            mpong = new MemStructRingBuffer(layout, 64, PRODUCER_SINGLE, mwaitStrategy);
+            mid = layout.getField("id");
+            mconsumer = new Consumer(mid);
+
+            final MemStructRingBuffer.Handler echo = new MemStructRingBuffer.Handler() {
+                public void onSlot(byte[] data, int offset, long sequence, boolean endOfBatch) throws MemStructException {
+                    long reply = mpong.next();
+                    mid.setLong(mpong.getBytes(), mpong.offsetOf(reply), mid.getLong(data, offset));
+                    mpong.publish(reply);
+                }
+            };
+
+            mthread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!mstopped) mping.take(echo, 1);
+                    } catch (MemStructException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "echo");
+            mthread.setDaemon(true);
+            mthread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws MemStructException, InterruptedException {
+            mstopped = true;
+
+            // the last message wakes up the echo thread
+            roundTrip();
+
+            mthread.join();
+        }
+
+        long roundTrip() throws MemStructException {
+            long sequence = mping.next();
+            mid.setLong(mping.getBytes(), mping.offsetOf(sequence), sequence);
+            mping.publish(sequence);
+
+            mpong.take(mconsumer, 1);
+
+            return mconsumer.mvalue;
+        }
+    }
+
+    /**
+     * Two queues and a thread which sends back the messages it receives.
+     */
+    @State(Scope.Thread)
+    public static class QueueEcho {
+        private final ArrayBlockingQueue<Order> mping = new ArrayBlockingQueue<Order>(64);
+        private final ArrayBlockingQueue<Order> mpong = new ArrayBlockingQueue<Order>(64);
+        private Thread mthread;
+        private volatile boolean mstopped;
+        private long msequence;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            mthread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!mstopped) {
+                            Order order = mping.take();
+                            mpong.put(new Order(order.mid, order.mprice));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "echo");
+            mthread.setDaemon(true);
+            mthread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            mstopped = true;
+
+            // the last message wakes up the echo thread
+            roundTrip();
+
+            mthread.join();
+        }
+
+        long roundTrip() throws InterruptedException {
+            mping.put(new Order(++msequence, 0.5));
+
+            return mpong.take().mid;
+        }
+    }
+
+    /**
+     * Passes batches of messages in the same thread.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        private MemStructRingBuffer mring;
+        private MemStructField mid;
+        private MemStructField mprice;
+        private Consumer mconsumer;
+
+        private ArrayBlockingQueue<Order> mqueue;
+
+        @Setup
+        public void setup() throws MemStructException {
+            MemStruct layout = layout();
+            mring = new MemStructRingBuffer(layout, CAPACITY, PRODUCER_SINGLE, WAIT_YIELD);
+            mid = layout.getField("id");
+            mprice = layout.getField("price");
+            mconsumer = new Consumer(mid);
+            mqueue = new ArrayBlockingQueue<Order>(CAPACITY);
+        }
+
+        long ring() throws MemStructException {
+            byte[] data = mring.getBytes();
+
+            for (int i = 0; i < BATCH; i++) {
+                long sequence = mring.next();
+                int offset = mring.offsetOf(sequence);
+                mid.setLong(data, offset, i);
+                mprice.setDouble(data, offset, i * 0.5);
+                mring.publish(sequence);
+            }
+
+            long sum = 0;
+
+            while (mring.poll(mconsumer, 1) > 0) sum += mconsumer.mvalue;
+
+            return sum;
+        }
+
+        long queue() {
+            for (int i = 0; i < BATCH; i++) {
+                mqueue.offer(new Order(i, i * 0.5));
+            }
+
+            long sum = 0;
+
+            Order order;
+
+            while ((order = mqueue.poll()) != null) sum += order.mid;
+
+            return sum;
+        }
+    }
+
+    private static MemStruct layout() throws MemStructException {
+        return new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+    }
+
+    private static final class Consumer implements MemStructRingBuffer.Handler {
+        private final MemStructField mid;
+
+        private long mvalue;
+
+        Consumer(MemStructField id) {
+            mid = id;
+        }
+
+        public void onSlot(byte[] data, int offset, long sequence, boolean endOfBatch) throws MemStructException {
+            mvalue = mid.getLong(data, offset);
+        }
+    }
+
+    private static final class Order {
+        private final long mid;
+        private final double mprice;
+
+        Order(long id, double price) {
+            mid = id;
+            mprice = price;
+        }
+    }
+}
@@ -28,8 +28,11 @@
  */
 package com.nextbreakpoint.memstruct;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -40,7 +43,7 @@ import static com.nextbreakpoint.memstruct.MemStruct.LongSize.*;
 /**
  * Structure definition syntax is quite similar to what we usually see in macro assembers:
  * <p>
- * label		dc|ds.b|w|s|i|l	  data
+ * label		dc|ds.b|w|s|i|l|f|d	  data
  * <p>
  * Examples:
  * <p>
@@ -49,6 +52,7 @@ import static com.nextbreakpoint.memstruct.MemStruct.LongSize.*;
  * short		dc.s			121
  * integer		dc.i			1000
  * word		    dc.w			0
+ * real		    dc.d			1.5
  * space		ds.w			20
  * <p>
  * where
@@ -60,6 +64,26 @@ import static com.nextbreakpoint.memstruct.MemStruct.LongSize.*;
  * .s = short		(2 bytes)
  * .i = int		    (2 or 4 bytes)
  * .l = long		(2, 4 or 8 bytes)
+ * .f = float		(4 bytes)
+ * .d = double		(8 bytes)
+ * <p>
+ * Float and double fields are stored as IEEE 754 bit patterns,
+ * and their dc data is a decimal floating point number.
+ * <p>
+ * A variant declares alternative cases which overlay the same bytes:
+ * <p>
+ * type		    dc.b			0
+ * body		    variant			type
+ * login		case			1
+ * user		    ds.b			16
+ * quote		case			2
+ * price		dc.d			0
+ * body		    end				variant
+ * <p>
+ * The data of variant is the label of the discriminator, a dc integer declared before
+ * the variant, and the data of case is the value of the discriminator which selects the
+ * case. Each case starts at the offset of the variant, and the size of the variant is
+ * the size of the largest case. The variant label can be accessed as ds.b space.
  */
 public final class MemStruct {
     // declaration statements
@@ -72,6 +96,9 @@ public final class MemStruct {
     // here we keep our list of labels
     private List<String> mlabels = new ArrayList<String>();
 
+    // here we keep our field handles in declaration order
+    private MemStructField[] mfields;
+
     // here we keep our data
     private byte[] mdata;
 
@@ -87,6 +114,12 @@ public final class MemStruct {
     // the memory padding
     private BytesPadding mdataPadding = PADDING_NONE;
 
+    // here we keep the snapshots which still share data with the struct
+    private List<WeakReference<MemStructSnapshot>> msnapshots = new ArrayList<WeakReference<MemStructSnapshot>>();
+
+    // true when the storage has been returned by getBytes, so that writes can't be tracked anymore
+    private boolean mexposed = false;
+
     /**
      * Build a memstuct. Only the constructor does. Just for security reasons,
      * we want to avoid that someone changes the memstruct on the fly.
@@ -103,23 +136,121 @@ public final class MemStruct {
 
         mdataSize = parseStruct(definition);
 
+        // create field handles
+        mfields = new MemStructField[mlabels.size()];
+
+        for (int i = 0; i < mfields.length; i++) {
+            StructItem si = mstruct.get(mlabels.get(i));
+
+            mfields[i] = new MemStructField(si, mdataOrdering, mdataSize, i);
+
+            si.setField(mfields[i]);
+        }
+
         if (mdataSize > 0) {
             // allocate data
             mdata = new byte[mdataSize];
 
-            // create data
-            for (StructItem si : mstruct.values()) put(si);
+            // create data, only the dc values of the initial case of each variant
+            for (StructItem si : mstruct.values()) {
+                if (si.getCase() == null || si.getCase() == initialCase(si.getCase().getVariant())) put(si);
+            }
         }
     }
 
     /**
      * Returns the contents of the struct as an array of bytes.
+     * The array is the struct storage, so the snapshots which share data
+     * with the struct are detached before returning it, and the snapshots
+     * taken afterwards copy the whole struct, because the writes to the
+     * array can't be tracked.
      * @return the structure bytes
      */
     public byte[] getBytes() {
+        beforeWrite(0, mdataSize);
+
+        mexposed = true;
+
+        return mdata;
+    }
+
+    /**
+     * Returns the struct storage for writing, after detaching the snapshots.
+     * Unlike getBytes, the storage is not exposed, so the caller must not keep it.
+     */
+    byte[] storage() {
+        beforeWrite(0, mdataSize);
+
         return mdata;
     }
 
+    /**
+     * Returns the struct storage for reading, without detaching the snapshots.
+     */
+    byte[] data() {
+        return mdata;
+    }
+
+    /**
+     * Takes an immutable snapshot of the struct contents. The snapshot shares data
+     * with the struct, until the struct is modified, and then copies the modified
+     * chunks. Snapshots must be taken by the thread which modifies the struct,
+     * but they can be read by any thread. Once the storage has been returned by
+     * getBytes, every snapshot is a copy of the whole struct.
+     * @return the snapshot
+     */
+    public MemStructSnapshot snapshot() {
+        if (mexposed) {
+            return new MemStructSnapshot(this, mdata != null ? mdata.clone() : null, mdataSize);
+        }
+
+        MemStructSnapshot last = null;
+
+        Iterator<WeakReference<MemStructSnapshot>> iterator = msnapshots.iterator();
+
+        while (iterator.hasNext()) {
+            last = iterator.next().get();
+
+            if (last == null) iterator.remove();
+        }
+
+        // the last snapshot is still equal to the struct
+        if (last != null && !last.isModified()) {
+            return last;
+        }
+
+        MemStructSnapshot snapshot = new MemStructSnapshot(this, mdata, mdataSize);
+
+        if (mdataSize > 0) msnapshots.add(new WeakReference<MemStructSnapshot>(snapshot));
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of snapshots which still share data with the struct.
+     */
+    int sharingSnapshots() {
+        beforeWrite(0, 0);
+
+        return msnapshots.size();
+    }
+
+    /**
+     * Preserves the shared data of the snapshots before modifying the given range of bytes.
+     */
+    private void beforeWrite(int offset, int length) {
+        if (msnapshots.isEmpty()) return;
+
+        Iterator<WeakReference<MemStructSnapshot>> iterator = msnapshots.iterator();
+
+        while (iterator.hasNext()) {
+            MemStructSnapshot snapshot = iterator.next().get();
+
+            // drop snapshots which have been collected or don't share data anymore
+            if (snapshot == null || snapshot.preserve(offset, length)) iterator.remove();
+        }
+    }
+
     /**
      * Gets the offset in bytes of a given label.
      * @param label the label
@@ -144,6 +275,104 @@ public final class MemStruct {
         return si.getTotalSize();
     }
 
+    /**
+     * Gets the size of long integer used by the struct.
+     * @return the long size
+     */
+    public LongSize getLongSize() {
+        return mdataLongSize;
+    }
+
+    /**
+     * Gets the bytes ordering used by the struct.
+     * @return the bytes ordering
+     */
+    public BytesOrdering getBytesOrdering() {
+        return mdataOrdering;
+    }
+
+    /**
+     * Gets the bytes padding used by the struct.
+     * @return the bytes padding
+     */
+    public BytesPadding getBytesPadding() {
+        return mdataPadding;
+    }
+
+    /**
+     * Returns the struct items in declaration order. The items of variant cases are excluded,
+     * so that each variant is a single ds.b item which covers the bytes of all cases.
+     */
+    List<StructItem> getItems() {
+        List<StructItem> items = new ArrayList<StructItem>(mlabels.size());
+
+        for (String label : mlabels) {
+            StructItem si = mstruct.get(label);
+
+            if (si.getCase() == null) items.add(si);
+        }
+
+        return items;
+    }
+
+    /**
+     * Returns the struct items of a variant case in declaration order.
+     */
+    List<StructItem> getItems(MemStructVariant.Case variantCase) {
+        List<StructItem> items = new ArrayList<StructItem>();
+
+        for (String label : mlabels) {
+            StructItem si = mstruct.get(label);
+
+            if (si.getCase() == variantCase) items.add(si);
+        }
+
+        return items;
+    }
+
+    /**
+     * Returns the variants in declaration order.
+     */
+    List<MemStructVariant> getVariants() {
+        List<MemStructVariant> variants = new ArrayList<MemStructVariant>();
+
+        for (String label : mlabels) {
+            MemStructVariant variant = mstruct.get(label).getVariant();
+
+            if (variant != null) variants.add(variant);
+        }
+
+        return variants;
+    }
+
+    /**
+     * Returns a hash which identifies the layout of the struct, contents excluded.
+     */
+    long getLayoutHash() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(mdataOrdering).append(";").append(mdataSize).append(";");
+
+        for (String label : mlabels) {
+            StructItem si = mstruct.get(label);
+
+            builder.append(si.getLabel()).append(",").append(si.getDeclaration()).append(",").append(si.getOffset()).append(",");
+            builder.append(si.getTypeSize()).append(",").append(si.getTotalSize()).append(",").append(si.isReal()).append(";");
+
+            if (si.getCase() != null) builder.append(si.getCase().getLabel()).append(",").append(si.getCase().getValue()).append(";");
+        }
+
+        // FNV-1a hash
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < builder.length(); i++) {
+            hash ^= builder.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
     private StructItem findItem(String label) throws MemStructException {
         StructItem si = mstruct.get(label);
 
@@ -154,6 +383,21 @@ public final class MemStruct {
         return si;
     }
 
+    /**
+     * Finds the item of a label which is accessed, checking that its variant case is selected.
+     */
+    private StructItem findActiveItem(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        MemStructVariant.Case variantCase = si.getCase();
+
+        if (variantCase != null && getCase(variantCase.getVariant().getLabel()) != variantCase) {
+            throw new MemStructException("inactive label " + label);
+        }
+
+        return si;
+    }
+
     /**
      * Parse a memstuct definition and fill the hashmap.
      */
@@ -162,6 +406,16 @@ public final class MemStruct {
 
         int offset = 0;
 
+        // the labels and the case labels
+        HashSet<String> names = new HashSet<String>();
+
+        // the variant and the case being parsed
+        MemStructVariant variant = null;
+        MemStructVariant.Case variantCase = null;
+
+        // the end of the largest case
+        int variantEnd = 0;
+
         // parse definition
         while (st.hasMoreTokens()) {
             String label = st.nextToken();
@@ -170,6 +424,85 @@ public final class MemStruct {
 
             String data = st.nextToken();
 
+            // parse variants
+            if (statement.equals("variant")) {
+                if (variant != null) {
+                    throw new MemStructException("nested variant " + label);
+                }
+
+                StructItem di = mstruct.get(data);
+
+                if (di == null || di.getDeclaration() != DC || di.isReal() || di.getCase() != null) {
+                    throw new MemStructException("invalid discriminator " + data);
+                }
+
+                if (!names.add(label)) {
+                    throw new MemStructException("duplicated label");
+                }
+
+                variant = new MemStructVariant(label, di, offset);
+                variantEnd = offset;
+
+                mlabels.add(label);
+
+                continue;
+            } else if (statement.equals("case")) {
+                if (variant == null) {
+                    throw new MemStructException("case outside variant " + label);
+                }
+
+                if (!names.add(label)) {
+                    throw new MemStructException("duplicated label");
+                }
+
+                if (variantCase != null) {
+                    variantCase.setSize(offset - variant.getOffset());
+                    variantEnd = Math.max(variantEnd, offset);
+                }
+
+                try {
+                    variantCase = variant.addCase(label, Integer.decode(data).longValue());
+                } catch (NumberFormatException e) {
+                    throw new MemStructException("invalid data " + data);
+                }
+
+                if (variantCase == null) {
+                    throw new MemStructException("duplicated case value " + data);
+                }
+
+                // each case starts at the offset of the variant
+                offset = variant.getOffset();
+
+                continue;
+            } else if (statement.equals("end")) {
+                if (variant == null || !label.equals(variant.getLabel()) || !data.equals("variant")) {
+                    throw new MemStructException("invalid end of variant " + label);
+                }
+
+                if (variantCase != null) {
+                    variantCase.setSize(offset - variant.getOffset());
+                    variantEnd = Math.max(variantEnd, offset);
+                }
+
+                variant.complete(variantEnd - variant.getOffset());
+
+                // the variant covers the bytes of all cases
+                StructItem vi = new StructItem(label, DS, 1, variant.getOffset(), variant.getSize(), false);
+
+                vi.setVariant(variant);
+
+                mstruct.put(label, vi);
+
+                offset = variantEnd;
+
+                variant = null;
+                variantCase = null;
+
+                continue;
+            } else if (variant != null && variantCase == null) {
+                throw new MemStructException("missing case in variant " + variant.getLabel());
+            }
+
             int declaration = 0;
 
             // parse declaration
@@ -183,6 +516,8 @@ public final class MemStruct {
 
             int size = 0;
 
+            boolean real = false;
+
             if (statement.endsWith(".b")) {
                 size = 1;
             } else if (statement.endsWith(".w")) {
@@ -205,11 +540,29 @@ public final class MemStruct {
                 } else if (mdataLongSize == LONG_SIZE_64BIT) {
                     size = 8;
                 }
+            } else if (statement.endsWith(".f")) {
+                size = 4;
+                real = true;
+            } else if (statement.endsWith(".d")) {
+                size = 8;
+                real = true;
             } else {
                 throw new MemStructException("invalid declaration type");
             }
 
-            long value = Integer.decode(data).longValue();
+            long value = 0;
+
+            try {
+                if (declaration == DC && real && size == 4) {
+                    value = Float.floatToRawIntBits(Float.parseFloat(data)) & 0xFFFFFFFFL;
+                } else if (declaration == DC && real) {
+                    value = Double.doubleToRawLongBits(Double.parseDouble(data));
+                } else {
+                    value = Integer.decode(data).longValue();
+                }
+            } catch (NumberFormatException e) {
+                throw new MemStructException("invalid data " + data);
+            }
 
             if (declaration == DC) {
                 switch (mdataPadding) {
@@ -259,7 +612,9 @@ public final class MemStruct {
             }
 
             // prepare item
-            StructItem si = new StructItem(label, declaration, size, offset, value);
+            StructItem si = new StructItem(label, declaration, size, offset, value, real);
+
+            si.setCase(variantCase);
 
             // compute offset
             switch (declaration) {
@@ -279,7 +634,7 @@ public final class MemStruct {
                     break;
             }
 
-            if (mstruct.get(label) == null) {
+            if (names.add(label)) {
                 mstruct.put(label, si);
             } else {
                 throw new MemStructException("duplicated label");
@@ -288,6 +643,10 @@ public final class MemStruct {
             mlabels.add(label);
         }
 
+        if (variant != null) {
+            throw new MemStructException("missing end of variant " + variant.getLabel());
+        }
+
         // set total data size
         mdataSize = offset;
 
@@ -299,6 +658,8 @@ public final class MemStruct {
 
         // only put DC data
         if (si.getDeclaration() == DC) {
+            beforeWrite(si.getOffset(), si.getTypeSize());
+
             for (int i = 0; i < si.getTypeSize(); i++) {
                 if (mdataOrdering == ORDERING_BIG_ENDIAN) {
                     mdata[si.getOffset() + si.getTypeSize() - i - 1] = (byte) (value & 0xFF);
@@ -318,7 +679,7 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public void set(String label, long value) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
 
         // only set DC data
         if (si.getDeclaration() == DC) {
@@ -336,7 +697,9 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public void set(String label, long value, int offset) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
+
+        beforeWrite(si.getOffset() + offset * si.getTypeSize(), si.getTypeSize());
 
         try {
             for (int i = 0; i < si.getTypeSize(); i++) {
@@ -360,7 +723,7 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public long get(String label) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
 
         long value = 0;
 
@@ -392,7 +755,7 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public long get(String label, int offset) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
 
         long value = 0;
 
@@ -417,6 +780,386 @@ public final class MemStruct {
         return value;
     }
 
+    /**
+     * Gets the handle of the field at the given label.
+     * @param label the label
+     * @return the field handle
+     * @throws MemStructException if label not found
+     */
+    public MemStructField getField(String label) throws MemStructException {
+        return findItem(label).getField();
+    }
+
+    /**
+     * Returns the handle at the given index of the declaration order, or null.
+     */
+    MemStructField fieldAt(int index) {
+        return index >= 0 && index < mfields.length ? mfields[index] : null;
+    }
+
+    /**
+     * Gets the variant at the given label.
+     * @param label the label of the variant
+     * @return the variant
+     * @throws MemStructException if label not found or label is not a variant
+     */
+    public MemStructVariant getVariant(String label) throws MemStructException {
+        MemStructVariant variant = findItem(label).getVariant();
+
+        if (variant == null) {
+            throw new MemStructException("undefined variant " + label);
+        }
+
+        return variant;
+    }
+
+    /**
+     * Gets the case of a variant selected by the current value of the discriminator.
+     * @param label the label of the variant
+     * @return the case, or null if no case has the value of the discriminator
+     * @throws MemStructException if label not found or label is not a variant
+     */
+    public MemStructVariant.Case getCase(String label) throws MemStructException {
+        MemStructVariant variant = getVariant(label);
+
+        return variant.dispatch(get(variant.getDiscriminator()));
+    }
+
+    /**
+     * Returns the case selected by the dc value of the discriminator, or the first case.
+     */
+    private MemStructVariant.Case initialCase(MemStructVariant variant) {
+        StructItem di = variant.getDiscriminatorItem();
+
+        long value = di.getValue();
+
+        if (di.getTypeSize() < 8) value &= (1L << di.getTypeSize() * 8) - 1;
+
+        MemStructVariant.Case variantCase = variant.dispatch(value);
+
+        return variantCase != null ? variantCase : variant.getCases().get(0);
+    }
+
+    /**
+     * Gets a value from the struct as byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public byte getByte(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getByte(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as byte, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public byte getByte(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getByte(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public int getUnsignedByte(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getUnsignedByte(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as unsigned byte, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedByte(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getUnsignedByte(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public short getShort(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getShort(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as short, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public short getShort(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getShort(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public int getUnsignedShort(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getUnsignedShort(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as unsigned short, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedShort(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getUnsignedShort(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public int getInt(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getInt(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as int, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public int getInt(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getInt(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public long getUnsignedInt(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getUnsignedInt(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as unsigned int, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public long getUnsignedInt(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getUnsignedInt(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as long, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public long getLong(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getLong(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as long, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public long getLong(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getLong(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as float, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public float getFloat(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getFloat(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as float, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public float getFloat(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getFloat(mdata, 0, offset);
+    }
+
+    /**
+     * Gets a value from the struct as double, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public double getDouble(String label) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only get DC data
+        if (si.getDeclaration() == DC) {
+            return si.getField().getDouble(mdata, 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets a value from the struct as double, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public double getDouble(String label, int offset) throws MemStructException {
+        return findItem(label).getField().getDouble(mdata, 0, offset);
+    }
+
+    /**
+     * Sets a float value into the struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public void setFloat(String label, float value) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only set DC data
+        if (si.getDeclaration() == DC) {
+            beforeWrite(si.getOffset(), si.getTypeSize());
+
+            si.getField().setFloat(mdata, 0, value);
+
+            si.setValue(Float.floatToRawIntBits(value) & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Sets a float value into the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public void setFloat(String label, float value, int offset) throws MemStructException {
+        StructItem si = findItem(label);
+
+        beforeWrite(si.getOffset() + offset * si.getTypeSize(), si.getTypeSize());
+
+        si.getField().setFloat(mdata, 0, offset, value);
+    }
+
+    /**
+     * Sets a double value into the struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public void setDouble(String label, double value) throws MemStructException {
+        StructItem si = findItem(label);
+
+        // only set DC data
+        if (si.getDeclaration() == DC) {
+            beforeWrite(si.getOffset(), si.getTypeSize());
+
+            si.getField().setDouble(mdata, 0, value);
+
+            si.setValue(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    /**
+     * Sets a double value into the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, type doesn't match or offset is out of bounds
+     */
+    public void setDouble(String label, double value, int offset) throws MemStructException {
+        StructItem si = findItem(label);
+
+        beforeWrite(si.getOffset() + offset * si.getTypeSize(), si.getTypeSize());
+
+        si.getField().setDouble(mdata, 0, offset, value);
+    }
+
     /**
      * Sets the size of the whole struct padding included.
      * @return the size of structure in bytes
@@ -448,6 +1191,8 @@ public final class MemStruct {
     public int setBytes(byte[] data) {
         int size = Math.min(data.length, mdata.length);
 
+        beforeWrite(0, size);
+
         System.arraycopy(data, 0, mdata, 0, size);
 
         return size;
@@ -460,7 +1205,7 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public String getString(String label) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
 
         // get data info
         int offset = si.getOffset();
@@ -504,7 +1249,7 @@ public final class MemStruct {
      * @throws MemStructException if label not found
      */
     public int setString(String label, String data) throws MemStructException {
-        StructItem si = findItem(label);
+        StructItem si = findActiveItem(label);
 
         // get data info
         int offset = si.getOffset();
@@ -518,6 +1263,8 @@ public final class MemStruct {
 
         // copy the string
         if (dataSize > 0) {
+            beforeWrite(offset, size);
+
             // clear the whole space
             for (int i = dataSize - 1; i < size; i++) mdata[i + offset] = 0;
 
@@ -550,25 +1297,62 @@ public final class MemStruct {
     }
 
     // an item in the struct
-    private class StructItem {
+    static final class StructItem {
         private String label;
         private int declaration;
         private int offset;
         private int size;
         private long value;
+        private boolean real;
+        private MemStructField field;
+        private MemStructVariant variant;
+        private MemStructVariant.Case variantCase;
 
-        public StructItem(String label, int declaration, int size, int offset, long value) {
+        public StructItem(String label, int declaration, int size, int offset, long value, boolean real) {
             this.declaration = declaration;
             this.offset = offset;
             this.size = size;
             this.label = label;
             this.value = value;
+            this.real = real;
         }
 
         public int getDeclaration() {
             return declaration;
         }
 
+        public boolean isSpace() {
+            return declaration == DS;
+        }
+
+        public boolean isReal() {
+            return real;
+        }
+
+        public MemStructField getField() {
+            return field;
+        }
+
+        public void setField(MemStructField field) {
+            this.field = field;
+        }
+
+        public MemStructVariant getVariant() {
+            return variant;
+        }
+
+        public void setVariant(MemStructVariant variant) {
+            this.variant = variant;
+        }
+
+        public MemStructVariant.Case getCase() {
+            return variantCase;
+        }
+
+        public void setCase(MemStructVariant.Case variantCase) {
+            this.variantCase = variantCase;
+        }
+
         public int getOffset() {
             return offset;
         }
@@ -600,7 +1384,11 @@ public final class MemStruct {
         }
 
         public String toString() {
-            if (declaration == DC) {
+            if (declaration == DC && real && size == 4) {
+                return "[" + offset + "] size=" + (size * 8) + " bits, label=" + label + ", value=" + Float.intBitsToFloat((int) value);
+            } else if (declaration == DC && real) {
+                return "[" + offset + "] size=" + (size * 8) + " bits, label=" + label + ", value=" + Double.longBitsToDouble(value);
+            } else if (declaration == DC) {
                 return "[" + offset + "] size=" + (size * 8) + " bits, label=" + label + ", value=" + value;
             } else {
                 return "[" + offset + "] size=" + (size * value) + " bytes, label=" + label;
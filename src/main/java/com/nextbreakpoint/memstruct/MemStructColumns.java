@@ -0,0 +1,1723 @@
+/*
+ * MemStructColumns.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Collection of structs stored by column, where each field has its own primitive array.
+ * <p>
+ * Columns are byte, short, int or long arrays, according to the size of the field, or float
+ * and double arrays for floating point fields. The elements of a ds field are stored one after
+ * the other for each struct. Variants are stored as ds.b fields, and pad bytes are not stored.
+ * The fields of a variant case are read and written in the bytes of the variant, with the
+ * byte order of the layout, when the discriminator of the struct selects the case, but they
+ * don't have a column.
+ * <p>
+ * Structs are added and read as rows, using the same layout of MemStruct, and they are
+ * transposed from rows to columns and back. Fields are accessed per struct with the same
+ * field handles and the same rules of MemStructField, where the index of the struct replaces
+ * the data and the offset of the struct. Scans and aggregates over a field use the column
+ * arrays directly.
+ * <p>
+ * Snapshots of the collection share the columns, and copy the chunks of a column before they
+ * are modified, like the snapshots of a struct. The column arrays are replaced when the collection
+ * grows, so the snapshots keep the old arrays without copying them. Writes to the arrays returned
+ * by the column getters can't be tracked, so the snapshots copy a column when it is returned, and
+ * they copy the whole column when they are taken afterwards, until the collection grows.
+ */
+public final class MemStructColumns {
+    // column types
+    private final static int COLUMN_BYTE = 0;
+    private final static int COLUMN_SHORT = 1;
+    private final static int COLUMN_INT = 2;
+    private final static int COLUMN_LONG = 3;
+    private final static int COLUMN_FLOAT = 4;
+    private final static int COLUMN_DOUBLE = 5;
+
+    private final int mrecordSize;
+
+    // the columns in declaration order, and by index of the field handle
+    private final Column[] mcolumns;
+    private final Column[] mcolumnsByIndex;
+
+    // the fields of variant cases by index of the field handle
+    private final CaseField[] mcaseFields;
+
+    // here we keep the snapshots which still share columns with the collection
+    private final List<WeakReference<Snapshot>> msnapshots = new ArrayList<WeakReference<Snapshot>>();
+
+    // the number of structs and the number of structs which fit in the columns
+    private int msize;
+    private int mcapacity;
+
+    /**
+     * Creates an empty collection.
+     * @param layout the struct which provides the layout
+     * @param capacity the initial number of structs
+     * @throws MemStructException if capacity is not valid
+     */
+    public MemStructColumns(MemStruct layout, int capacity) throws MemStructException {
+        if (capacity < 0) {
+            throw new MemStructException("invalid capacity");
+        }
+
+        mrecordSize = layout.sizeOf();
+        mcapacity = capacity;
+
+        List<MemStruct.StructItem> items = layout.getItems();
+
+        mcolumns = new Column[items.size()];
+
+        int fields = 0;
+
+        for (int i = 0; i < mcolumns.length; i++) {
+            mcolumns[i] = new Column(items.get(i).getField(), i);
+
+            fields = Math.max(fields, items.get(i).getField().getIndex() + 1);
+        }
+
+        mcolumnsByIndex = new Column[fields];
+
+        for (Column column : mcolumns) mcolumnsByIndex[column.mfield.getIndex()] = column;
+
+        List<CaseField> caseFields = new ArrayList<CaseField>();
+
+        for (int i = 0; i < mcolumns.length; i++) {
+            MemStructVariant variant = items.get(i).getVariant();
+
+            if (variant == null) continue;
+
+            Column discriminator = mcolumnsByIndex[variant.getDiscriminatorItem().getField().getIndex()];
+
+            for (MemStructVariant.Case variantCase : variant.getCases()) {
+                for (MemStruct.StructItem si : layout.getItems(variantCase)) {
+                    caseFields.add(new CaseField(si.getField(), mcolumns[i], discriminator, variant.getOffset()));
+                }
+            }
+        }
+
+        int caseFieldsLength = 0;
+
+        for (CaseField caseField : caseFields) caseFieldsLength = Math.max(caseFieldsLength, caseField.mfield.getIndex() + 1);
+
+        mcaseFields = new CaseField[caseFieldsLength];
+
+        for (CaseField caseField : caseFields) mcaseFields[caseField.mfield.getIndex()] = caseField;
+    }
+
+    /**
+     * Gets the number of structs.
+     * @return the number of structs
+     */
+    public int size() {
+        return msize;
+    }
+
+    /**
+     * Gets the number of structs which fit in the columns before they grow.
+     * @return the capacity
+     */
+    public int capacity() {
+        return mcapacity;
+    }
+
+    /**
+     * Removes all structs.
+     */
+    public void clear() {
+        msize = 0;
+    }
+
+    /**
+     * Adds a struct.
+     * @param record the struct
+     * @return the index of the struct
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public int add(MemStruct record) throws MemStructException {
+        if (record.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        addRows(record.data(), 0, 1);
+
+        return msize - 1;
+    }
+
+    /**
+     * Adds consecutive structs stored in an array, transposing them from rows to columns.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param count the number of structs
+     * @throws MemStructException if offset is out of bounds
+     */
+    public void addRows(byte[] data, int base, int count) throws MemStructException {
+        if (count < 0 || base < 0 || (long) base + (long) count * mrecordSize > data.length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        if ((long) msize + count > Integer.MAX_VALUE) {
+            throw new MemStructException("invalid capacity");
+        }
+
+        ensureCapacity(msize + count);
+
+        for (Column column : mcolumns) column.load(data, base, msize, count);
+
+        msize += count;
+    }
+
+    /**
+     * Copies consecutive structs into an array, transposing them from columns to rows.
+     * Pad bytes in the array are not modified.
+     * @param row the index of the first struct
+     * @param count the number of structs
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @throws MemStructException if index or offset is out of bounds
+     */
+    public void getRows(int row, int count, byte[] data, int base) throws MemStructException {
+        if (count < 0 || row < 0 || (long) row + count > msize || base < 0 || (long) base + (long) count * mrecordSize > data.length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        for (Column column : mcolumns) column.store(data, base, row, count);
+    }
+
+    /**
+     * Copies the columns of consecutive structs from an array, transposing them from rows to columns.
+     * @param row the index of the first struct
+     * @param count the number of structs
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @throws MemStructException if index or offset is out of bounds
+     */
+    public void setRows(int row, int count, byte[] data, int base) throws MemStructException {
+        if (count < 0 || row < 0 || (long) row + count > msize || base < 0 || (long) base + (long) count * mrecordSize > data.length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        for (Column column : mcolumns) column.load(data, base, row, count);
+    }
+
+    /**
+     * Copies a struct of the collection into a struct.
+     * @param row the index of the struct
+     * @param record the struct
+     * @throws MemStructException if struct size doesn't match the layout or index is out of bounds
+     */
+    public void getRow(int row, MemStruct record) throws MemStructException {
+        if (record.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        getRows(row, 1, record.storage(), 0);
+    }
+
+    /**
+     * Copies a struct into a struct of the collection.
+     * @param row the index of the struct
+     * @param record the struct
+     * @throws MemStructException if struct size doesn't match the layout or index is out of bounds
+     */
+    public void setRow(int row, MemStruct record) throws MemStructException {
+        if (record.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        setRows(row, 1, record.data(), 0);
+    }
+
+    /**
+     * Gets the column of a field of one byte. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public byte[] getByteColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_BYTE);
+
+        expose(column);
+
+        return column.mbytes;
+    }
+
+    /**
+     * Gets the column of a field of two bytes. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public short[] getShortColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_SHORT);
+
+        expose(column);
+
+        return column.mshorts;
+    }
+
+    /**
+     * Gets the column of an integer field of four bytes. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public int[] getIntColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_INT);
+
+        expose(column);
+
+        return column.mints;
+    }
+
+    /**
+     * Gets the column of an integer field of eight bytes. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public long[] getLongColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_LONG);
+
+        expose(column);
+
+        return column.mlongs;
+    }
+
+    /**
+     * Gets the column of a float field. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public float[] getFloatColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_FLOAT);
+
+        expose(column);
+
+        return column.mfloats;
+    }
+
+    /**
+     * Gets the column of a double field. The array is replaced when the collection grows,
+     * and the elements of struct i are at i * count, where count is the number of elements of the field.
+     * @param field the field
+     * @return the column
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public double[] getDoubleColumn(MemStructField field) throws MemStructException {
+        Column column = column(field, COLUMN_DOUBLE);
+
+        expose(column);
+
+        return column.mdoubles;
+    }
+
+    /**
+     * Gets the field of a struct as byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public byte getByte(MemStructField field, int row) throws MemStructException {
+        return getByte(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public byte getByte(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() == 1);
+
+        return (byte) load(field, row, index);
+    }
+
+    /**
+     * Gets the field of a struct as unsigned byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getUnsignedByte(MemStructField field, int row) throws MemStructException {
+        return getUnsignedByte(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as unsigned byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getUnsignedByte(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() == 1);
+
+        return (int) load(field, row, index) & 0xFF;
+    }
+
+    /**
+     * Gets the field of a struct as short.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public short getShort(MemStructField field, int row) throws MemStructException {
+        return getShort(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as short.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public short getShort(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 2);
+
+        return (short) load(field, row, index);
+    }
+
+    /**
+     * Gets the field of a struct as unsigned short.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getUnsignedShort(MemStructField field, int row) throws MemStructException {
+        return getUnsignedShort(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as unsigned short.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getUnsignedShort(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 2);
+
+        return (int) (load(field, row, index) & mask(field));
+    }
+
+    /**
+     * Gets the field of a struct as int.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getInt(MemStructField field, int row) throws MemStructException {
+        return getInt(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as int.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public int getInt(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 4);
+
+        return (int) load(field, row, index);
+    }
+
+    /**
+     * Gets the field of a struct as unsigned int.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public long getUnsignedInt(MemStructField field, int row) throws MemStructException {
+        return getUnsignedInt(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as unsigned int.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public long getUnsignedInt(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 4);
+
+        return load(field, row, index) & mask(field);
+    }
+
+    /**
+     * Gets the field of a struct as long.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public long getLong(MemStructField field, int row) throws MemStructException {
+        return getLong(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as long.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public long getLong(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, !field.isReal());
+
+        return load(field, row, index);
+    }
+
+    /**
+     * Gets the field of a struct as float.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public float getFloat(MemStructField field, int row) throws MemStructException {
+        return getFloat(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as float.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public float getFloat(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, field.isReal() && field.getSize() == 4);
+
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) {
+            return Float.intBitsToFloat((int) caseField.load(row, index));
+        }
+
+        Column column = column(field);
+
+        int position = position(column, row, index);
+
+        return column.mtype == COLUMN_FLOAT ? column.mfloats[position] : Float.intBitsToFloat(column.mints[position]);
+    }
+
+    /**
+     * Gets the field of a struct as double.
+     * @param field the field
+     * @param row the index of the struct
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public double getDouble(MemStructField field, int row) throws MemStructException {
+        return getDouble(field, row, 0);
+    }
+
+    /**
+     * Gets an element of the field of a struct as double.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public double getDouble(MemStructField field, int row, int index) throws MemStructException {
+        checkType(field, field.isReal() && field.getSize() == 8);
+
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) {
+            return Double.longBitsToDouble(caseField.load(row, index));
+        }
+
+        Column column = column(field);
+
+        int position = position(column, row, index);
+
+        return column.mtype == COLUMN_DOUBLE ? column.mdoubles[position] : Double.longBitsToDouble(column.mlongs[position]);
+    }
+
+    /**
+     * Sets the field of a struct as byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setByte(MemStructField field, int row, byte value) throws MemStructException {
+        setByte(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as byte.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setByte(MemStructField field, int row, int index, byte value) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() == 1);
+
+        store(field, row, index, value);
+    }
+
+    /**
+     * Sets the field of a struct as short.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setShort(MemStructField field, int row, short value) throws MemStructException {
+        setShort(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as short.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setShort(MemStructField field, int row, int index, short value) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 2);
+
+        store(field, row, index, value);
+    }
+
+    /**
+     * Sets the field of a struct as int.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setInt(MemStructField field, int row, int value) throws MemStructException {
+        setInt(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as int.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setInt(MemStructField field, int row, int index, int value) throws MemStructException {
+        checkType(field, !field.isReal() && field.getSize() <= 4);
+
+        store(field, row, index, value);
+    }
+
+    /**
+     * Sets the field of a struct as long.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setLong(MemStructField field, int row, long value) throws MemStructException {
+        setLong(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as long.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setLong(MemStructField field, int row, int index, long value) throws MemStructException {
+        checkType(field, !field.isReal());
+
+        store(field, row, index, value);
+    }
+
+    /**
+     * Sets the field of a struct as float.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setFloat(MemStructField field, int row, float value) throws MemStructException {
+        setFloat(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as float.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setFloat(MemStructField field, int row, int index, float value) throws MemStructException {
+        checkType(field, field.isReal() && field.getSize() == 4);
+
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) {
+            caseField.store(row, index, Float.floatToRawIntBits(value));
+            return;
+        }
+
+        Column column = column(field);
+
+        int position = position(column, row, index);
+
+        beforeWrite(column, position, 1);
+
+        if (column.mtype == COLUMN_FLOAT) {
+            column.mfloats[position] = value;
+        } else {
+            column.mints[position] = Float.floatToRawIntBits(value);
+        }
+    }
+
+    /**
+     * Sets the field of a struct as double.
+     * @param field the field
+     * @param row the index of the struct
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setDouble(MemStructField field, int row, double value) throws MemStructException {
+        setDouble(field, row, 0, value);
+    }
+
+    /**
+     * Sets an element of the field of a struct as double.
+     * @param field the field
+     * @param row the index of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setDouble(MemStructField field, int row, int index, double value) throws MemStructException {
+        checkType(field, field.isReal() && field.getSize() == 8);
+
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) {
+            caseField.store(row, index, Double.doubleToRawLongBits(value));
+            return;
+        }
+
+        Column column = column(field);
+
+        int position = position(column, row, index);
+
+        beforeWrite(column, position, 1);
+
+        if (column.mtype == COLUMN_DOUBLE) {
+            column.mdoubles[position] = value;
+        } else {
+            column.mlongs[position] = Double.doubleToRawLongBits(value);
+        }
+    }
+
+    /**
+     * Takes an immutable snapshot of the collection. The snapshot shares the columns with the
+     * collection, until the collection is modified, and then copies the modified chunks.
+     * Snapshots must be taken by the thread which modifies the collection, but they can be
+     * read by any thread.
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        Snapshot last = null;
+
+        Iterator<WeakReference<Snapshot>> iterator = msnapshots.iterator();
+
+        while (iterator.hasNext()) {
+            last = iterator.next().get();
+
+            if (last == null) iterator.remove();
+        }
+
+        // the last snapshot is still equal to the collection, unless a column has been exposed
+        if (last != null && !last.isModified() && !isExposed()) {
+            return last;
+        }
+
+        Snapshot snapshot = new Snapshot();
+
+        if (!snapshot.isDetached()) msnapshots.add(new WeakReference<Snapshot>(snapshot));
+
+        return snapshot;
+    }
+
+    /**
+     * Preserves the shared chunks of the snapshots before modifying the given range of elements of a column.
+     */
+    private void beforeWrite(Column column, int position, int length) {
+        if (msnapshots.isEmpty()) return;
+
+        Iterator<WeakReference<Snapshot>> iterator = msnapshots.iterator();
+
+        while (iterator.hasNext()) {
+            Snapshot snapshot = iterator.next().get();
+
+            // drop snapshots which have been collected or don't share columns anymore
+            if (snapshot == null || snapshot.preserve(column, position, length)) iterator.remove();
+        }
+    }
+
+    /**
+     * Detaches the snapshots from a column which is returned to the caller.
+     */
+    private void expose(Column column) {
+        beforeWrite(column, 0, mcapacity * column.mcount);
+
+        column.mexposed = true;
+    }
+
+    private boolean isExposed() {
+        for (Column column : mcolumns) {
+            if (column.mexposed) return true;
+        }
+
+        return false;
+    }
+
+    private void ensureCapacity(int capacity) throws MemStructException {
+        if (capacity <= mcapacity) return;
+
+        int length = (int) Math.min(Integer.MAX_VALUE, Math.max(capacity, Math.max(16, mcapacity * 2L)));
+
+        for (Column column : mcolumns) {
+            if ((long) length * column.mcount > Integer.MAX_VALUE) {
+                length = Integer.MAX_VALUE / column.mcount;
+            }
+        }
+
+        if (length < capacity) {
+            throw new MemStructException("invalid capacity");
+        }
+
+        mcapacity = length;
+
+        for (Column column : mcolumns) column.resize(mcapacity);
+    }
+
+    private Column column(MemStructField field) throws MemStructException {
+        int index = field.getIndex();
+
+        Column column = index < mcolumnsByIndex.length ? mcolumnsByIndex[index] : null;
+
+        if (column == null) {
+            throw new MemStructException("undefined label " + field.getLabel());
+        }
+
+        if (!column.mfield.matches(field)) {
+            throw new MemStructException("incompatible field " + field.getLabel());
+        }
+
+        return column;
+    }
+
+    private CaseField caseField(MemStructField field) throws MemStructException {
+        int index = field.getIndex();
+
+        CaseField caseField = index < mcaseFields.length ? mcaseFields[index] : null;
+
+        if (caseField != null && !caseField.mfield.matches(field)) {
+            throw new MemStructException("incompatible field " + field.getLabel());
+        }
+
+        return caseField;
+    }
+
+    private Column column(MemStructField field, int type) throws MemStructException {
+        Column column = column(field);
+
+        if (column.mtype != type) {
+            throw new MemStructException("invalid type for label " + field.getLabel());
+        }
+
+        return column;
+    }
+
+    private int position(Column column, int row, int index) throws MemStructException {
+        if (row < 0 || row >= msize || index < 0 || index >= column.mcount) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        return row * column.mcount + index;
+    }
+
+    private long load(MemStructField field, int row, int index) throws MemStructException {
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) return caseField.load(row, index);
+
+        Column column = column(field);
+
+        return column.get(position(column, row, index));
+    }
+
+    private void store(MemStructField field, int row, int index, long value) throws MemStructException {
+        CaseField caseField = caseField(field);
+
+        if (caseField != null) {
+            caseField.store(row, index, value);
+            return;
+        }
+
+        Column column = column(field);
+
+        int position = position(column, row, index);
+
+        beforeWrite(column, position, 1);
+
+        column.set(position, value);
+    }
+
+    private static void checkType(MemStructField field, boolean valid) throws MemStructException {
+        if (!valid) {
+            throw new MemStructException("invalid type for label " + field.getLabel());
+        }
+    }
+
+    private static long mask(MemStructField field) {
+        return field.getSize() < 8 ? (1L << field.getSize() * 8) - 1 : -1L;
+    }
+
+    private static long signExtend(long bits, int size) {
+        int shift = 64 - size * 8;
+
+        return (bits << shift) >> shift;
+    }
+
+    /**
+     * Returns the element of a column array, sign extended, or the bits of a float or double element.
+     */
+    private static long element(Object array, int type, int position) {
+        switch (type) {
+            case COLUMN_BYTE:
+                return ((byte[]) array)[position];
+
+            case COLUMN_SHORT:
+                return ((short[]) array)[position];
+
+            case COLUMN_INT:
+                return ((int[]) array)[position];
+
+            case COLUMN_LONG:
+                return ((long[]) array)[position];
+
+            case COLUMN_FLOAT:
+                return Float.floatToRawIntBits(((float[]) array)[position]);
+
+            default:
+                return Double.doubleToRawLongBits(((double[]) array)[position]);
+        }
+    }
+
+    /**
+     * Immutable view of the structs of the collection at the time the snapshot was taken.
+     * <p>
+     * Accessors follow the same rules of the collection accessors, and a snapshot can be read
+     * by any thread while the collection is modified.
+     */
+    public final class Snapshot {
+        // the number of structs
+        private final int mrows;
+
+        // the column arrays, until every chunk of the column has been copied
+        private final Object[] mlive;
+
+        // the copied chunks of each column, and the number of elements of a chunk
+        private final Object[][] mchunks;
+        private final int[] mchunkLengths;
+
+        // the number of chunks, and the number of copied chunks
+        private int mchunksCount = 0;
+        private int mcopied = 0;
+
+        // true when a chunk has been copied because the collection has been modified
+        private boolean mmodified = false;
+
+        // the element of a variant case, which may cross the boundary of two chunks
+        private final byte[] mscratch = new byte[8];
+
+        private Snapshot() {
+            mrows = msize;
+            mlive = new Object[mcolumns.length];
+            mchunks = new Object[mcolumns.length][];
+            mchunkLengths = new int[mcolumns.length];
+
+            for (Column column : mcolumns) {
+                int length = mrows * column.mcount;
+
+                mlive[column.mindex] = column.array();
+                mchunkLengths[column.mindex] = Math.max(1, Math.min(MemStructSnapshot.CHUNK_SIZE / column.mfield.getSize(), length));
+                mchunks[column.mindex] = new Object[(length + mchunkLengths[column.mindex] - 1) / mchunkLengths[column.mindex]];
+
+                mchunksCount += mchunks[column.mindex].length;
+            }
+
+            // writes to exposed columns can't be tracked
+            for (Column column : mcolumns) {
+                if (column.mexposed) copy(column.mindex, 0, mchunks[column.mindex].length);
+            }
+        }
+
+        /**
+         * Returns true if the collection has been modified after the snapshot was taken.
+         */
+        synchronized boolean isModified() {
+            return mmodified;
+        }
+
+        /**
+         * Returns true if every chunk has been copied.
+         */
+        synchronized boolean isDetached() {
+            return mcopied == mchunksCount;
+        }
+
+        /**
+         * Copies the chunks which contain the given range of elements of a column, before the
+         * collection modifies them. Returns true when all chunks have been copied.
+         */
+        synchronized boolean preserve(Column column, int position, int length) {
+            int c = column.mindex;
+
+            // a replaced array is not written anymore
+            if (mlive[c] != column.array()) return mcopied == mchunksCount;
+
+            int start = Math.max(0, position);
+            int end = (int) Math.min((long) mrows * column.mcount, (long) position + length);
+
+            // an empty range doesn't modify any chunk
+            if (start >= end) return mcopied == mchunksCount;
+
+            if (copy(c, start / mchunkLengths[c], (end - 1) / mchunkLengths[c] + 1)) mmodified = true;
+
+            return mcopied == mchunksCount;
+        }
+
+        /**
+         * Gets the number of structs.
+         * @return the number of structs
+         */
+        public int size() {
+            return mrows;
+        }
+
+        /**
+         * Gets the number of bytes which have been copied into the snapshot.
+         * @return the number of bytes
+         */
+        public synchronized long getCopiedSize() {
+            long size = 0;
+
+            for (Column column : mcolumns) {
+                for (Object chunk : mchunks[column.mindex]) {
+                    if (chunk != null) size += (long) Array.getLength(chunk) * column.mfield.getSize();
+                }
+            }
+
+            return size;
+        }
+
+        /**
+         * Copies consecutive structs into an array, transposing them from columns to rows.
+         * Pad bytes in the array are not modified.
+         * @param row the index of the first struct
+         * @param count the number of structs
+         * @param data the structs data
+         * @param base the offset of the first struct
+         * @throws MemStructException if index or offset is out of bounds
+         */
+        public synchronized void getRows(int row, int count, byte[] data, int base) throws MemStructException {
+            if (count < 0 || row < 0 || (long) row + count > mrows || base < 0 || (long) base + (long) count * mrecordSize > data.length) {
+                throw new MemStructException("memory offset out of bounds");
+            }
+
+            for (Column column : mcolumns) {
+                MemStructField field = column.mfield.raw();
+
+                for (int r = 0; r < count; r++) {
+                    int position = (row + r) * column.mcount;
+
+                    int offset = base + r * mrecordSize;
+
+                    for (int i = 0; i < column.mcount; i++) field.setBits(data, offset, i, element(column.mindex, position + i));
+                }
+            }
+        }
+
+        /**
+         * Copies a struct of the snapshot into a struct.
+         * @param row the index of the struct
+         * @param record the struct
+         * @throws MemStructException if struct size doesn't match the layout or index is out of bounds
+         */
+        public void getRow(int row, MemStruct record) throws MemStructException {
+            if (record.sizeOf() != mrecordSize) {
+                throw new MemStructException("incompatible layout");
+            }
+
+            getRows(row, 1, record.storage(), 0);
+        }
+
+        /**
+         * Gets the field of a struct as byte.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public byte getByte(MemStructField field, int row) throws MemStructException {
+            return getByte(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as byte.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public byte getByte(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() == 1);
+
+            return (byte) load(field, row, index);
+        }
+
+        /**
+         * Gets the field of a struct as unsigned byte.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getUnsignedByte(MemStructField field, int row) throws MemStructException {
+            return getUnsignedByte(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as unsigned byte.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getUnsignedByte(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() == 1);
+
+            return (int) load(field, row, index) & 0xFF;
+        }
+
+        /**
+         * Gets the field of a struct as short.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public short getShort(MemStructField field, int row) throws MemStructException {
+            return getShort(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as short.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public short getShort(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() <= 2);
+
+            return (short) load(field, row, index);
+        }
+
+        /**
+         * Gets the field of a struct as unsigned short.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getUnsignedShort(MemStructField field, int row) throws MemStructException {
+            return getUnsignedShort(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as unsigned short.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getUnsignedShort(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() <= 2);
+
+            return (int) (load(field, row, index) & mask(field));
+        }
+
+        /**
+         * Gets the field of a struct as int.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getInt(MemStructField field, int row) throws MemStructException {
+            return getInt(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as int.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public int getInt(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() <= 4);
+
+            return (int) load(field, row, index);
+        }
+
+        /**
+         * Gets the field of a struct as unsigned int.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public long getUnsignedInt(MemStructField field, int row) throws MemStructException {
+            return getUnsignedInt(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as unsigned int.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public long getUnsignedInt(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal() && field.getSize() <= 4);
+
+            return load(field, row, index) & mask(field);
+        }
+
+        /**
+         * Gets the field of a struct as long.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public long getLong(MemStructField field, int row) throws MemStructException {
+            return getLong(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as long.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public long getLong(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, !field.isReal());
+
+            return load(field, row, index);
+        }
+
+        /**
+         * Gets the field of a struct as float.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public float getFloat(MemStructField field, int row) throws MemStructException {
+            return getFloat(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as float.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public float getFloat(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, field.isReal() && field.getSize() == 4);
+
+            return Float.intBitsToFloat((int) load(field, row, index));
+        }
+
+        /**
+         * Gets the field of a struct as double.
+         * @param field the field
+         * @param row the index of the struct
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public double getDouble(MemStructField field, int row) throws MemStructException {
+            return getDouble(field, row, 0);
+        }
+
+        /**
+         * Gets an element of the field of a struct as double.
+         * @param field the field
+         * @param row the index of the struct
+         * @param index the index of the element
+         * @return the value
+         * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+         */
+        public double getDouble(MemStructField field, int row, int index) throws MemStructException {
+            checkType(field, field.isReal() && field.getSize() == 8);
+
+            return Double.longBitsToDouble(load(field, row, index));
+        }
+
+        /**
+         * Copies the given chunks of a column. Returns true if a chunk has been copied.
+         */
+        private boolean copy(int c, int first, int last) {
+            Object live = mlive[c];
+
+            if (live == null) return false;
+
+            int length = mchunkLengths[c];
+            int extent = mrows * mcolumns[c].mcount;
+
+            boolean copied = false;
+
+            for (int k = first; k < last; k++) {
+                if (mchunks[c][k] == null) {
+                    int size = Math.min(length, extent - k * length);
+
+                    mchunks[c][k] = Array.newInstance(live.getClass().getComponentType(), size);
+
+                    System.arraycopy(live, k * length, mchunks[c][k], 0, size);
+
+                    mcopied++;
+
+                    copied = true;
+                }
+            }
+
+            // the column is not shared anymore
+            if (copied && isCopied(c)) mlive[c] = null;
+
+            return copied;
+        }
+
+        private boolean isCopied(int c) {
+            for (Object chunk : mchunks[c]) {
+                if (chunk == null) return false;
+            }
+
+            return true;
+        }
+
+        private synchronized long load(MemStructField field, int row, int index) throws MemStructException {
+            CaseField caseField = caseField(field);
+
+            if (caseField != null) {
+                checkPosition(row, index, field.getCount());
+
+                caseField.checkCase(element(caseField.mdiscriminator.mindex, row));
+
+                int position = row * caseField.mvariant.mcount + caseField.offset(index);
+
+                for (int i = 0; i < field.getSize(); i++) mscratch[i] = (byte) element(caseField.mvariant.mindex, position + i);
+
+                return signExtend(field.raw().getBits(mscratch, -(field.getOffset() + index * field.getSize()), index), field.getSize());
+            }
+
+            Column column = column(field);
+
+            checkPosition(row, index, column.mcount);
+
+            return element(column.mindex, row * column.mcount + index);
+        }
+
+        private void checkPosition(int row, int index, int count) throws MemStructException {
+            if (row < 0 || row >= mrows || index < 0 || index >= count) {
+                throw new MemStructException("memory offset out of bounds");
+            }
+        }
+
+        private long element(int c, int position) {
+            Object chunk = mchunks[c][position / mchunkLengths[c]];
+
+            if (chunk != null) return MemStructColumns.element(chunk, mcolumns[c].mtype, position % mchunkLengths[c]);
+
+            return MemStructColumns.element(mlive[c], mcolumns[c].mtype, position);
+        }
+    }
+
+    /**
+     * Field of a variant case, which is stored in the column of the variant.
+     */
+    private final class CaseField {
+        private final MemStructField mfield;
+        private final Column mvariant;
+        private final Column mdiscriminator;
+        private final int mvariantOffset;
+
+        CaseField(MemStructField field, Column variant, Column discriminator, int variantOffset) {
+            mfield = field;
+            mvariant = variant;
+            mdiscriminator = discriminator;
+            mvariantOffset = variantOffset;
+        }
+
+        /**
+         * Returns the element of the struct, sign extended.
+         */
+        long load(int row, int index) throws MemStructException {
+            return signExtend(mfield.raw().getBits(mvariant.mbytes, base(row, index), index), mfield.getSize());
+        }
+
+        void store(int row, int index, long value) throws MemStructException {
+            int base = base(row, index);
+
+            beforeWrite(mvariant, row * mvariant.mcount + offset(index), mfield.getSize());
+
+            mfield.raw().setBits(mvariant.mbytes, base, index, value);
+        }
+
+        /**
+         * Returns the offset of an element within the bytes of the variant.
+         */
+        int offset(int index) {
+            return mfield.getOffset() - mvariantOffset + index * mfield.getSize();
+        }
+
+        /**
+         * Checks that the given value of the discriminator selects the case of the field.
+         */
+        void checkCase(long value) throws MemStructException {
+            if (mfield.getCase().getVariant().dispatch(value & mask(mdiscriminator.mfield)) != mfield.getCase()) {
+                throw new MemStructException("inactive label " + mfield.getLabel());
+            }
+        }
+
+        /**
+         * Checks the active case and returns the offset of the struct in the column of the variant,
+         * relative to the offset of the variant within the struct.
+         */
+        private int base(int row, int index) throws MemStructException {
+            if (row < 0 || row >= msize || index < 0 || index >= mfield.getCount()) {
+                throw new MemStructException("memory offset out of bounds");
+            }
+
+            checkCase(mdiscriminator.get(row));
+
+            return row * mvariant.mcount - mvariantOffset;
+        }
+    }
+
+    /**
+     * Primitive array which contains the elements of one field.
+     */
+    private final class Column {
+        private final MemStructField mfield;
+        private final int mtype;
+        private final int mcount;
+
+        // the position of the column in declaration order
+        private final int mindex;
+
+        // true when the array has been returned to the caller
+        private boolean mexposed;
+
+        private byte[] mbytes;
+        private short[] mshorts;
+        private int[] mints;
+        private long[] mlongs;
+        private float[] mfloats;
+        private double[] mdoubles;
+
+        Column(MemStructField field, int index) {
+            mfield = field;
+            mcount = field.getCount();
+            mindex = index;
+
+            if (field.getSize() == 1) {
+                mtype = COLUMN_BYTE;
+            } else if (field.getSize() == 2) {
+                mtype = COLUMN_SHORT;
+            } else if (field.getSize() == 4) {
+                mtype = field.isReal() ? COLUMN_FLOAT : COLUMN_INT;
+            } else {
+                mtype = field.isReal() ? COLUMN_DOUBLE : COLUMN_LONG;
+            }
+
+            resize(mcapacity);
+        }
+
+        void resize(int capacity) {
+            int length = capacity * mcount;
+
+            // the old array is not written anymore
+            mexposed = false;
+
+            switch (mtype) {
+                case COLUMN_BYTE:
+                    mbytes = mbytes == null ? new byte[length] : Arrays.copyOf(mbytes, length);
+                    break;
+
+                case COLUMN_SHORT:
+                    mshorts = mshorts == null ? new short[length] : Arrays.copyOf(mshorts, length);
+                    break;
+
+                case COLUMN_INT:
+                    mints = mints == null ? new int[length] : Arrays.copyOf(mints, length);
+                    break;
+
+                case COLUMN_LONG:
+                    mlongs = mlongs == null ? new long[length] : Arrays.copyOf(mlongs, length);
+                    break;
+
+                case COLUMN_FLOAT:
+                    mfloats = mfloats == null ? new float[length] : Arrays.copyOf(mfloats, length);
+                    break;
+
+                default:
+                    mdoubles = mdoubles == null ? new double[length] : Arrays.copyOf(mdoubles, length);
+                    break;
+            }
+        }
+
+        /**
+         * Returns the array of the column.
+         */
+        Object array() {
+            switch (mtype) {
+                case COLUMN_BYTE:
+                    return mbytes;
+
+                case COLUMN_SHORT:
+                    return mshorts;
+
+                case COLUMN_INT:
+                    return mints;
+
+                case COLUMN_LONG:
+                    return mlongs;
+
+                case COLUMN_FLOAT:
+                    return mfloats;
+
+                default:
+                    return mdoubles;
+            }
+        }
+
+        /**
+         * Returns the element at the given position, sign extended.
+         */
+        long get(int position) {
+            switch (mtype) {
+                case COLUMN_BYTE:
+                    return mbytes[position];
+
+                case COLUMN_SHORT:
+                    return mshorts[position];
+
+                case COLUMN_INT:
+                    return mints[position];
+
+                case COLUMN_LONG:
+                    return mlongs[position];
+
+                case COLUMN_FLOAT:
+                    return Float.floatToRawIntBits(mfloats[position]);
+
+                default:
+                    return Double.doubleToRawLongBits(mdoubles[position]);
+            }
+        }
+
+        /**
+         * Sets the element at the given position, truncated to the size of the field.
+         */
+        void set(int position, long value) {
+            switch (mtype) {
+                case COLUMN_BYTE:
+                    mbytes[position] = (byte) value;
+                    break;
+
+                case COLUMN_SHORT:
+                    mshorts[position] = (short) value;
+                    break;
+
+                case COLUMN_INT:
+                    mints[position] = (int) value;
+                    break;
+
+                case COLUMN_LONG:
+                    mlongs[position] = value;
+                    break;
+
+                case COLUMN_FLOAT:
+                    mfloats[position] = Float.intBitsToFloat((int) value);
+                    break;
+
+                default:
+                    mdoubles[position] = Double.longBitsToDouble(value);
+                    break;
+            }
+        }
+
+        /**
+         * Transposes the field of consecutive structs from rows into the column.
+         */
+        void load(byte[] data, int base, int row, int count) throws MemStructException {
+            beforeWrite(this, row * mcount, count * mcount);
+
+            if (mcount == 1) {
+                switch (mtype) {
+                    case COLUMN_BYTE:
+                        mfield.getBytes(data, base, mbytes, row, count);
+                        break;
+
+                    case COLUMN_SHORT:
+                        mfield.getShorts(data, base, mshorts, row, count);
+                        break;
+
+                    case COLUMN_INT:
+                        mfield.getInts(data, base, mints, row, count);
+                        break;
+
+                    case COLUMN_LONG:
+                        mfield.getLongs(data, base, mlongs, row, count);
+                        break;
+
+                    case COLUMN_FLOAT:
+                        mfield.getFloats(data, base, mfloats, row, count);
+                        break;
+
+                    default:
+                        mfield.getDoubles(data, base, mdoubles, row, count);
+                        break;
+                }
+            } else {
+                for (int r = 0; r < count; r++) {
+                    int position = (row + r) * mcount;
+
+                    int offset = base + r * mrecordSize;
+
+                    for (int i = 0; i < mcount; i++) set(position + i, mfield.getLong(data, offset, i));
+                }
+            }
+        }
+
+        /**
+         * Transposes the field of consecutive structs from the column into rows.
+         */
+        void store(byte[] data, int base, int row, int count) throws MemStructException {
+            if (mcount == 1) {
+                switch (mtype) {
+                    case COLUMN_BYTE:
+                        mfield.setBytes(data, base, mbytes, row, count);
+                        break;
+
+                    case COLUMN_SHORT:
+                        mfield.setShorts(data, base, mshorts, row, count);
+                        break;
+
+                    case COLUMN_INT:
+                        mfield.setInts(data, base, mints, row, count);
+                        break;
+
+                    case COLUMN_LONG:
+                        mfield.setLongs(data, base, mlongs, row, count);
+                        break;
+
+                    case COLUMN_FLOAT:
+                        mfield.setFloats(data, base, mfloats, row, count);
+                        break;
+
+                    default:
+                        mfield.setDoubles(data, base, mdoubles, row, count);
+                        break;
+                }
+            } else {
+                for (int r = 0; r < count; r++) {
+                    int position = (row + r) * mcount;
+
+                    int offset = base + r * mrecordSize;
+
+                    for (int i = 0; i < mcount; i++) mfield.setLong(data, offset, i, get(position + i));
+                }
+            }
+        }
+    }
+}
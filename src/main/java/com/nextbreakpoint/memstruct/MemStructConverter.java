@@ -0,0 +1,502 @@
+/*
+ * MemStructConverter.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Converts struct data from one layout to another, matching fields by label.
+ * <p>
+ * The conversion plan is compiled once. Fields with the same width and bytes ordering
+ * in both layouts become copies, and copies of adjacent fields are merged into a single
+ * bulk copy. Fields with the same width but different bytes ordering are swapped, and
+ * fields with different width are widened or narrowed (truncated, like set does). Widening
+ * sign-extends integers, like the typed accessors do, unless the plan is compiled for unsigned
+ * fields, in which case it zero-extends like get does. Float and double fields are converted
+ * by value when the other field has a different size or is an integer, and the integer is
+ * signed or unsigned according to the plan. For ds fields the common number of elements
+ * is converted.
+ * <p>
+ * Variants with the same label in both layouts are converted case by case: a plan is compiled
+ * for each case of the source variant which has a case with the same label in the target variant,
+ * and the plan of the case selected by the source discriminator converts the fields of the case.
+ * The target discriminator is set to the value of the target case, and the bytes of the target
+ * variant which are not covered by the case are cleared. When the source case has no matching
+ * target case, or the source discriminator doesn't select any case, the target variant is cleared.
+ * <p>
+ * Bytes of the target layout which are not covered by any source field, pad bytes included,
+ * are filled with the target struct contents at the time the plan is compiled, so that
+ * new fields get the values of their dc declaration.
+ */
+public final class MemStructConverter {
+    // plan steps
+    private final static int FILL = 0;
+    private final static int COPY = 1;
+    private final static int SWAP = 2;
+    private final static int CONVERT = 3;
+    private final static int CONVERT_REAL = 4;
+
+    // the size of source and target structs
+    private final int msrcSize;
+    private final int mdstSize;
+
+    // the target contents used to fill uncovered bytes
+    private final byte[] mtemplate;
+
+    // the plan of the fields which are not in variants
+    private final Plan mplan;
+
+    // the variants converted case by case
+    private final MemStructVariant[] msrcVariants;
+    private final MemStruct.StructItem[] msrcDiscriminators;
+    private final MemStruct.StructItem[] mdstDiscriminators;
+    private final int[] mdstVariantOffset;
+    private final int[] mdstVariantSize;
+
+    // the plans of the cases indexed by source case, and the values of the target cases
+    private final Plan[][] mcasePlans;
+    private final long[][] mcaseValues;
+
+    // the orderings of source and target structs
+    private final boolean msrcBigEndian;
+    private final boolean mdstBigEndian;
+
+    // true if integer fields are signed
+    private final boolean msigned;
+
+    /**
+     * Compile the conversion plan between two layouts, where integer fields are signed.
+     * @param source the struct which provides the source layout
+     * @param target the struct which provides the target layout and the default values
+     */
+    public MemStructConverter(MemStruct source, MemStruct target) {
+        this(source, target, true);
+    }
+
+    /**
+     * Compile the conversion plan between two layouts.
+     * @param source the struct which provides the source layout
+     * @param target the struct which provides the target layout and the default values
+     * @param signed true if integer fields are sign-extended, false if they are zero-extended
+     */
+    public MemStructConverter(MemStruct source, MemStruct target, boolean signed) {
+        msigned = signed;
+
+        msrcSize = source.sizeOf();
+        mdstSize = target.sizeOf();
+
+        msrcBigEndian = source.getBytesOrdering() == ORDERING_BIG_ENDIAN;
+        mdstBigEndian = target.getBytesOrdering() == ORDERING_BIG_ENDIAN;
+
+        mtemplate = new byte[mdstSize];
+
+        if (mdstSize > 0) System.arraycopy(target.data(), 0, mtemplate, 0, mdstSize);
+
+        HashMap<String, MemStructVariant> sourceVariants = new HashMap<String, MemStructVariant>();
+
+        for (MemStructVariant variant : source.getVariants()) sourceVariants.put(variant.getLabel(), variant);
+
+        List<MemStructVariant[]> variants = new ArrayList<MemStructVariant[]>();
+
+        for (MemStructVariant variant : target.getVariants()) {
+            MemStructVariant sourceVariant = sourceVariants.get(variant.getLabel());
+
+            if (sourceVariant != null) variants.add(new MemStructVariant[] { sourceVariant, variant });
+        }
+
+        msrcVariants = new MemStructVariant[variants.size()];
+        msrcDiscriminators = new MemStruct.StructItem[variants.size()];
+        mdstDiscriminators = new MemStruct.StructItem[variants.size()];
+        mdstVariantOffset = new int[variants.size()];
+        mdstVariantSize = new int[variants.size()];
+        mcasePlans = new Plan[variants.size()][];
+        mcaseValues = new long[variants.size()][];
+
+        boolean[] covered = new boolean[mdstSize];
+
+        byte[] zeros = new byte[mdstSize];
+
+        for (int v = 0; v < variants.size(); v++) {
+            MemStructVariant sourceVariant = variants.get(v)[0];
+            MemStructVariant targetVariant = variants.get(v)[1];
+
+            msrcVariants[v] = sourceVariant;
+            msrcDiscriminators[v] = sourceVariant.getDiscriminatorItem();
+            mdstDiscriminators[v] = targetVariant.getDiscriminatorItem();
+            mdstVariantOffset[v] = targetVariant.getOffset();
+            mdstVariantSize[v] = targetVariant.getSize();
+            mcasePlans[v] = new Plan[sourceVariant.getCases().size()];
+            mcaseValues[v] = new long[sourceVariant.getCases().size()];
+
+            for (MemStructVariant.Case sourceCase : sourceVariant.getCases()) {
+                for (MemStructVariant.Case targetCase : targetVariant.getCases()) {
+                    if (!targetCase.getLabel().equals(sourceCase.getLabel())) continue;
+
+                    // the bytes of the variant which are not covered by the case are cleared
+                    boolean[] caseCovered = new boolean[mdstSize];
+
+                    for (int i = 0; i < mdstSize; i++) {
+                        caseCovered[i] = i < targetVariant.getOffset() || i >= targetVariant.getOffset() + targetVariant.getSize();
+                    }
+
+                    mcasePlans[v][sourceCase.getIndex()] = new Plan(source.getItems(sourceCase), target.getItems(targetCase), caseCovered, zeros);
+                    mcaseValues[v][sourceCase.getIndex()] = targetCase.getValue();
+                }
+            }
+
+            // the variant is converted by the plans of the cases
+            for (int i = 0; i < targetVariant.getSize(); i++) covered[targetVariant.getOffset() + i] = true;
+        }
+
+        List<MemStruct.StructItem> sourceItems = new ArrayList<MemStruct.StructItem>();
+        List<MemStruct.StructItem> targetItems = new ArrayList<MemStruct.StructItem>();
+
+        for (MemStruct.StructItem si : source.getItems()) {
+            if (si.getVariant() == null || !contains(msrcVariants, si.getVariant())) sourceItems.add(si);
+        }
+
+        for (MemStruct.StructItem si : target.getItems()) {
+            if (si.getVariant() == null || !sourceVariants.containsKey(si.getLabel())) targetItems.add(si);
+        }
+
+        mplan = new Plan(sourceItems, targetItems, covered, mtemplate);
+    }
+
+    /**
+     * Returns true if integer fields are sign-extended.
+     * @return true if integer fields are signed
+     */
+    public boolean isSigned() {
+        return msigned;
+    }
+
+    /**
+     * Gets the number of steps the plan has been compiled into, the plans of the variant cases excluded.
+     * @return the number of steps
+     */
+    public int getStepCount() {
+        return mplan.mkind.length;
+    }
+
+    /**
+     * Converts the contents of source struct into target struct.
+     * @param source the source struct
+     * @param target the target struct
+     * @throws MemStructException if structs sizes don't match the plan
+     */
+    public void convert(MemStruct source, MemStruct target) throws MemStructException {
+        if (source.sizeOf() != msrcSize || target.sizeOf() != mdstSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (mdstSize > 0) convert(msrcSize > 0 ? source.data() : new byte[0], 0, target.storage(), 0, 1);
+    }
+
+    /**
+     * Converts an array of structs into a destination array.
+     * @param src the source data
+     * @param srcOffset the offset of the first struct in source data
+     * @param dst the destination data
+     * @param dstOffset the offset of the first struct in destination data
+     * @param count the number of structs
+     * @throws MemStructException if structs are out of bounds
+     */
+    public void convert(byte[] src, int srcOffset, byte[] dst, int dstOffset, int count) throws MemStructException {
+        checkBounds(src.length, srcOffset, count, msrcSize);
+        checkBounds(dst.length, dstOffset, count, mdstSize);
+
+        for (int r = 0; r < count; r++) {
+            int srcBase = srcOffset + r * msrcSize;
+            int dstBase = dstOffset + r * mdstSize;
+
+            mplan.convert(src, srcBase, dst, dstBase);
+
+            for (int v = 0; v < msrcVariants.length; v++) {
+                MemStruct.StructItem sd = msrcDiscriminators[v];
+
+                MemStructVariant.Case sourceCase = msrcVariants[v].dispatch(readBits(src, srcBase + sd.getOffset(), sd.getTypeSize()));
+
+                Plan plan = sourceCase != null ? mcasePlans[v][sourceCase.getIndex()] : null;
+
+                if (plan != null) {
+                    plan.convert(src, srcBase, dst, dstBase);
+
+                    MemStruct.StructItem dd = mdstDiscriminators[v];
+
+                    write(dst, dstBase + dd.getOffset(), dd.getTypeSize(), mcaseValues[v][sourceCase.getIndex()]);
+                } else {
+                    Arrays.fill(dst, dstBase + mdstVariantOffset[v], dstBase + mdstVariantOffset[v] + mdstVariantSize[v], (byte) 0);
+                }
+            }
+        }
+    }
+
+    private long read(byte[] data, int offset, int width) {
+        long value = readBits(data, offset, width);
+
+        if (msigned && width < 8) {
+            int shift = 64 - width * 8;
+
+            value = (value << shift) >> shift;
+        }
+
+        return value;
+    }
+
+    private long readBits(byte[] data, int offset, int width) {
+        long value = 0;
+
+        for (int i = 0; i < width; i++) {
+            value = value << 8;
+
+            if (msrcBigEndian) {
+                value |= data[offset + i] & 0xFF;
+            } else {
+                value |= data[offset + width - i - 1] & 0xFF;
+            }
+        }
+
+        return value;
+    }
+
+    private void write(byte[] data, int offset, int width, long value) {
+        for (int i = 0; i < width; i++) {
+            if (mdstBigEndian) {
+                data[offset + width - i - 1] = (byte) (value & 0xFF);
+            } else {
+                data[offset + i] = (byte) (value & 0xFF);
+            }
+
+            value = value >> 8;
+        }
+    }
+
+    private void checkBounds(int length, int offset, int count, int size) throws MemStructException {
+        if (offset < 0 || count < 0 || (long) offset + (long) count * size > length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    private static boolean contains(MemStructVariant[] variants, MemStructVariant variant) {
+        for (MemStructVariant v : variants) {
+            if (v == variant) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Steps which convert the matching fields of two lists of items.
+     */
+    private final class Plan {
+        private final int[] mkind;
+        private final int[] msrcOffset;
+        private final int[] mdstOffset;
+        private final int[] mlength;
+        private final int[] msrcWidth;
+        private final int[] mdstWidth;
+
+        // the source and target floating point flags of the steps
+        private final boolean[] mreal;
+
+        // the contents used to fill uncovered bytes
+        private final byte[] mfill;
+
+        /**
+         * Compiles the steps. The bytes which are already covered are neither converted nor filled.
+         */
+        Plan(List<MemStruct.StructItem> sourceItems, List<MemStruct.StructItem> targetItems, boolean[] covered, byte[] fill) {
+            mfill = fill;
+
+            HashMap<String, MemStruct.StructItem> sourceByLabel = new HashMap<String, MemStruct.StructItem>();
+
+            for (MemStruct.StructItem si : sourceItems) sourceByLabel.put(si.getLabel(), si);
+
+            covered = covered.clone();
+
+            List<int[]> steps = new ArrayList<int[]>();
+
+            for (MemStruct.StructItem dsi : targetItems) {
+                MemStruct.StructItem ssi = sourceByLabel.get(dsi.getLabel());
+
+                if (ssi == null) continue;
+
+                int srcWidth = ssi.getTypeSize();
+                int dstWidth = dsi.getTypeSize();
+
+                int count = Math.min(ssi.getTotalSize() / srcWidth, dsi.getTotalSize() / dstWidth);
+
+                if (count == 0) continue;
+
+                for (int i = 0; i < count * dstWidth; i++) covered[dsi.getOffset() + i] = true;
+
+                int[] step;
+
+                if (ssi.isReal() != dsi.isReal() || (ssi.isReal() && srcWidth != dstWidth)) {
+                    step = new int[] { CONVERT_REAL, ssi.getOffset(), dsi.getOffset(), count, srcWidth, dstWidth, ssi.isReal() ? 1 : 0, dsi.isReal() ? 1 : 0 };
+                } else if (srcWidth == dstWidth && (srcWidth == 1 || msrcBigEndian == mdstBigEndian)) {
+                    step = new int[] { COPY, ssi.getOffset(), dsi.getOffset(), count * dstWidth, srcWidth, dstWidth };
+                } else if (srcWidth == dstWidth) {
+                    step = new int[] { SWAP, ssi.getOffset(), dsi.getOffset(), count, srcWidth, dstWidth };
+                } else {
+                    step = new int[] { CONVERT, ssi.getOffset(), dsi.getOffset(), count, srcWidth, dstWidth };
+                }
+
+                int[] last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+
+                if (last != null && last[0] == COPY && step[0] == COPY && last[1] + last[3] == step[1] && last[2] + last[3] == step[2]) {
+                    last[3] += step[3];
+                } else {
+                    steps.add(step);
+                }
+            }
+
+            mreal = new boolean[steps.size() * 2];
+
+            for (int i = 0; i < steps.size(); i++) {
+                int[] step = steps.get(i);
+
+                if (step[0] == CONVERT_REAL) {
+                    mreal[i * 2] = step[6] == 1;
+                    mreal[i * 2 + 1] = step[7] == 1;
+                }
+            }
+
+            for (int i = 0; i < covered.length; ) {
+                if (covered[i]) {
+                    i++;
+
+                    continue;
+                }
+
+                int start = i;
+
+                while (i < covered.length && !covered[i]) i++;
+
+                steps.add(new int[] { FILL, start, start, i - start, 1, 1 });
+            }
+
+            mkind = new int[steps.size()];
+            msrcOffset = new int[steps.size()];
+            mdstOffset = new int[steps.size()];
+            mlength = new int[steps.size()];
+            msrcWidth = new int[steps.size()];
+            mdstWidth = new int[steps.size()];
+
+            for (int i = 0; i < steps.size(); i++) {
+                int[] step = steps.get(i);
+
+                mkind[i] = step[0];
+                msrcOffset[i] = step[1];
+                mdstOffset[i] = step[2];
+                mlength[i] = step[3];
+                msrcWidth[i] = step[4];
+                mdstWidth[i] = step[5];
+            }
+        }
+
+        /**
+         * Converts one struct.
+         */
+        void convert(byte[] src, int srcBase, byte[] dst, int dstBase) {
+            for (int i = 0; i < mkind.length; i++) {
+                int s = srcBase + msrcOffset[i];
+                int d = dstBase + mdstOffset[i];
+
+                switch (mkind[i]) {
+                    case FILL: {
+                        System.arraycopy(mfill, msrcOffset[i], dst, d, mlength[i]);
+
+                        break;
+                    }
+
+                    case COPY: {
+                        System.arraycopy(src, s, dst, d, mlength[i]);
+
+                        break;
+                    }
+
+                    case SWAP: {
+                        int width = msrcWidth[i];
+                        int length = width * mlength[i];
+
+                        for (int p = 0; p < length; p += width) {
+                            for (int k = 0; k < width; k++) dst[d + p + k] = src[s + p + width - k - 1];
+                        }
+
+                        break;
+                    }
+
+                    case CONVERT: {
+                        int srcWidth = msrcWidth[i];
+                        int dstWidth = mdstWidth[i];
+
+                        for (int e = 0; e < mlength[i]; e++) {
+                            write(dst, d + e * dstWidth, dstWidth, read(src, s + e * srcWidth, srcWidth));
+                        }
+
+                        break;
+                    }
+
+                    case CONVERT_REAL: {
+                        int srcWidth = msrcWidth[i];
+                        int dstWidth = mdstWidth[i];
+
+                        for (int e = 0; e < mlength[i]; e++) {
+                            long value = read(src, s + e * srcWidth, srcWidth);
+
+                            double real;
+
+                            if (!mreal[i * 2]) {
+                                real = msigned || value >= 0 ? value : (double) (value >>> 1) * 2 + (value & 1);
+                            } else if (srcWidth == 4) {
+                                real = Float.intBitsToFloat((int) value);
+                            } else {
+                                real = Double.longBitsToDouble(value);
+                            }
+
+                            if (!mreal[i * 2 + 1]) {
+                                value = (long) real;
+                            } else if (dstWidth == 4) {
+                                value = Float.floatToRawIntBits((float) real);
+                            } else {
+                                value = Double.doubleToRawLongBits(real);
+                            }
+
+                            write(dst, d + e * dstWidth, dstWidth, value);
+                        }
+
+                        break;
+                    }
+
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
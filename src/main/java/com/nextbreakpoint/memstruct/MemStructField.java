@@ -0,0 +1,1275 @@
+/*
+ * MemStructField.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Handle of a labelled field, which provides typed access without label lookup.
+ * <p>
+ * A handle depends only on the layout of the struct, so it can access the field of any
+ * struct with the same layout, given the array of bytes or the buffer and the offset of
+ * the struct. Buffers are accessed with the bytes ordering of the layout, whatever their
+ * own ordering is. Bulk accessors read or write the same field of consecutive structs,
+ * where each struct starts sizeOf bytes after the previous one.
+ * <p>
+ * Signed accessors sign-extend the field to the size of the returned type, and unsigned
+ * accessors zero-extend it. Accessing a field which is larger than the requested type,
+ * an integer accessor on a float or double field, or a float or double accessor on a field
+ * which is not a float or double of the same size, throws an exception. Setters truncate
+ * the value to the size of the field. Accessing a field of a variant case throws an exception
+ * when the discriminator of the struct doesn't select the case.
+ */
+public final class MemStructField {
+    private final String mlabel;
+    private final int moffset;
+    private final int mwidth;
+    private final int mcount;
+    private final boolean mreal;
+    private final boolean mspace;
+    private final boolean mbigEndian;
+    private final int mrecordSize;
+    private final MemStructVariant.Case mcase;
+    private final int mindex;
+
+    // the discriminator of the variant, when the field belongs to a case
+    private final MemStructField mdiscriminator;
+
+    // the handle which doesn't check the active case
+    private final MemStructField mraw;
+
+    MemStructField(MemStruct.StructItem si, MemStruct.BytesOrdering ordering, int recordSize, int index) {
+        mlabel = si.getLabel();
+        moffset = si.getOffset();
+        mwidth = si.getTypeSize();
+        mcount = si.getTotalSize() / si.getTypeSize();
+        mreal = si.isReal();
+        mspace = si.isSpace();
+        mbigEndian = ordering == ORDERING_BIG_ENDIAN;
+        mrecordSize = recordSize;
+        mcase = si.getCase();
+        mindex = index;
+        mdiscriminator = mcase != null ? mcase.getVariant().getDiscriminatorItem().getField() : null;
+        mraw = mcase != null ? new MemStructField(this) : this;
+    }
+
+    private MemStructField(MemStructField field) {
+        mlabel = field.mlabel;
+        moffset = field.moffset;
+        mwidth = field.mwidth;
+        mcount = field.mcount;
+        mreal = field.mreal;
+        mspace = field.mspace;
+        mbigEndian = field.mbigEndian;
+        mrecordSize = field.mrecordSize;
+        mcase = field.mcase;
+        mindex = field.mindex;
+        mdiscriminator = null;
+        mraw = this;
+    }
+
+    /**
+     * Gets the label of the field.
+     * @return the label
+     */
+    public String getLabel() {
+        return mlabel;
+    }
+
+    /**
+     * Gets the offset of the field within the struct.
+     * @return the offset
+     */
+    public int getOffset() {
+        return moffset;
+    }
+
+    /**
+     * Gets the size of one element of the field.
+     * @return the size in bytes
+     */
+    public int getSize() {
+        return mwidth;
+    }
+
+    /**
+     * Gets the number of elements of the field, which is 1 for dc fields.
+     * @return the number of elements
+     */
+    public int getCount() {
+        return mcount;
+    }
+
+    /**
+     * Returns true if the field has been declared as float or double.
+     * @return true if field is floating point
+     */
+    public boolean isReal() {
+        return mreal;
+    }
+
+    /**
+     * Returns the variant case which contains the field, or null.
+     */
+    MemStructVariant.Case getCase() {
+        return mcase;
+    }
+
+    /**
+     * Returns a handle to the same field which doesn't check the active case,
+     * for callers which check it before accessing the data.
+     */
+    MemStructField raw() {
+        return mraw;
+    }
+
+    /**
+     * Returns true if the field has been declared with ds.
+     */
+    boolean isSpace() {
+        return mspace;
+    }
+
+    /**
+     * Returns the index of the field in the declaration order of the layout.
+     */
+    int getIndex() {
+        return mindex;
+    }
+
+    /**
+     * Returns true if the given handle accesses the same bytes with the same type,
+     * such as the handle of the same label of another struct with the same definition.
+     */
+    boolean matches(MemStructField field) {
+        return field == this || (field.mindex == mindex && field.moffset == moffset && field.mwidth == mwidth && field.mcount == mcount
+                && field.mreal == mreal && field.mbigEndian == mbigEndian && field.mrecordSize == mrecordSize && field.mlabel.equals(mlabel));
+    }
+
+    /**
+     * Gets the size of the struct the field belongs to.
+     * @return the size in bytes
+     */
+    public int getRecordSize() {
+        return mrecordSize;
+    }
+
+    /**
+     * Gets the field as byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public byte getByte(byte[] data, int base) throws MemStructException {
+        return getByte(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public byte getByte(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth == 1);
+
+        return (byte) loadSigned(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedByte(byte[] data, int base) throws MemStructException {
+        return getUnsignedByte(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedByte(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth == 1);
+
+        return (int) load(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public short getShort(byte[] data, int base) throws MemStructException {
+        return getShort(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public short getShort(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 2);
+
+        return (short) loadSigned(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedShort(byte[] data, int base) throws MemStructException {
+        return getUnsignedShort(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedShort(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 2);
+
+        return (int) load(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getInt(byte[] data, int base) throws MemStructException {
+        return getInt(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getInt(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 4);
+
+        return (int) loadSigned(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getUnsignedInt(byte[] data, int base) throws MemStructException {
+        return getUnsignedInt(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getUnsignedInt(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 4);
+
+        return load(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the field as long.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getLong(byte[] data, int base) throws MemStructException {
+        return getLong(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as long.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getLong(byte[] data, int base, int index) throws MemStructException {
+        checkType(!mreal);
+
+        return loadSigned(data, position(data, base, index));
+    }
+
+    /**
+     * Gets the bits of an element of the field, without extending the sign and without checking the type.
+     */
+    long getBits(byte[] data, int base, int index) throws MemStructException {
+        return load(data, position(base, index));
+    }
+
+    /**
+     * Sets the bits of an element of the field, without checking the type.
+     */
+    void setBits(byte[] data, int base, int index, long value) throws MemStructException {
+        store(data, position(base, index), value);
+    }
+
+    /**
+     * Gets the field as float.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public float getFloat(byte[] data, int base) throws MemStructException {
+        return getFloat(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as float.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public float getFloat(byte[] data, int base, int index) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+
+        return Float.intBitsToFloat((int) load(data, position(data, base, index)));
+    }
+
+    /**
+     * Gets the field as double.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public double getDouble(byte[] data, int base) throws MemStructException {
+        return getDouble(data, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as double.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public double getDouble(byte[] data, int base, int index) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+
+        return Double.longBitsToDouble(load(data, position(data, base, index)));
+    }
+
+    /**
+     * Sets the field from a byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setByte(byte[] data, int base, byte value) throws MemStructException {
+        setLong(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from a byte.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setByte(byte[] data, int base, int index, byte value) throws MemStructException {
+        setLong(data, base, index, value);
+    }
+
+    /**
+     * Sets the field from a short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setShort(byte[] data, int base, short value) throws MemStructException {
+        setLong(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from a short.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setShort(byte[] data, int base, int index, short value) throws MemStructException {
+        setLong(data, base, index, value);
+    }
+
+    /**
+     * Sets the field from an int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setInt(byte[] data, int base, int value) throws MemStructException {
+        setLong(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from an int.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setInt(byte[] data, int base, int index, int value) throws MemStructException {
+        setLong(data, base, index, value);
+    }
+
+    /**
+     * Sets the field from a long.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setLong(byte[] data, int base, long value) throws MemStructException {
+        setLong(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from a long.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setLong(byte[] data, int base, int index, long value) throws MemStructException {
+        checkType(!mreal);
+
+        store(data, position(data, base, index), value);
+    }
+
+    /**
+     * Sets the field from a float.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setFloat(byte[] data, int base, float value) throws MemStructException {
+        setFloat(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from a float.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setFloat(byte[] data, int base, int index, float value) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+
+        store(data, position(data, base, index), Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Sets the field from a double.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setDouble(byte[] data, int base, double value) throws MemStructException {
+        setDouble(data, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field from a double.
+     * @param data the struct data
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setDouble(byte[] data, int base, int index, double value) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+
+        store(data, position(data, base, index), Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Gets the field as byte from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public byte getByte(ByteBuffer buffer, int base) throws MemStructException {
+        return getByte(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as byte from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public byte getByte(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth == 1);
+
+        return (byte) loadSigned(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned byte from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedByte(ByteBuffer buffer, int base) throws MemStructException {
+        return getUnsignedByte(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned byte from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedByte(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth == 1);
+
+        return (int) load(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as short from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public short getShort(ByteBuffer buffer, int base) throws MemStructException {
+        return getShort(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as short from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public short getShort(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 2);
+
+        return (short) loadSigned(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned short from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedShort(ByteBuffer buffer, int base) throws MemStructException {
+        return getUnsignedShort(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned short from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getUnsignedShort(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 2);
+
+        return (int) load(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as int from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getInt(ByteBuffer buffer, int base) throws MemStructException {
+        return getInt(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as int from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public int getInt(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 4);
+
+        return (int) loadSigned(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as unsigned int from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getUnsignedInt(ByteBuffer buffer, int base) throws MemStructException {
+        return getUnsignedInt(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as unsigned int from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getUnsignedInt(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal && mwidth <= 4);
+
+        return load(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as long from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getLong(ByteBuffer buffer, int base) throws MemStructException {
+        return getLong(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as long from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public long getLong(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(!mreal);
+
+        return loadSigned(buffer, position(buffer, base, index));
+    }
+
+    /**
+     * Gets the field as float from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public float getFloat(ByteBuffer buffer, int base) throws MemStructException {
+        return getFloat(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as float from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public float getFloat(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+
+        return Float.intBitsToFloat((int) load(buffer, position(buffer, base, index)));
+    }
+
+    /**
+     * Gets the field as double from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public double getDouble(ByteBuffer buffer, int base) throws MemStructException {
+        return getDouble(buffer, base, 0);
+    }
+
+    /**
+     * Gets an element of the field as double from a buffer.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public double getDouble(ByteBuffer buffer, int base, int index) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+
+        return Double.longBitsToDouble(load(buffer, position(buffer, base, index)));
+    }
+
+    /**
+     * Sets the field into a buffer from a byte.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setByte(ByteBuffer buffer, int base, byte value) throws MemStructException {
+        setByte(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from a byte.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setByte(ByteBuffer buffer, int base, int index, byte value) throws MemStructException {
+        checkType(!mreal);
+
+        store(buffer, position(buffer, base, index), value);
+    }
+
+    /**
+     * Sets the field into a buffer from a short.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setShort(ByteBuffer buffer, int base, short value) throws MemStructException {
+        setShort(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from a short.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setShort(ByteBuffer buffer, int base, int index, short value) throws MemStructException {
+        checkType(!mreal);
+
+        store(buffer, position(buffer, base, index), value);
+    }
+
+    /**
+     * Sets the field into a buffer from an int.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setInt(ByteBuffer buffer, int base, int value) throws MemStructException {
+        setInt(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from an int.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setInt(ByteBuffer buffer, int base, int index, int value) throws MemStructException {
+        checkType(!mreal);
+
+        store(buffer, position(buffer, base, index), value);
+    }
+
+    /**
+     * Sets the field into a buffer from a long.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setLong(ByteBuffer buffer, int base, long value) throws MemStructException {
+        setLong(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from a long.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setLong(ByteBuffer buffer, int base, int index, long value) throws MemStructException {
+        checkType(!mreal);
+
+        store(buffer, position(buffer, base, index), value);
+    }
+
+    /**
+     * Sets the field into a buffer from a float.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setFloat(ByteBuffer buffer, int base, float value) throws MemStructException {
+        setFloat(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from a float.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setFloat(ByteBuffer buffer, int base, int index, float value) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+
+        store(buffer, position(buffer, base, index), Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Sets the field into a buffer from a double.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setDouble(ByteBuffer buffer, int base, double value) throws MemStructException {
+        setDouble(buffer, base, 0, value);
+    }
+
+    /**
+     * Sets an element of the field into a buffer from a double.
+     * @param buffer the buffer
+     * @param base the offset of the struct
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setDouble(ByteBuffer buffer, int base, int index, double value) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+
+        store(buffer, position(buffer, base, index), Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Gets the field of consecutive structs as bytes.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getBytes(byte[] data, int base, byte[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal && mwidth == 1);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = (byte) loadSigned(data, position(data, base + i * mrecordSize, 0));
+    }
+
+    /**
+     * Gets the field of consecutive structs as shorts.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getShorts(byte[] data, int base, short[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal && mwidth <= 2);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = (short) loadSigned(data, position(data, base + i * mrecordSize, 0));
+    }
+
+    /**
+     * Gets the field of consecutive structs as ints.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getInts(byte[] data, int base, int[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal && mwidth <= 4);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = (int) loadSigned(data, position(data, base + i * mrecordSize, 0));
+    }
+
+    /**
+     * Gets the field of consecutive structs as longs.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getLongs(byte[] data, int base, long[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = loadSigned(data, position(data, base + i * mrecordSize, 0));
+    }
+
+    /**
+     * Gets the field of consecutive structs as floats.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getFloats(byte[] data, int base, float[] values, int offset, int count) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = Float.intBitsToFloat((int) load(data, position(data, base + i * mrecordSize, 0)));
+    }
+
+    /**
+     * Gets the field of consecutive structs as doubles.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the destination array
+     * @param offset the offset in destination array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void getDoubles(byte[] data, int base, double[] values, int offset, int count) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) values[offset + i] = Double.longBitsToDouble(load(data, position(data, base + i * mrecordSize, 0)));
+    }
+
+    /**
+     * Sets the field of consecutive structs from bytes.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setBytes(byte[] data, int base, byte[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), values[offset + i]);
+    }
+
+    /**
+     * Sets the field of consecutive structs from shorts.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setShorts(byte[] data, int base, short[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), values[offset + i]);
+    }
+
+    /**
+     * Sets the field of consecutive structs from ints.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setInts(byte[] data, int base, int[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), values[offset + i]);
+    }
+
+    /**
+     * Sets the field of consecutive structs from longs.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setLongs(byte[] data, int base, long[] values, int offset, int count) throws MemStructException {
+        checkType(!mreal);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), values[offset + i]);
+    }
+
+    /**
+     * Sets the field of consecutive structs from floats.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setFloats(byte[] data, int base, float[] values, int offset, int count) throws MemStructException {
+        checkType(mreal && mwidth == 4);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), Float.floatToRawIntBits(values[offset + i]));
+    }
+
+    /**
+     * Sets the field of consecutive structs from doubles.
+     * @param data the structs data
+     * @param base the offset of the first struct
+     * @param values the source array
+     * @param offset the offset in source array
+     * @param count the number of structs
+     * @throws MemStructException if type doesn't match or offset is out of bounds
+     */
+    public void setDoubles(byte[] data, int base, double[] values, int offset, int count) throws MemStructException {
+        checkType(mreal && mwidth == 8);
+        checkValues(values.length, offset, count);
+
+        for (int i = 0; i < count; i++) store(data, position(data, base + i * mrecordSize, 0), Double.doubleToRawLongBits(values[offset + i]));
+    }
+
+    public String toString() {
+        return "[" + moffset + "] size=" + (mwidth * 8) + " bits, count=" + mcount + ", label=" + mlabel;
+    }
+
+    private int position(int base, int index) {
+        return base + moffset + index * mwidth;
+    }
+
+    private int position(byte[] data, int base, int index) throws MemStructException {
+        if (mdiscriminator != null) checkCase(mdiscriminator.load(data, base + mdiscriminator.moffset));
+
+        return base + moffset + index * mwidth;
+    }
+
+    private int position(ByteBuffer buffer, int base, int index) throws MemStructException {
+        if (mdiscriminator != null) checkCase(mdiscriminator.load(buffer, base + mdiscriminator.moffset));
+
+        return base + moffset + index * mwidth;
+    }
+
+    private void checkCase(long value) throws MemStructException {
+        if (mcase.getVariant().dispatch(value) != mcase) {
+            throw new MemStructException("inactive label " + mlabel);
+        }
+    }
+
+    private void checkType(boolean valid) throws MemStructException {
+        if (!valid) {
+            throw new MemStructException("invalid type for label " + mlabel);
+        }
+    }
+
+    private void checkValues(int length, int offset, int count) throws MemStructException {
+        if (offset < 0 || count < 0 || (long) offset + count > length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    private long loadSigned(byte[] data, int position) throws MemStructException {
+        int shift = 64 - mwidth * 8;
+
+        return (load(data, position) << shift) >> shift;
+    }
+
+    private long load(byte[] data, int position) throws MemStructException {
+        long value = 0;
+
+        try {
+            for (int i = 0; i < mwidth; i++) {
+                value = value << 8;
+
+                if (mbigEndian) {
+                    value |= data[position + i] & 0xFF;
+                } else {
+                    value |= data[position + mwidth - i - 1] & 0xFF;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        return value;
+    }
+
+    private void store(byte[] data, int position, long value) throws MemStructException {
+        if (position < 0 || position + mwidth > data.length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        for (int i = 0; i < mwidth; i++) {
+            if (mbigEndian) {
+                data[position + mwidth - i - 1] = (byte) (value & 0xFF);
+            } else {
+                data[position + i] = (byte) (value & 0xFF);
+            }
+
+            value = value >> 8;
+        }
+    }
+
+    private long loadSigned(ByteBuffer buffer, int position) throws MemStructException {
+        int shift = 64 - mwidth * 8;
+
+        return (load(buffer, position) << shift) >> shift;
+    }
+
+    private long load(ByteBuffer buffer, int position) throws MemStructException {
+        if (position < 0 || position + mwidth > buffer.limit()) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        long value;
+
+        switch (mwidth) {
+            case 1:
+                return buffer.get(position) & 0xFFL;
+
+            case 2:
+                value = buffer.getShort(position) & 0xFFFFL;
+                break;
+
+            case 4:
+                value = buffer.getInt(position) & 0xFFFFFFFFL;
+                break;
+
+            default:
+                value = buffer.getLong(position);
+                break;
+        }
+
+        // the buffer has a different bytes ordering
+        if ((buffer.order() == ByteOrder.BIG_ENDIAN) != mbigEndian) {
+            value = Long.reverseBytes(value) >>> (64 - mwidth * 8);
+        }
+
+        return value;
+    }
+
+    private void store(ByteBuffer buffer, int position, long value) throws MemStructException {
+        if (position < 0 || position + mwidth > buffer.limit()) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        // the buffer has a different bytes ordering
+        if ((buffer.order() == ByteOrder.BIG_ENDIAN) != mbigEndian) {
+            value = Long.reverseBytes(value) >> (64 - mwidth * 8);
+        }
+
+        switch (mwidth) {
+            case 1:
+                buffer.put(position, (byte) value);
+                break;
+
+            case 2:
+                buffer.putShort(position, (short) value);
+                break;
+
+            case 4:
+                buffer.putInt(position, (int) value);
+                break;
+
+            default:
+                buffer.putLong(position, value);
+                break;
+        }
+    }
+}
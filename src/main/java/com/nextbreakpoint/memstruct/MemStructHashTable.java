@@ -0,0 +1,843 @@
+/*
+ * MemStructHashTable.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Hash table of structs stored off heap, keyed on one or more labels of the struct.
+ * <p>
+ * Structs are stored inline in slots of direct buffers, or of buffers mapped from a file, so that
+ * the table doesn't create objects per entry. Each slot contains a 4 bytes header and the struct.
+ * The table uses open addressing with linear probing, and removed entries leave a tombstone.
+ * <p>
+ * When the table is 75% full, a new table is allocated and the entries are migrated incrementally,
+ * a few slots for each put or remove, so that there is no pause to rehash the whole table. The number
+ * of slots migrated for each operation is chosen so that the migration completes before the new table
+ * is full. While the entries are migrated, lookups check the new table and then the old one.
+ * <p>
+ * A table mapped from a file persists its entries. An entry is moved by writing the struct and then
+ * the slot header in the new table, and only then removing it from the old table, so that a process
+ * which terminates during the migration leaves at most a copy of the entry in both tables. When the
+ * file is opened again, such copies are removed from the old table and the migration is resumed.
+ * <p>
+ * Entries are accessed through views, which point to the struct in place. A view is valid until
+ * the next put or remove. The key labels of a view are read only. The table is not thread safe.
+ */
+public final class MemStructHashTable implements Closeable {
+    // the size of the file header
+    public final static int HEADER_SIZE = 64;
+
+    // header fields
+    private final static int MAGIC = 0x4D534854;
+    private final static int FORMAT = 1;
+    private final static int HEADER_MAGIC = 0;
+    private final static int HEADER_FORMAT = 4;
+    private final static int HEADER_LAYOUT = 8;
+    private final static int HEADER_KEY = 16;
+    private final static int HEADER_CAPACITY = 24;
+
+    // slot headers
+    private final static int SLOT_EMPTY = 0;
+    private final static int SLOT_DELETED = 1;
+    private final static int SLOT_HEADER_SIZE = 4;
+
+    // the minimum number of slots
+    private final static long MIN_CAPACITY = 16;
+
+    // the maximum size of a buffer
+    private final static int MAX_PAGE_SIZE = 1 << 30;
+
+    // the minimum number of slots migrated for each put or remove
+    private final static int MIGRATE_STEP = 64;
+
+    private final MemStruct mlayout;
+    private final MemStructField[] mkeys;
+    private final String[] mkeyLabels;
+    private final long mkeyHash;
+    private final int mrecordSize;
+    private final int mslotSize;
+    private final ByteOrder morder;
+
+    // the file, or null if the table is not persistent
+    private final File mfile;
+
+    // the table which receives new entries
+    private Table mcurrent;
+
+    // the table which is being migrated, or null
+    private Table mold;
+
+    // the next slot of the old table to migrate
+    private long mcursor;
+
+    // the number of slots migrated for each put or remove
+    private long mstep;
+
+    // the number of entries
+    private long msize;
+
+    // the location found by the last lookup
+    private Table mfoundTable;
+    private long mfoundIndex;
+
+    // scratch buffers
+    private final byte[] mkey;
+    private final byte[] mmigrateKey;
+    private final byte[] mrecord;
+
+    /**
+     * Creates a hash table stored in direct buffers.
+     * @param layout the struct which provides the layout
+     * @param keys the labels of the key
+     * @param capacity the initial number of slots
+     * @throws MemStructException if a label is not found
+     */
+    public MemStructHashTable(MemStruct layout, String[] keys, long capacity) throws MemStructException {
+        this(layout, keys, capacity, null);
+    }
+
+    /**
+     * Creates a hash table mapped from a file, or opens the hash table contained in the file.
+     * The capacity is ignored when the file already exists.
+     * @param layout the struct which provides the layout
+     * @param keys the labels of the key
+     * @param capacity the initial number of slots
+     * @param file the file, or null if the table is not persistent
+     * @throws MemStructException if a label is not found, or the file can't be mapped or it contains a different layout
+     */
+    public MemStructHashTable(MemStruct layout, String[] keys, long capacity, File file) throws MemStructException {
+        if (keys.length == 0) {
+            throw new MemStructException("missing key");
+        }
+
+        mlayout = layout;
+        mrecordSize = layout.sizeOf();
+        mslotSize = SLOT_HEADER_SIZE + mrecordSize;
+        morder = layout.getBytesOrdering() == ORDERING_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        mfile = file;
+
+        mkeys = new MemStructField[keys.length];
+        mkeyLabels = keys.clone();
+
+        StringBuilder builder = new StringBuilder();
+
+        int keySize = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            mkeys[i] = layout.getField(keys[i]);
+
+            // the key must be at the same place in every entry
+            if (mkeys[i].getCase() != null) {
+                throw new MemStructException("invalid type for key");
+            }
+
+            keySize += mkeys[i].getSize() * mkeys[i].getCount();
+
+            builder.append(keys[i]).append(";");
+        }
+
+        mkeyHash = hash(builder.toString().getBytes());
+        mkey = new byte[keySize];
+        mmigrateKey = new byte[keySize];
+        mrecord = new byte[mrecordSize];
+
+        long size = MIN_CAPACITY;
+
+        while (size < capacity) size <<= 1;
+
+        if (file == null) {
+            mcurrent = new Table(size, null);
+        } else {
+            File resize = resizeFile();
+
+            if (file.exists() && file.length() > 0) {
+                mcurrent = new Table(0, file);
+
+                if (resize.exists()) {
+                    try {
+                        Table table = new Table(0, resize);
+
+                        // resume the migration
+                        mold = mcurrent;
+                        mcurrent = table;
+                        mcursor = 0;
+                    } catch (MemStructException e) {
+                        // the migration was not started
+                        if (!resize.delete()) {
+                            throw new MemStructException("cannot delete file " + resize);
+                        }
+                    }
+
+                    if (mold != null) deduplicate();
+                }
+            } else {
+                if (resize.exists() && !resize.delete()) {
+                    throw new MemStructException("cannot delete file " + resize);
+                }
+
+                mcurrent = new Table(size, file);
+            }
+        }
+
+        msize = mcurrent.count();
+
+        if (mold != null) {
+            long entries = mold.count();
+
+            msize += entries;
+
+            mstep = step(entries);
+        }
+    }
+
+    /**
+     * Unmaps the file, if the table is persistent. A migration which has not been
+     * completed is resumed when the file is opened again.
+     * @throws IOException if file can't be closed
+     */
+    public void close() throws IOException {
+        if (mold != null) mold.close();
+
+        mcurrent.close();
+    }
+
+    /**
+     * Forces the changes to be written to the file, if the table is persistent.
+     */
+    public void flush() {
+        if (mold != null) mold.force();
+
+        mcurrent.force();
+    }
+
+    /**
+     * Gets the number of entries.
+     * @return the number of entries
+     */
+    public long size() {
+        return msize;
+    }
+
+    /**
+     * Gets the number of slots of the table which receives new entries.
+     * @return the number of slots
+     */
+    public long capacity() {
+        return mcurrent.mcapacity;
+    }
+
+    /**
+     * Returns true if the entries are being migrated to a new table.
+     * @return true if the table is resizing
+     */
+    public boolean isResizing() {
+        return mold != null;
+    }
+
+    /**
+     * Creates a view which can be pointed to the entries of the table.
+     * @return the view
+     */
+    public MemStructView view() {
+        return new MemStructView(mlayout, mkeyLabels);
+    }
+
+    /**
+     * Puts a struct into the table, replacing the entry with the same key.
+     * @param record the struct
+     * @return true if the key was not in the table
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public boolean put(MemStruct record) throws MemStructException {
+        return put(record, null);
+    }
+
+    /**
+     * Puts a struct into the table, replacing the entry with the same key, and points the view to the entry.
+     * @param record the struct
+     * @param view the view, or null
+     * @return true if the key was not in the table
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public boolean put(MemStruct record, MemStructView view) throws MemStructException {
+        checkRecord(record);
+
+        if (mold != null) migrate(mstep);
+
+        byte[] data = record.data();
+
+        keyOf(data);
+
+        long hash = hash(mkey);
+
+        boolean inserted = true;
+
+        if (find(mcurrent, hash)) {
+            inserted = false;
+
+            ByteBuffer page = mfoundTable.page(mfoundIndex);
+            int position = mfoundTable.position(mfoundIndex);
+
+            for (int i = 0; i < mrecordSize; i++) page.put(position + SLOT_HEADER_SIZE + i, data[i]);
+        } else {
+            if (mcurrent.mused + 1 > mcurrent.limit()) grow();
+
+            long index = mcurrent.free(hash);
+
+            ByteBuffer page = mcurrent.page(index);
+            int position = mcurrent.position(index);
+
+            for (int i = 0; i < mrecordSize; i++) page.put(position + SLOT_HEADER_SIZE + i, data[i]);
+
+            mcurrent.publish(index, hash);
+
+            // the old entry is removed after the new one is complete
+            if (mold != null && find(mold, hash)) {
+                mold.setHeader(mfoundIndex, SLOT_DELETED);
+                inserted = false;
+            } else {
+                msize++;
+            }
+
+            mfoundTable = mcurrent;
+            mfoundIndex = index;
+        }
+
+        if (view != null) view.point(mfoundTable.page(mfoundIndex), mfoundTable.position(mfoundIndex) + SLOT_HEADER_SIZE);
+
+        return inserted;
+    }
+
+    /**
+     * Copies the entry with the key of the given struct into a struct.
+     * @param key the struct which contains the key
+     * @param record the struct which receives the entry, which can be the same struct which contains the key
+     * @return true if the key was found
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public boolean get(MemStruct key, MemStruct record) throws MemStructException {
+        checkRecord(key);
+        checkRecord(record);
+
+        keyOf(key.data());
+
+        if (!lookup()) return false;
+
+        ByteBuffer page = mfoundTable.page(mfoundIndex);
+        int position = mfoundTable.position(mfoundIndex) + SLOT_HEADER_SIZE;
+
+        for (int i = 0; i < mrecordSize; i++) mrecord[i] = page.get(position + i);
+
+        record.setBytes(mrecord);
+
+        return true;
+    }
+
+    /**
+     * Points the view to the entry with the key of the given struct.
+     * @param key the struct which contains the key
+     * @param view the view
+     * @return true if the key was found, otherwise the view is not valid
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public boolean find(MemStruct key, MemStructView view) throws MemStructException {
+        checkRecord(key);
+
+        keyOf(key.data());
+
+        return point(view);
+    }
+
+    /**
+     * Points the view to the entry with the given key. The key must be a single integer label.
+     * @param key the key
+     * @param view the view
+     * @return true if the key was found, otherwise the view is not valid
+     * @throws MemStructException if key is not a single integer label
+     */
+    public boolean find(long key, MemStructView view) throws MemStructException {
+        keyOf(key);
+
+        return point(view);
+    }
+
+    /**
+     * Removes the entry with the key of the given struct.
+     * @param key the struct which contains the key
+     * @return true if the key was found
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public boolean remove(MemStruct key) throws MemStructException {
+        checkRecord(key);
+
+        keyOf(key.data());
+
+        return remove();
+    }
+
+    /**
+     * Removes the entry with the given key. The key must be a single integer label.
+     * @param key the key
+     * @return true if the key was found
+     * @throws MemStructException if key is not a single integer label
+     */
+    public boolean remove(long key) throws MemStructException {
+        keyOf(key);
+
+        return remove();
+    }
+
+    private boolean point(MemStructView view) {
+        if (lookup()) {
+            view.point(mfoundTable.page(mfoundIndex), mfoundTable.position(mfoundIndex) + SLOT_HEADER_SIZE);
+
+            return true;
+        }
+
+        view.reset();
+
+        return false;
+    }
+
+    private boolean remove() throws MemStructException {
+        if (mold != null) migrate(mstep);
+
+        if (lookup()) {
+            mfoundTable.setHeader(mfoundIndex, SLOT_DELETED);
+            msize--;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean lookup() {
+        long hash = hash(mkey);
+
+        return find(mcurrent, hash) || (mold != null && find(mold, hash));
+    }
+
+    private boolean find(Table table, long hash) {
+        int tag = tag(hash);
+
+        long index = hash & table.mmask;
+
+        for (long n = 0; n < table.mcapacity; n++) {
+            ByteBuffer page = table.page(index);
+            int position = table.position(index);
+
+            int header = page.getInt(position);
+
+            if (header == SLOT_EMPTY) return false;
+
+            if (header == tag && matches(page, position + SLOT_HEADER_SIZE)) {
+                mfoundTable = table;
+                mfoundIndex = index;
+
+                return true;
+            }
+
+            index = (index + 1) & table.mmask;
+        }
+
+        return false;
+    }
+
+    private boolean matches(ByteBuffer page, int position) {
+        int k = 0;
+
+        for (MemStructField field : mkeys) {
+            int size = field.getSize() * field.getCount();
+
+            for (int i = 0; i < size; i++) {
+                if (page.get(position + field.getOffset() + i) != mkey[k++]) return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void grow() throws MemStructException {
+        // the step is sized so that the migration completes before the new table is full,
+        // so this only happens if the step has been too small, and it migrates the remaining slots
+        if (mold != null) migrate(mold.mcapacity - mcursor);
+
+        long capacity = mcurrent.mcapacity;
+
+        // purge the tombstones when the table is less than half full
+        if (msize + 1 > capacity / 2) capacity <<= 1;
+
+        mold = mcurrent;
+        mcurrent = new Table(capacity, mfile != null ? resizeFile() : null);
+        mcursor = 0;
+        mstep = step(msize);
+    }
+
+    /**
+     * Gets the number of slots to migrate for each operation, so that the old table is migrated before
+     * the new table is full, given the number of entries which remain to migrate.
+     */
+    private long step(long entries) {
+        // each operation adds at most one entry to the new table
+        long operations = mcurrent.limit() - mcurrent.mused - entries;
+
+        long slots = mold.mcapacity - mcursor;
+
+        return Math.max(MIGRATE_STEP, operations > 0 ? (slots + operations - 1) / operations : slots);
+    }
+
+    /**
+     * Removes the entries of the old table which are also in the new table, because
+     * the process terminated after writing the new entry and before removing the old one.
+     */
+    private void deduplicate() {
+        for (long index = 0; index < mold.mcapacity; index++) {
+            ByteBuffer page = mold.page(index);
+            int position = mold.position(index);
+
+            int header = page.getInt(position);
+
+            if (header != SLOT_EMPTY && header != SLOT_DELETED) {
+                keyOf(page, position + SLOT_HEADER_SIZE, mkey);
+
+                if (find(mcurrent, hash(mkey))) page.putInt(position, SLOT_DELETED);
+            }
+        }
+    }
+
+    private void migrate(long steps) throws MemStructException {
+        while (steps-- > 0 && mcursor < mold.mcapacity) {
+            ByteBuffer page = mold.page(mcursor);
+            int position = mold.position(mcursor);
+
+            int header = page.getInt(position);
+
+            if (header != SLOT_EMPTY && header != SLOT_DELETED) {
+                keyOf(page, position + SLOT_HEADER_SIZE, mmigrateKey);
+
+                long hash = hash(mmigrateKey);
+
+                long index = mcurrent.free(hash);
+
+                ByteBuffer target = mcurrent.page(index);
+                int targetPosition = mcurrent.position(index);
+
+                for (int i = 0; i < mrecordSize; i++) {
+                    target.put(targetPosition + SLOT_HEADER_SIZE + i, page.get(position + SLOT_HEADER_SIZE + i));
+                }
+
+                // the entry is visible in the new table only when it is complete
+                mcurrent.publish(index, hash);
+
+                page.putInt(position, SLOT_DELETED);
+            }
+
+            mcursor++;
+        }
+
+        if (mcursor == mold.mcapacity) {
+            mold.close();
+
+            if (mfile != null) {
+                mcurrent.force();
+
+                try {
+                    Files.move(resizeFile().toPath(), mfile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new MemStructException("cannot replace file " + mfile + " (" + e.getMessage() + ")");
+                }
+            }
+
+            mold = null;
+        }
+    }
+
+    private void keyOf(byte[] data) {
+        int k = 0;
+
+        for (MemStructField field : mkeys) {
+            int size = field.getSize() * field.getCount();
+
+            System.arraycopy(data, field.getOffset(), mkey, k, size);
+
+            k += size;
+        }
+    }
+
+    private void keyOf(ByteBuffer page, int position, byte[] key) {
+        int k = 0;
+
+        for (MemStructField field : mkeys) {
+            int size = field.getSize() * field.getCount();
+
+            for (int i = 0; i < size; i++) key[k++] = page.get(position + field.getOffset() + i);
+        }
+    }
+
+    private void keyOf(long key) throws MemStructException {
+        if (mkeys.length != 1 || mkeys[0].isSpace() || mkeys[0].isReal()) {
+            throw new MemStructException("invalid type for key");
+        }
+
+        switch (mkeys[0].getSize()) {
+            case 1:
+                mkeys[0].setByte(mkey, -mkeys[0].getOffset(), (byte) key);
+                break;
+
+            case 2:
+                mkeys[0].setShort(mkey, -mkeys[0].getOffset(), (short) key);
+                break;
+
+            case 4:
+                mkeys[0].setInt(mkey, -mkeys[0].getOffset(), (int) key);
+                break;
+
+            default:
+                mkeys[0].setLong(mkey, -mkeys[0].getOffset(), key);
+                break;
+        }
+    }
+
+    private void checkRecord(MemStruct record) throws MemStructException {
+        if (record.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+    }
+
+    private File resizeFile() {
+        return new File(mfile.getPath() + ".resize");
+    }
+
+    private static long hash(byte[] data) {
+        // FNV-1a hash
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < data.length; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        // spread the bits, because the index is taken from the low bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static int tag(long hash) {
+        // the tag is never SLOT_EMPTY or SLOT_DELETED
+        return (int) (hash >>> 32) | 0x80000000;
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Slots of one table, split in pages of at most 1 GB.
+     */
+    private final class Table {
+        private final long mcapacity;
+        private final long mmask;
+        private final int mpageShift;
+        private final long mpageMask;
+        private final ByteBuffer[] mpages;
+        private final RandomAccessFile mraf;
+
+        // the number of slots which are not empty, tombstones included
+        private long mused;
+
+        Table(long capacity, File file) throws MemStructException {
+            RandomAccessFile raf = null;
+
+            try {
+                MappedByteBuffer header = null;
+
+                if (file != null) {
+                    raf = new RandomAccessFile(file, "rw");
+
+                    if (raf.length() == 0) {
+                        if (capacity == 0) {
+                            throw new MemStructException("invalid hash table header");
+                        }
+
+                        raf.setLength(HEADER_SIZE + capacity * mslotSize);
+
+                        header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+                        header.putInt(HEADER_FORMAT, FORMAT);
+                        header.putLong(HEADER_LAYOUT, mlayout.getLayoutHash());
+                        header.putLong(HEADER_KEY, mkeyHash);
+                        header.putLong(HEADER_CAPACITY, capacity);
+                        header.putInt(HEADER_MAGIC, MAGIC);
+
+                        header.force();
+                    } else {
+                        header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+                        if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_FORMAT) != FORMAT) {
+                            throw new MemStructException("invalid hash table header");
+                        }
+
+                        if (header.getLong(HEADER_LAYOUT) != mlayout.getLayoutHash() || header.getLong(HEADER_KEY) != mkeyHash) {
+                            throw new MemStructException("incompatible layout");
+                        }
+
+                        capacity = header.getLong(HEADER_CAPACITY);
+
+                        if (raf.length() != HEADER_SIZE + capacity * mslotSize) {
+                            throw new MemStructException("invalid hash table size");
+                        }
+                    }
+                }
+
+                long pageSlots = 1;
+
+                while (pageSlots < capacity && (pageSlots << 1) * mslotSize <= MAX_PAGE_SIZE) pageSlots <<= 1;
+
+                mcapacity = capacity;
+                mmask = capacity - 1;
+                mpageShift = Long.numberOfTrailingZeros(pageSlots);
+                mpageMask = pageSlots - 1;
+                mpages = new ByteBuffer[(int) (capacity / pageSlots)];
+
+                int pageSize = (int) (pageSlots * mslotSize);
+
+                for (int p = 0; p < mpages.length; p++) {
+                    if (raf != null) {
+                        mpages[p] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) p * pageSize, pageSize).order(morder);
+                    } else {
+                        mpages[p] = ByteBuffer.allocateDirect(pageSize).order(morder);
+                    }
+                }
+
+                mraf = raf;
+            } catch (IOException e) {
+                closeQuietly(raf);
+
+                throw new MemStructException("cannot map file " + file + " (" + e.getMessage() + ")");
+            } catch (MemStructException e) {
+                closeQuietly(raf);
+
+                throw e;
+            }
+        }
+
+        ByteBuffer page(long index) {
+            return mpages[(int) (index >>> mpageShift)];
+        }
+
+        int position(long index) {
+            return (int) (index & mpageMask) * mslotSize;
+        }
+
+        void setHeader(long index, int header) {
+            page(index).putInt(position(index), header);
+        }
+
+        /**
+         * Gets the number of used slots which triggers a resize.
+         */
+        long limit() {
+            return mcapacity / 4 * 3;
+        }
+
+        /**
+         * Finds a free slot for a key which is not in the table.
+         */
+        long free(long hash) throws MemStructException {
+            long index = hash & mmask;
+
+            for (long n = 0; n < mcapacity; n++) {
+                int header = page(index).getInt(position(index));
+
+                if (header == SLOT_EMPTY || header == SLOT_DELETED) return index;
+
+                index = (index + 1) & mmask;
+            }
+
+            throw new MemStructException("hash table full");
+        }
+
+        /**
+         * Sets the header of a free slot, after the struct has been written.
+         */
+        void publish(long index, long hash) {
+            ByteBuffer page = page(index);
+            int position = position(index);
+
+            if (page.getInt(position) == SLOT_EMPTY) mused++;
+
+            page.putInt(position, tag(hash));
+        }
+
+        /**
+         * Counts the entries and the used slots.
+         */
+        long count() {
+            long count = 0;
+
+            mused = 0;
+
+            for (long index = 0; index < mcapacity; index++) {
+                int header = page(index).getInt(position(index));
+
+                if (header != SLOT_EMPTY) mused++;
+
+                if (header != SLOT_EMPTY && header != SLOT_DELETED) count++;
+            }
+
+            return count;
+        }
+
+        void force() {
+            if (mraf != null) {
+                for (ByteBuffer page : mpages) ((MappedByteBuffer) page).force();
+            }
+        }
+
+        void close() {
+            force();
+
+            closeQuietly(mraf);
+        }
+    }
+}
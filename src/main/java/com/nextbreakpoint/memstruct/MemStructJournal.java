@@ -0,0 +1,943 @@
+/*
+ * MemStructJournal.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Array of structs stored in a file, updated through a write-ahead journal.
+ * <p>
+ * Updates are logged as the offset, the width and the new bytes of the modified field, so that
+ * an update of a field doesn't write the whole record. Updates are buffered in memory until they
+ * are committed, and each thread has its own buffer, so that a commit never includes the updates
+ * which another thread has not committed yet. A commit submits the buffered updates of the calling
+ * thread, appends the submitted updates to the journal as one batch, forces the journal to disk,
+ * and then applies the updates to the records, which are mapped from a file.
+ * <p>
+ * Threads which commit while another thread is forcing the journal wait for it, and then the next
+ * thread writes the submitted updates of all of them with one force (group commit), so that the
+ * number of forces doesn't grow with the number of committing threads.
+ * <p>
+ * A checkpoint forces the records to disk and truncates the journal. Checkpoints are executed by a
+ * background thread at regular intervals. When the journal is opened, the batches which have been
+ * completely written are applied to the records, and incomplete batches are discarded.
+ * <p>
+ * Values are read from the records, therefore updates which have not been committed are not visible.
+ * The journal is thread safe. The records file is created with the initial records before its header
+ * is written, so a records file without header is created again.
+ */
+public final class MemStructJournal implements Closeable {
+    // the size of the records file header
+    public final static int HEADER_SIZE = 64;
+
+    // the size of the journal file header
+    public final static int JOURNAL_HEADER_SIZE = 16;
+
+    // header fields
+    private final static int MAGIC = 0x4D53524B;
+    private final static int JOURNAL_MAGIC = 0x4D534A4C;
+    private final static int FORMAT = 1;
+    private final static int HEADER_MAGIC = 0;
+    private final static int HEADER_FORMAT = 4;
+    private final static int HEADER_LAYOUT = 8;
+    private final static int HEADER_COUNT = 16;
+
+    // batch fields, the batch is followed by the CRC32 of the entries
+    private final static int BATCH_MAGIC = 0x4D534243;
+    private final static int BATCH_HEADER_SIZE = 8;
+    private final static int BATCH_TRAILER_SIZE = 4;
+
+    // entry fields, the entry is followed by the bytes of the update
+    private final static int ENTRY_HEADER_SIZE = 12;
+
+    // the initial size of the buffers of submitted updates, and of the buffers of each thread
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int THREAD_BUFFER_SIZE = 4 * 1024;
+
+    private final MemStruct mlayout;
+    private final int mrecordSize;
+    private final int mcount;
+    private final ByteOrder morder;
+
+    private final RandomAccessFile mrecordsFile;
+    private final RandomAccessFile mjournalFile;
+    private final FileChannel mjournal;
+
+    // the mapped records, and the duplicates used to apply the updates and to copy the records
+    private final MappedByteBuffer mrecords;
+    private final ByteBuffer mapply;
+    private final ByteBuffer mcopy;
+
+    private final ReentrantLock mlock = new ReentrantLock();
+    private final Condition mflushed = mlock.newCondition();
+    private final Condition mclosing = mlock.newCondition();
+
+    // the updates which have been submitted, and the buffer which is being written
+    private ByteBuffer mpending;
+    private ByteBuffer mspare;
+
+    // the updates of each thread which have not been submitted
+    private final ThreadLocal<Updates> mupdates = new ThreadLocal<Updates>() {
+        @Override
+        protected Updates initialValue() {
+            return new Updates();
+        }
+    };
+
+    // the number of submitted updates, and the number of updates which have been committed
+    private long mappended;
+    private long mdurable;
+
+    // true while a thread writes the journal or executes a checkpoint
+    private boolean mflushing;
+
+    // the size of the journal
+    private long mjournalSize;
+
+    private final CRC32 mcrc = new CRC32();
+
+    // the failure of a write or of a checkpoint, which is reported to the next callers
+    private volatile MemStructException mfailure;
+
+    private final Thread mcheckpointer;
+
+    private volatile boolean mclosed;
+
+    /**
+     * Creates a journal without background checkpoints.
+     * @param records the records file
+     * @param journal the journal file
+     * @param layout the struct which provides the layout and the initial value of the records
+     * @param count the number of records
+     * @throws MemStructException if files can't be mapped, or layout doesn't match
+     */
+    public MemStructJournal(File records, File journal, MemStruct layout, int count) throws MemStructException {
+        this(records, journal, layout, count, 0);
+    }
+
+    /**
+     * Creates the records file and the journal file, or opens them and applies the journal to the records.
+     * The count is ignored when the records file already exists.
+     * @param records the records file
+     * @param journal the journal file
+     * @param layout the struct which provides the layout and the initial value of the records
+     * @param count the number of records
+     * @param checkpointInterval the interval between checkpoints in milliseconds, or 0 to disable background checkpoints
+     * @throws MemStructException if files can't be mapped, or layout doesn't match
+     */
+    public MemStructJournal(File records, File journal, MemStruct layout, int count, long checkpointInterval) throws MemStructException {
+        mlayout = layout;
+        mrecordSize = layout.sizeOf();
+        morder = layout.getBytesOrdering() == ORDERING_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        mpending = ByteBuffer.allocate(BUFFER_SIZE).order(morder);
+        mspare = ByteBuffer.allocate(BUFFER_SIZE).order(morder);
+
+        RandomAccessFile recordsFile = null;
+        RandomAccessFile journalFile = null;
+
+        try {
+            recordsFile = new RandomAccessFile(records, "rw");
+
+            MappedByteBuffer header = null;
+
+            if (recordsFile.length() >= HEADER_SIZE) {
+                header = recordsFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            }
+
+            // the magic is written last, therefore a file without magic has not been completely created
+            boolean created = header == null || header.getInt(HEADER_MAGIC) == 0;
+
+            if (created) {
+                if (count <= 0 || (long) count * mrecordSize > Integer.MAX_VALUE) {
+                    throw new MemStructException("invalid record count");
+                }
+
+                recordsFile.setLength(0);
+                recordsFile.setLength(HEADER_SIZE + (long) count * mrecordSize);
+
+                MappedByteBuffer data = recordsFile.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, (long) count * mrecordSize);
+
+                byte[] initial = layout.data();
+
+                for (int i = 0; i < count; i++) data.put(initial, 0, mrecordSize);
+
+                data.force();
+
+                header = recordsFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+                header.putInt(HEADER_FORMAT, FORMAT);
+                header.putLong(HEADER_LAYOUT, layout.getLayoutHash());
+                header.putLong(HEADER_COUNT, count);
+                header.putInt(HEADER_MAGIC, MAGIC);
+
+                header.force();
+            } else {
+                if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_FORMAT) != FORMAT) {
+                    throw new MemStructException("invalid records header");
+                }
+
+                if (header.getLong(HEADER_LAYOUT) != layout.getLayoutHash()) {
+                    throw new MemStructException("incompatible layout");
+                }
+
+                long size = header.getLong(HEADER_COUNT);
+
+                if (size <= 0 || size * mrecordSize > Integer.MAX_VALUE || recordsFile.length() != HEADER_SIZE + size * mrecordSize) {
+                    throw new MemStructException("invalid records size");
+                }
+
+                count = (int) size;
+            }
+
+            mcount = count;
+            mrecords = recordsFile.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, (long) count * mrecordSize);
+            mrecords.order(morder);
+            mapply = mrecords.duplicate();
+            mcopy = mrecords.duplicate();
+
+            journalFile = new RandomAccessFile(journal, "rw");
+
+            FileChannel channel = journalFile.getChannel();
+
+            ByteBuffer journalHeader = ByteBuffer.allocate(JOURNAL_HEADER_SIZE).order(morder);
+
+            if (journalFile.length() >= JOURNAL_HEADER_SIZE) {
+                read(channel, journalHeader, 0);
+
+                journalHeader.clear();
+            }
+
+            // the journal of records which have been created again is discarded
+            if (created || journalFile.length() < JOURNAL_HEADER_SIZE || journalHeader.getInt(0) == 0) {
+                journalHeader.putInt(JOURNAL_MAGIC);
+                journalHeader.putInt(FORMAT);
+                journalHeader.putLong(layout.getLayoutHash());
+                journalHeader.flip();
+
+                channel.truncate(0);
+
+                write(channel, journalHeader, 0);
+
+                channel.force(true);
+            } else {
+                if (journalHeader.getInt(0) != JOURNAL_MAGIC || journalHeader.getInt(4) != FORMAT) {
+                    throw new MemStructException("invalid journal header");
+                }
+
+                if (journalHeader.getLong(8) != layout.getLayoutHash()) {
+                    throw new MemStructException("incompatible layout");
+                }
+
+                replay(channel);
+
+                mrecords.force();
+
+                channel.truncate(JOURNAL_HEADER_SIZE);
+
+                channel.force(true);
+            }
+
+            mjournalSize = JOURNAL_HEADER_SIZE;
+            mjournal = channel;
+            mrecordsFile = recordsFile;
+            mjournalFile = journalFile;
+        } catch (IOException e) {
+            closeQuietly(journalFile);
+            closeQuietly(recordsFile);
+
+            throw new MemStructException("cannot map file " + records + " (" + e.getMessage() + ")");
+        } catch (MemStructException e) {
+            closeQuietly(journalFile);
+            closeQuietly(recordsFile);
+
+            throw e;
+        }
+
+        if (checkpointInterval > 0) {
+            mcheckpointer = new Thread(new Checkpointer(checkpointInterval), "MemStructJournal-checkpoint");
+            mcheckpointer.setDaemon(true);
+            mcheckpointer.start();
+        } else {
+            mcheckpointer = null;
+        }
+    }
+
+    /**
+     * Gets the number of records.
+     * @return the number of records
+     */
+    public int count() {
+        return mcount;
+    }
+
+    /**
+     * Gets a committed value of a record, given the label.
+     * @param record the index of the record
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or record is out of bounds
+     */
+    public long get(int record, String label) throws MemStructException {
+        return get(record, label, 0);
+    }
+
+    /**
+     * Gets a committed value of a record, given the label and the offset relative to the label.
+     * @param record the index of the record
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, record or offset are out of bounds
+     */
+    public long get(int record, String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = position(record, field, offset);
+
+        mlock.lock();
+
+        try {
+            switch (field.getSize()) {
+                case 1:
+                    return mrecords.get(position) & 0xFFL;
+
+                case 2:
+                    return mrecords.getShort(position) & 0xFFFFL;
+
+                case 4:
+                    return mrecords.getInt(position) & 0xFFFFFFFFL;
+
+                default:
+                    return mrecords.getLong(position);
+            }
+        } finally {
+            mlock.unlock();
+        }
+    }
+
+    /**
+     * Gets a committed value of a record as float, given the label.
+     * @param record the index of the record
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or record is out of bounds
+     */
+    public float getFloat(int record, String label) throws MemStructException {
+        return Float.intBitsToFloat((int) get(record, checkType(label, 4), 0));
+    }
+
+    /**
+     * Gets a committed value of a record as double, given the label.
+     * @param record the index of the record
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or record is out of bounds
+     */
+    public double getDouble(int record, String label) throws MemStructException {
+        return Double.longBitsToDouble(get(record, checkType(label, 8), 0));
+    }
+
+    /**
+     * Copies a committed record into a struct.
+     * @param record the index of the record
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout or record is out of bounds
+     */
+    public void copyTo(int record, MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        int position = position(record);
+
+        byte[] data = new byte[mrecordSize];
+
+        mlock.lock();
+
+        try {
+            mcopy.position(position);
+            mcopy.get(data);
+        } finally {
+            mlock.unlock();
+        }
+
+        struct.setBytes(data);
+    }
+
+    /**
+     * Logs an update of a record, given the label. The update is visible after the next commit.
+     * @param record the index of the record
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, record is out of bounds or journal is closed
+     */
+    public void set(int record, String label, long value) throws MemStructException {
+        set(record, label, value, 0);
+    }
+
+    /**
+     * Logs an update of a record, given the label and the offset relative to the label.
+     * The update is visible after the next commit.
+     * @param record the index of the record
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, record or offset are out of bounds or journal is closed
+     */
+    public void set(int record, String label, long value, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = position(record, field, offset);
+
+        ByteBuffer buffer = append(record, position - record * mrecordSize, field.getSize());
+
+        switch (field.getSize()) {
+            case 1:
+                buffer.put((byte) value);
+                break;
+
+            case 2:
+                buffer.putShort((short) value);
+                break;
+
+            case 4:
+                buffer.putInt((int) value);
+                break;
+
+            default:
+                buffer.putLong(value);
+                break;
+        }
+    }
+
+    /**
+     * Logs an update of a record with a float value, given the label.
+     * @param record the index of the record
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match, record is out of bounds or journal is closed
+     */
+    public void setFloat(int record, String label, float value) throws MemStructException {
+        set(record, checkType(label, 4), Float.floatToRawIntBits(value), 0);
+    }
+
+    /**
+     * Logs an update of a record with a double value, given the label.
+     * @param record the index of the record
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match, record is out of bounds or journal is closed
+     */
+    public void setDouble(int record, String label, double value) throws MemStructException {
+        set(record, checkType(label, 8), Double.doubleToRawLongBits(value), 0);
+    }
+
+    /**
+     * Logs an update of a record with a string, given the label. The remaining space is cleared.
+     * @param record the index of the record
+     * @param label the label
+     * @param data the string
+     * @return the number of copied bytes
+     * @throws MemStructException if label not found, record is out of bounds or journal is closed
+     */
+    public int setString(int record, String label, String data) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int size = field.getSize() * field.getCount();
+
+        int position = position(record, field, 0);
+
+        byte[] bytes = data != null ? data.getBytes() : new byte[0];
+
+        int dataSize = Math.min(size, bytes.length);
+
+        byte[] value = new byte[size];
+
+        System.arraycopy(bytes, 0, value, 0, dataSize);
+
+        append(record, position - record * mrecordSize, size).put(value);
+
+        return dataSize;
+    }
+
+    /**
+     * Logs an update of a whole record, copying the contents of a struct.
+     * @param record the index of the record
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout, record is out of bounds or journal is closed
+     */
+    public void copyFrom(int record, MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        position(record);
+
+        append(record, 0, mrecordSize).put(struct.data(), 0, mrecordSize);
+    }
+
+    /**
+     * Commits the updates logged so far by the calling thread. Returns when the updates have been forced
+     * to the journal and applied to the records. The updates which other threads have committed at the
+     * same time are written in the same batch, while the updates which they have not committed yet are not.
+     * @return the number of updates committed since the journal has been opened
+     * @throws MemStructException if journal can't be written or journal is closed
+     */
+    public long commit() throws MemStructException {
+        Updates updates = mupdates.get();
+
+        mlock.lock();
+
+        try {
+            checkState();
+
+            submit(updates);
+
+            long target = mappended;
+
+            while (mdurable < target) {
+                if (mflushing) {
+                    // another thread is writing, the updates will be written by the next batch
+                    mflushed.awaitUninterruptibly();
+
+                    checkState();
+
+                    continue;
+                }
+
+                mflushing = true;
+
+                ByteBuffer batch = mpending;
+                mpending = mspare;
+                mspare = batch;
+
+                long end = mappended;
+
+                int entries = batch.position();
+
+                try {
+                    mlock.unlock();
+
+                    try {
+                        writeBatch(batch);
+                    } finally {
+                        mlock.lock();
+                    }
+
+                    // the records are modified while holding the lock, so that readers never see partial values
+                    apply(batch, BATCH_HEADER_SIZE, entries);
+
+                    mdurable = end;
+                } catch (IOException e) {
+                    mfailure = new MemStructException("cannot write journal (" + e.getMessage() + ")");
+                } finally {
+                    batch.clear();
+
+                    mflushing = false;
+
+                    mflushed.signalAll();
+                }
+
+                checkState();
+            }
+
+            return mdurable;
+        } finally {
+            mlock.unlock();
+        }
+    }
+
+    /**
+     * Forces the committed updates to the records file and truncates the journal.
+     * Updates which have not been committed are not affected.
+     * @throws MemStructException if files can't be written or journal is closed
+     */
+    public void checkpoint() throws MemStructException {
+        mlock.lock();
+
+        try {
+            checkState();
+
+            while (mflushing) {
+                mflushed.awaitUninterruptibly();
+
+                checkState();
+            }
+
+            if (mjournalSize == JOURNAL_HEADER_SIZE) {
+                return;
+            }
+
+            mflushing = true;
+
+            try {
+                mlock.unlock();
+
+                try {
+                    mrecords.force();
+
+                    mjournal.truncate(JOURNAL_HEADER_SIZE);
+
+                    mjournal.force(true);
+                } finally {
+                    mlock.lock();
+                }
+
+                mjournalSize = JOURNAL_HEADER_SIZE;
+            } catch (IOException e) {
+                mfailure = new MemStructException("cannot write checkpoint (" + e.getMessage() + ")");
+            } finally {
+                mflushing = false;
+
+                mflushed.signalAll();
+            }
+
+            checkState();
+        } finally {
+            mlock.unlock();
+        }
+    }
+
+    /**
+     * Gets the size of the journal, which is reset by a checkpoint.
+     * @return the size in bytes
+     */
+    public long journalSize() {
+        mlock.lock();
+
+        try {
+            return mjournalSize;
+        } finally {
+            mlock.unlock();
+        }
+    }
+
+    /**
+     * Commits the updates of the calling thread, executes a checkpoint and closes the files.
+     * The updates which other threads have not committed are discarded.
+     * @throws IOException if files can't be written
+     */
+    public void close() throws IOException {
+        mlock.lock();
+
+        try {
+            if (mclosed) return;
+        } finally {
+            mlock.unlock();
+        }
+
+        MemStructException failure = null;
+
+        try {
+            commit();
+
+            checkpoint();
+        } catch (MemStructException e) {
+            failure = e;
+        }
+
+        mlock.lock();
+
+        try {
+            mclosed = true;
+
+            mclosing.signalAll();
+
+            mflushed.signalAll();
+        } finally {
+            mlock.unlock();
+        }
+
+        if (mcheckpointer != null) {
+            try {
+                mcheckpointer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        mjournalFile.close();
+        mrecordsFile.close();
+
+        if (failure != null) {
+            throw new IOException(failure.getMessage());
+        }
+    }
+
+    /**
+     * Appends the header of an entry to the updates of the calling thread, and returns the buffer
+     * where the bytes of the update must be written.
+     */
+    private ByteBuffer append(int record, int offset, int length) throws MemStructException {
+        checkState();
+
+        Updates updates = mupdates.get();
+
+        updates.mbuffer = reserve(updates.mbuffer, ENTRY_HEADER_SIZE + length);
+
+        updates.mbuffer.putInt(record);
+        updates.mbuffer.putInt(offset);
+        updates.mbuffer.putInt(length);
+
+        updates.mcount += 1;
+
+        return updates.mbuffer;
+    }
+
+    /**
+     * Moves the updates of a thread to the updates which are written by the next batch.
+     */
+    private void submit(Updates updates) {
+        if (updates.mcount == 0) return;
+
+        int length = updates.mbuffer.position();
+
+        int required = length + (mpending.position() == 0 ? BATCH_HEADER_SIZE : 0);
+
+        mpending = reserve(mpending, required + BATCH_TRAILER_SIZE);
+
+        if (mpending.position() == 0) {
+            // the batch header is completed when the batch is written
+            mpending.position(BATCH_HEADER_SIZE);
+        }
+
+        mpending.put(updates.mbuffer.array(), updates.mbuffer.arrayOffset(), length);
+
+        mappended += updates.mcount;
+
+        updates.mbuffer.clear();
+        updates.mcount = 0;
+    }
+
+    private ByteBuffer reserve(ByteBuffer buffer, int required) {
+        if (buffer.remaining() >= required) return buffer;
+
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.max(buffer.capacity() * 2L, (long) buffer.position() + required)).order(morder);
+
+        buffer.flip();
+
+        larger.put(buffer);
+
+        return larger;
+    }
+
+    private void writeBatch(ByteBuffer batch) throws IOException {
+        int length = batch.position() - BATCH_HEADER_SIZE;
+
+        batch.putInt(0, BATCH_MAGIC);
+        batch.putInt(4, length);
+
+        mcrc.reset();
+        mcrc.update(batch.array(), batch.arrayOffset() + BATCH_HEADER_SIZE, length);
+
+        batch.putInt((int) mcrc.getValue());
+        batch.flip();
+
+        // only the thread which is flushing modifies the size of the journal
+        long position = mjournalSize;
+
+        write(mjournal, batch, position);
+
+        mjournal.force(false);
+
+        mjournalSize = position + batch.limit();
+    }
+
+    private void replay(FileChannel channel) throws IOException, MemStructException {
+        long position = JOURNAL_HEADER_SIZE;
+
+        long size = channel.size();
+
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE).order(morder);
+
+        while (position + BATCH_HEADER_SIZE + BATCH_TRAILER_SIZE <= size) {
+            header.clear();
+
+            read(channel, header, position);
+
+            int length = header.getInt(4);
+
+            // a batch which has not been completely written is discarded, together with the following bytes
+            if (header.getInt(0) != BATCH_MAGIC || length < 0 || position + BATCH_HEADER_SIZE + length + BATCH_TRAILER_SIZE > size) {
+                break;
+            }
+
+            ByteBuffer batch = ByteBuffer.allocate(length + BATCH_TRAILER_SIZE).order(morder);
+
+            read(channel, batch, position + BATCH_HEADER_SIZE);
+
+            mcrc.reset();
+            mcrc.update(batch.array(), 0, length);
+
+            if (batch.getInt(length) != (int) mcrc.getValue()) {
+                break;
+            }
+
+            apply(batch, 0, length);
+
+            position += BATCH_HEADER_SIZE + length + BATCH_TRAILER_SIZE;
+        }
+    }
+
+    private void apply(ByteBuffer batch, int position, int end) throws MemStructException {
+        while (position < end) {
+            int record = batch.getInt(position);
+            int offset = batch.getInt(position + 4);
+            int length = batch.getInt(position + 8);
+
+            if (record < 0 || record >= mcount || offset < 0 || length < 0 || offset + length > mrecordSize) {
+                throw new MemStructException("invalid journal entry");
+            }
+
+            mapply.position(record * mrecordSize + offset);
+            mapply.put(batch.array(), batch.arrayOffset() + position + ENTRY_HEADER_SIZE, length);
+
+            position += ENTRY_HEADER_SIZE + length;
+        }
+    }
+
+    private void checkState() throws MemStructException {
+        if (mfailure != null) {
+            throw mfailure;
+        }
+
+        if (mclosed) {
+            throw new MemStructException("journal closed");
+        }
+    }
+
+    private String checkType(String label, int size) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        if (!field.isReal() || field.getSize() != size) {
+            throw new MemStructException("invalid type for label " + label);
+        }
+
+        return label;
+    }
+
+    private int position(int record, MemStructField field, int offset) throws MemStructException {
+        int position = field.getOffset() + offset * field.getSize();
+
+        if (offset < 0 || position + field.getSize() > mrecordSize) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        return position(record) + position;
+    }
+
+    private int position(int record) throws MemStructException {
+        if (record < 0 || record >= mcount) {
+            throw new MemStructException("record index out of bounds");
+        }
+
+        return record * mrecordSize;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+
+            if (count < 0) {
+                throw new IOException("unexpected end of file");
+            }
+
+            position += count;
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * The updates of a thread which have not been submitted.
+     */
+    private final class Updates {
+        private ByteBuffer mbuffer = ByteBuffer.allocate(THREAD_BUFFER_SIZE).order(morder);
+
+        // the number of updates
+        private long mcount;
+    }
+
+    /**
+     * Executes a checkpoint at regular intervals, if the journal is not empty.
+     */
+    private final class Checkpointer implements Runnable {
+        private final long minterval;
+
+        Checkpointer(long interval) {
+            minterval = interval;
+        }
+
+        public void run() {
+            while (true) {
+                mlock.lock();
+
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(minterval);
+
+                    while (!mclosed && nanos > 0) {
+                        nanos = mclosing.awaitNanos(nanos);
+                    }
+
+                    if (mclosed || mfailure != null) return;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    mlock.unlock();
+                }
+
+                try {
+                    checkpoint();
+                } catch (MemStructException e) {
+                    // the failure is reported to the next callers
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * MemStructRingBuffer.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.ProducerType.*;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.WaitStrategy.*;
+
+/**
+ * Preallocated ring buffer of struct slots, which passes messages between threads without allocation.
+ * <p>
+ * Each slot holds one struct with the layout of the given struct, and it's initialized with its contents.
+ * A producer claims a sequence with next, writes the slot at offsetOf(sequence) within getBytes, usually
+ * through field handles, and then publishes the sequence. The consumer receives the published slots in
+ * batches through a handler. Slots are reused, so the consumer must not keep references to their data
+ * after the handler returns.
+ * <p>
+ * Sequences are claimed by one thread in single producer mode, or by any number of threads in multiple
+ * producers mode. There must be only one consumer thread.
+ * <p>
+ * The wait strategy is used by producers when the buffer is full and by the consumer when the buffer is
+ * empty. Blocking uses java.util.concurrent locks rather than monitors, so that waiting virtual threads
+ * release their carrier thread.
+ */
+public final class MemStructRingBuffer {
+    // spins before yielding or blocking
+    private final static int SPIN_TRIES = 100;
+
+    // maximum time a blocked thread waits before checking again
+    private final static long BLOCKING_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // here we keep our slots
+    private final byte[] mdata;
+
+    // the size of one slot
+    private final int mrecordSize;
+
+    // the number of slots
+    private final int mcapacity;
+    private final int mmask;
+    private final int mshift;
+
+    private final ProducerType mproducerType;
+    private final WaitStrategy mwaitStrategy;
+
+    // the highest published sequence in single producer mode, or the highest claimed sequence in multiple producers mode
+    private final AtomicLong mcursor = new AtomicLong(-1);
+
+    // the highest consumed sequence
+    private final AtomicLong mconsumed = new AtomicLong(-1);
+
+    // the round of the last published sequence of each slot, in multiple producers mode
+    private final AtomicIntegerArray mavailable;
+
+    // the highest claimed sequence and the last seen consumed sequence, in single producer mode
+    private long mclaimed = -1;
+    private long mcachedConsumed = -1;
+
+    // the highest sequence read by the consumer
+    private long mread = -1;
+
+    // the lock used by blocking wait strategy
+    private final ReentrantLock mlock = new ReentrantLock();
+    private final Condition mcondition = mlock.newCondition();
+    private volatile int mwaiters = 0;
+
+    /**
+     * Create a ring buffer.
+     * @param layout the struct which provides the layout and the initial contents of slots
+     * @param capacity the number of slots, which must be a power of two
+     * @param producerType the producer type
+     * @param waitStrategy the wait strategy
+     * @throws MemStructException if capacity is not valid
+     */
+    public MemStructRingBuffer(MemStruct layout, int capacity, ProducerType producerType, WaitStrategy waitStrategy) throws MemStructException {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new MemStructException("capacity must be a power of two");
+        }
+
+        if ((long) capacity * layout.sizeOf() > Integer.MAX_VALUE) {
+            throw new MemStructException("capacity too large");
+        }
+
+        mrecordSize = layout.sizeOf();
+        mcapacity = capacity;
+        mmask = capacity - 1;
+        mshift = Integer.numberOfTrailingZeros(capacity);
+        mproducerType = producerType;
+        mwaitStrategy = waitStrategy;
+
+        mdata = new byte[capacity * mrecordSize];
+
+        for (int i = 0; i < capacity && mrecordSize > 0; i++) System.arraycopy(layout.data(), 0, mdata, i * mrecordSize, mrecordSize);
+
+        if (producerType == PRODUCER_MULTI) {
+            mavailable = new AtomicIntegerArray(capacity);
+
+            for (int i = 0; i < capacity; i++) mavailable.set(i, -1);
+        } else {
+            mavailable = null;
+        }
+    }
+
+    /**
+     * Gets the number of slots.
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mcapacity;
+    }
+
+    /**
+     * Gets the size of one slot.
+     * @return the size in bytes
+     */
+    public int getRecordSize() {
+        return mrecordSize;
+    }
+
+    /**
+     * Returns the slots of the ring buffer as an array of bytes.
+     * @return the slots bytes
+     */
+    public byte[] getBytes() {
+        return mdata;
+    }
+
+    /**
+     * Gets the offset in bytes of the slot of the given sequence.
+     * @param sequence the sequence
+     * @return the offset
+     */
+    public int offsetOf(long sequence) {
+        return ((int) sequence & mmask) * mrecordSize;
+    }
+
+    /**
+     * Claims the next sequence, waiting while the buffer is full.
+     * @return the claimed sequence
+     * @throws MemStructException if interrupted while waiting
+     */
+    public long next() throws MemStructException {
+        return next(1);
+    }
+
+    /**
+     * Claims the next n sequences, waiting while the buffer is full.
+     * @param n the number of sequences
+     * @return the highest claimed sequence
+     * @throws MemStructException if n is not valid or interrupted while waiting
+     */
+    public long next(int n) throws MemStructException {
+        if (n < 1 || n > mcapacity) {
+            throw new MemStructException("invalid number of sequences");
+        }
+
+        int counter = 0;
+
+        if (mproducerType == PRODUCER_SINGLE) {
+            long next = mclaimed + n;
+            long wrapPoint = next - mcapacity;
+
+            while (wrapPoint > mcachedConsumed) {
+                mcachedConsumed = mconsumed.get();
+
+                if (wrapPoint > mcachedConsumed) counter = idle(counter);
+            }
+
+            mclaimed = next;
+
+            return next;
+        }
+
+        while (true) {
+            long current = mcursor.get();
+            long next = current + n;
+
+            if (next - mcapacity > mconsumed.get()) {
+                counter = idle(counter);
+            } else if (mcursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Claims the next n sequences, if the buffer has enough free slots.
+     * @param n the number of sequences
+     * @return the highest claimed sequence, or -1 if the buffer is full
+     * @throws MemStructException if n is not valid
+     */
+    public long tryNext(int n) throws MemStructException {
+        if (n < 1 || n > mcapacity) {
+            throw new MemStructException("invalid number of sequences");
+        }
+
+        if (mproducerType == PRODUCER_SINGLE) {
+            long next = mclaimed + n;
+
+            if (next - mcapacity > mcachedConsumed && next - mcapacity > (mcachedConsumed = mconsumed.get())) {
+                return -1;
+            }
+
+            mclaimed = next;
+
+            return next;
+        }
+
+        while (true) {
+            long current = mcursor.get();
+            long next = current + n;
+
+            if (next - mcapacity > mconsumed.get()) {
+                return -1;
+            } else if (mcursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Publishes a claimed sequence, making its slot visible to the consumer.
+     * @param sequence the sequence
+     */
+    public void publish(long sequence) {
+        publish(sequence, sequence);
+    }
+
+    /**
+     * Publishes a range of claimed sequences, making their slots visible to the consumer.
+     * @param lo the lowest sequence
+     * @param hi the highest sequence
+     */
+    public void publish(long lo, long hi) {
+        boolean blocking = mwaitStrategy == WAIT_BLOCKING;
+
+        if (mproducerType == PRODUCER_SINGLE) {
+            if (blocking) {
+                mcursor.set(hi);
+            } else {
+                mcursor.lazySet(hi);
+            }
+        } else {
+            for (long s = lo; s <= hi; s++) {
+                if (blocking) {
+                    mavailable.set((int) s & mmask, (int) (s >>> mshift));
+                } else {
+                    mavailable.lazySet((int) s & mmask, (int) (s >>> mshift));
+                }
+            }
+        }
+
+        signal();
+    }
+
+    /**
+     * Copies a struct into the slot of the given sequence.
+     * @param sequence the claimed sequence
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public void write(long sequence, MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (mrecordSize > 0) System.arraycopy(struct.data(), 0, mdata, offsetOf(sequence), mrecordSize);
+    }
+
+    /**
+     * Copies the slot of the given sequence into a struct.
+     * @param sequence the sequence
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public void read(long sequence, MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (mrecordSize > 0) System.arraycopy(mdata, offsetOf(sequence), struct.storage(), 0, mrecordSize);
+    }
+
+    /**
+     * Consumes the published slots, up to maxBatch slots, without waiting.
+     * @param handler the handler
+     * @param maxBatch the maximum number of slots
+     * @return the number of consumed slots
+     * @throws MemStructException if handler fails
+     */
+    public int poll(Handler handler, int maxBatch) throws MemStructException {
+        long next = mread + 1;
+        long available = highestPublished(next, next + maxBatch - 1);
+
+        if (available < next) return 0;
+
+        long sequence = next;
+
+        try {
+            for (; sequence <= available; sequence++) {
+                handler.onSlot(mdata, offsetOf(sequence), sequence, sequence == available);
+            }
+        } finally {
+            if (sequence > next) {
+                mread = sequence - 1;
+
+                if (mwaitStrategy == WAIT_BLOCKING) {
+                    mconsumed.set(mread);
+                } else {
+                    mconsumed.lazySet(mread);
+                }
+
+                signal();
+            }
+        }
+
+        return (int) (available - next + 1);
+    }
+
+    /**
+     * Consumes the published slots, up to maxBatch slots, waiting while the buffer is empty.
+     * @param handler the handler
+     * @param maxBatch the maximum number of slots
+     * @return the number of consumed slots
+     * @throws MemStructException if handler fails or interrupted while waiting
+     */
+    public int take(Handler handler, int maxBatch) throws MemStructException {
+        int counter = 0;
+
+        while (highestPublished(mread + 1, mread + 1) <= mread) counter = idle(counter);
+
+        return poll(handler, maxBatch);
+    }
+
+    /**
+     * Gets the number of published slots which have not been consumed yet.
+     * @return the number of slots
+     */
+    public int size() {
+        long consumed = mconsumed.get();
+
+        if (mproducerType == PRODUCER_SINGLE) {
+            return (int) (mcursor.get() - consumed);
+        }
+
+        return (int) (highestPublished(consumed + 1, mcursor.get()) - consumed);
+    }
+
+    private long highestPublished(long lo, long hi) {
+        if (mproducerType == PRODUCER_SINGLE) {
+            return Math.min(mcursor.get(), hi);
+        }
+
+        hi = Math.min(mcursor.get(), hi);
+
+        for (long s = lo; s <= hi; s++) {
+            if (mavailable.get((int) s & mmask) != (int) (s >>> mshift)) return s - 1;
+        }
+
+        return hi;
+    }
+
+    private int idle(int counter) throws MemStructException {
+        switch (mwaitStrategy) {
+            case WAIT_BUSY_SPIN: {
+                break;
+            }
+
+            case WAIT_YIELD: {
+                if (counter >= SPIN_TRIES) Thread.yield();
+
+                break;
+            }
+
+            case WAIT_PARK: {
+                if (counter >= SPIN_TRIES) LockSupport.parkNanos(1);
+
+                break;
+            }
+
+            case WAIT_BLOCKING: {
+                if (counter >= SPIN_TRIES) {
+                    mlock.lock();
+
+                    try {
+                        mwaiters++;
+
+                        mcondition.awaitNanos(BLOCKING_TIMEOUT);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new MemStructException("interrupted");
+                    } finally {
+                        mwaiters--;
+
+                        mlock.unlock();
+                    }
+                }
+
+                break;
+            }
+
+            default:
+                break;
+        }
+
+        return counter + 1;
+    }
+
+    private void signal() {
+        if (mwaiters > 0) {
+            mlock.lock();
+
+            try {
+                mcondition.signalAll();
+            } finally {
+                mlock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The number of threads which claim sequences.
+     */
+    public enum ProducerType {
+        /**
+         * Sequences are claimed by one thread.
+         */
+        PRODUCER_SINGLE,
+        /**
+         * Sequences are claimed by any number of threads.
+         */
+        PRODUCER_MULTI
+    }
+
+    /**
+     * The way producers and the consumer wait for slots.
+     */
+    public enum WaitStrategy {
+        /**
+         * Spins, with the lowest latency and one busy core for each waiting thread.
+         */
+        WAIT_BUSY_SPIN,
+        /**
+         * Spins for a while, then yields the processor.
+         */
+        WAIT_YIELD,
+        /**
+         * Spins for a while, then parks the thread for a short time.
+         */
+        WAIT_PARK,
+        /**
+         * Blocks on a condition, which is signalled when slots are published or consumed.
+         */
+        WAIT_BLOCKING
+    }
+
+    /**
+     * Receives the slots consumed from the ring buffer.
+     */
+    public interface Handler {
+        /**
+         * Invoked for each consumed slot.
+         * @param data the slots bytes
+         * @param offset the offset of the slot
+         * @param sequence the sequence of the slot
+         * @param endOfBatch true if this is the last slot of the batch
+         * @throws MemStructException if slot can't be handled
+         */
+        void onSlot(byte[] data, int offset, long sequence, boolean endOfBatch) throws MemStructException;
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * MemStructSharedMemory.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Struct shared between processes, which is mapped from a file.
+ * <p>
+ * The file starts with a header which contains the identity of the layout, the version and the
+ * change counter, followed by the struct data. The first process which maps the file initializes
+ * it with the contents of the given struct, while the other processes verify that the header
+ * matches their layout and version. The magic number is written last, so a file left without magic
+ * by a process which died while initializing it is initialized again. On Linux, a file under
+ * /dev/shm keeps the data in memory.
+ * <p>
+ * Plain accessors provide no ordering. Volatile, acquire/release and atomic accessors are available
+ * for int and long fields of 4 or 8 bytes, which must be aligned to their size (see BytesPadding).
+ * <p>
+ * The change counter works as a sequence lock: a writer calls beginChange, updates the fields and
+ * calls endChange, while readers use copyTo to get a consistent copy of the struct, or awaitChange
+ * to wait for the next change. The counter is odd while a change is in progress, and a process which
+ * dies in the middle of a change leaves the struct locked.
+ */
+public final class MemStructSharedMemory implements Closeable {
+    // the size of the header
+    public final static int HEADER_SIZE = 64;
+
+    // header fields
+    private final static int MAGIC = 0x4D535452;
+    private final static int FORMAT = 1;
+    private final static int HEADER_MAGIC = 0;
+    private final static int HEADER_FORMAT = 4;
+    private final static int HEADER_LAYOUT = 8;
+    private final static int HEADER_VERSION = 16;
+    private final static int HEADER_DATA_SIZE = 20;
+    private final static int HEADER_CHANGES = 24;
+
+    // time waited between checks of change counter
+    private final static long PARK_TIME = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // number of checks of change counter before yielding
+    private final static int SPIN_TRIES = 100;
+
+    private final static VarHandle HEADER_LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final MemStruct mlayout;
+    private final int mdataSize;
+    private final boolean mbigEndian;
+
+    private final VarHandle mintHandle;
+    private final VarHandle mlongHandle;
+
+    private final RandomAccessFile mfile;
+    private final MappedByteBuffer mbuffer;
+
+    /**
+     * Maps a shared struct from a file, creating and initializing the file if it is empty or not initialized.
+     * @param file the file
+     * @param layout the struct which provides the layout and the initial contents
+     * @param version the version of the layout
+     * @throws MemStructException if file can't be mapped, or it contains a different layout or version
+     */
+    public MemStructSharedMemory(File file, MemStruct layout, int version) throws MemStructException {
+        mlayout = layout;
+        mdataSize = layout.sizeOf();
+        mbigEndian = layout.getBytesOrdering() == ORDERING_BIG_ENDIAN;
+
+        ByteOrder order = mbigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        mintHandle = MethodHandles.byteBufferViewVarHandle(int[].class, order);
+        mlongHandle = MethodHandles.byteBufferViewVarHandle(long[].class, order);
+
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+
+            FileChannel channel = raf.getChannel();
+
+            FileLock lock = channel.lock();
+
+            try {
+                long length = channel.size();
+
+                // the magic is written last, so a file without magic has not been initialized, because
+                // it has just been created or because the process which created it has been terminated
+                boolean initialize = length < HEADER_SIZE || readMagic(channel) == 0;
+
+                if (initialize) {
+                    raf.setLength(HEADER_SIZE + mdataSize);
+                } else if (length != HEADER_SIZE + mdataSize) {
+                    throw new MemStructException("incompatible layout");
+                }
+
+                mbuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + mdataSize);
+
+                if (initialize) {
+                    for (int i = 0; i < mdataSize; i++) mbuffer.put(HEADER_SIZE + i, layout.data()[i]);
+
+                    mbuffer.putInt(HEADER_FORMAT, FORMAT);
+                    mbuffer.putLong(HEADER_LAYOUT, layout.getLayoutHash());
+                    mbuffer.putInt(HEADER_VERSION, version);
+                    mbuffer.putInt(HEADER_DATA_SIZE, mdataSize);
+                    mbuffer.putLong(HEADER_CHANGES, 0);
+                    mbuffer.putInt(HEADER_MAGIC, MAGIC);
+
+                    mbuffer.force();
+                } else {
+                    if (mbuffer.getInt(HEADER_MAGIC) != MAGIC || mbuffer.getInt(HEADER_FORMAT) != FORMAT) {
+                        throw new MemStructException("invalid shared memory header");
+                    }
+
+                    if (mbuffer.getLong(HEADER_LAYOUT) != layout.getLayoutHash() || mbuffer.getInt(HEADER_DATA_SIZE) != mdataSize) {
+                        throw new MemStructException("incompatible layout");
+                    }
+
+                    if (mbuffer.getInt(HEADER_VERSION) != version) {
+                        throw new MemStructException("incompatible version " + mbuffer.getInt(HEADER_VERSION));
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+
+            mfile = raf;
+        } catch (IOException e) {
+            closeQuietly(raf);
+
+            throw new MemStructException("cannot map file " + file + " (" + e.getMessage() + ")");
+        } catch (MemStructException e) {
+            closeQuietly(raf);
+
+            throw e;
+        } catch (RuntimeException e) {
+            // the file is locked by this process, for example by another instance which is opening it
+            closeQuietly(raf);
+
+            throw new MemStructException("cannot lock file " + file + " (" + e + ")");
+        }
+    }
+
+    /**
+     * Unmaps the file. The mapping is released by the garbage collector.
+     * @throws IOException if file can't be closed
+     */
+    public void close() throws IOException {
+        mfile.close();
+    }
+
+    /**
+     * Sets the size of the shared struct padding included.
+     * @return the size of structure in bytes
+     */
+    public int sizeOf() {
+        return mdataSize;
+    }
+
+    /**
+     * Creates a view of the shared struct, which provides plain typed access by label or by handle.
+     * The view doesn't provide ordering guarantees, use the atomic accessors or the change counter
+     * to publish values to other processes.
+     * @return the view
+     */
+    public MemStructView view() {
+        MemStructView view = new MemStructView(mlayout);
+
+        view.point(mbuffer, HEADER_SIZE);
+
+        return view;
+    }
+
+    /**
+     * Gets a value from the shared struct, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found
+     */
+    public long get(String label) throws MemStructException {
+        return get(label, 0);
+    }
+
+    /**
+     * Gets a value from the shared struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found or offset is out of bounds
+     */
+    public long get(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = position(field, offset);
+
+        long value = 0;
+
+        for (int i = 0; i < field.getSize(); i++) {
+            value = value << 8;
+
+            if (mbigEndian) {
+                value |= mbuffer.get(position + i) & 0xFF;
+            } else {
+                value |= mbuffer.get(position + field.getSize() - i - 1) & 0xFF;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Sets a value into the shared struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found
+     */
+    public void set(String label, long value) throws MemStructException {
+        set(label, value, 0);
+    }
+
+    /**
+     * Sets a value into the shared struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found or offset is out of bounds
+     */
+    public void set(String label, long value, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = position(field, offset);
+
+        for (int i = 0; i < field.getSize(); i++) {
+            if (mbigEndian) {
+                mbuffer.put(position + field.getSize() - i - 1, (byte) (value & 0xFF));
+            } else {
+                mbuffer.put(position + i, (byte) (value & 0xFF));
+            }
+
+            value = value >> 8;
+        }
+    }
+
+    /**
+     * Gets a value with volatile semantics.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public long getVolatile(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            return (int) mintHandle.getVolatile(mbuffer, position) & 0xFFFFFFFFL;
+        } else {
+            return (long) mlongHandle.getVolatile(mbuffer, position);
+        }
+    }
+
+    /**
+     * Sets a value with volatile semantics.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public void setVolatile(String label, long value) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            mintHandle.setVolatile(mbuffer, position, (int) value);
+        } else {
+            mlongHandle.setVolatile(mbuffer, position, value);
+        }
+    }
+
+    /**
+     * Gets a value with acquire semantics.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public long getAcquire(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            return (int) mintHandle.getAcquire(mbuffer, position) & 0xFFFFFFFFL;
+        } else {
+            return (long) mlongHandle.getAcquire(mbuffer, position);
+        }
+    }
+
+    /**
+     * Sets a value with release semantics.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public void setRelease(String label, long value) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            mintHandle.setRelease(mbuffer, position, (int) value);
+        } else {
+            mlongHandle.setRelease(mbuffer, position, value);
+        }
+    }
+
+    /**
+     * Atomically sets a value if the current value is equal to the expected value.
+     * @param label the label
+     * @param expected the expected value
+     * @param value the new value
+     * @return true if value has been set
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public boolean compareAndSet(String label, long expected, long value) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            return mintHandle.compareAndSet(mbuffer, position, (int) expected, (int) value);
+        } else {
+            return mlongHandle.compareAndSet(mbuffer, position, expected, value);
+        }
+    }
+
+    /**
+     * Atomically adds a delta to a value.
+     * @param label the label
+     * @param delta the delta
+     * @return the previous value
+     * @throws MemStructException if label not found, or field is not an aligned int or long
+     */
+    public long getAndAdd(String label, long delta) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = atomicPosition(field);
+
+        if (field.getSize() == 4) {
+            return (int) mintHandle.getAndAdd(mbuffer, position, (int) delta) & 0xFFFFFFFFL;
+        } else {
+            return (long) mlongHandle.getAndAdd(mbuffer, position, delta);
+        }
+    }
+
+    /**
+     * Gets the change counter, which is odd while a change is in progress.
+     * @return the change counter
+     */
+    public long getChangeCount() {
+        return (long) HEADER_LONG.getAcquire(mbuffer, HEADER_CHANGES);
+    }
+
+    /**
+     * Begins a change, waiting for the change in progress to end if any.
+     * @return the change counter after the change began
+     */
+    public long beginChange() {
+        for (int counter = 0; ; counter++) {
+            long count = (long) HEADER_LONG.getVolatile(mbuffer, HEADER_CHANGES);
+
+            if ((count & 1) == 0 && HEADER_LONG.compareAndSet(mbuffer, HEADER_CHANGES, count, count + 1)) {
+                VarHandle.releaseFence();
+
+                return count + 1;
+            }
+
+            idle(counter);
+        }
+    }
+
+    /**
+     * Ends the change in progress, making the changes visible to the other processes.
+     * @return the change counter after the change ended
+     * @throws MemStructException if no change is in progress
+     */
+    public long endChange() throws MemStructException {
+        long count = (long) HEADER_LONG.getVolatile(mbuffer, HEADER_CHANGES);
+
+        if ((count & 1) == 0) {
+            throw new MemStructException("no change in progress");
+        }
+
+        HEADER_LONG.setRelease(mbuffer, HEADER_CHANGES, count + 1);
+
+        return count + 1;
+    }
+
+    /**
+     * Waits until the change counter is different from the given value and no change is in progress.
+     * @param count the last seen change counter
+     * @param timeout the maximum time to wait in milliseconds
+     * @return the new change counter, or the given value if timeout expired
+     * @throws MemStructException if interrupted while waiting
+     */
+    public long awaitChange(long count, long timeout) throws MemStructException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (true) {
+            long current = getChangeCount();
+
+            if (current != count && (current & 1) == 0) return current;
+
+            if (System.nanoTime() - deadline >= 0) return count;
+
+            LockSupport.parkNanos(PARK_TIME);
+
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+
+                throw new MemStructException("interrupted");
+            }
+        }
+    }
+
+    /**
+     * Copies a consistent state of the shared struct into a struct.
+     * @param struct the struct
+     * @return the change counter of the copied state
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public long copyTo(MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mdataSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        byte[] data = new byte[mdataSize];
+
+        for (int counter = 0; ; counter++) {
+            long before = getChangeCount();
+
+            if ((before & 1) == 0) {
+                for (int i = 0; i < mdataSize; i++) data[i] = mbuffer.get(HEADER_SIZE + i);
+
+                VarHandle.acquireFence();
+
+                if ((long) HEADER_LONG.getVolatile(mbuffer, HEADER_CHANGES) == before) {
+                    struct.setBytes(data);
+
+                    return before;
+                }
+            }
+
+            idle(counter);
+        }
+    }
+
+    /**
+     * Copies a struct into the shared struct, as a single change.
+     * @param struct the struct
+     * @return the change counter after the change
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public long copyFrom(MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mdataSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        beginChange();
+
+        for (int i = 0; i < mdataSize; i++) mbuffer.put(HEADER_SIZE + i, struct.data()[i]);
+
+        return endChange();
+    }
+
+    private int position(MemStructField field, int offset) throws MemStructException {
+        int position = field.getOffset() + offset * field.getSize();
+
+        if (offset < 0 || position + field.getSize() > mdataSize) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        return HEADER_SIZE + position;
+    }
+
+    private int atomicPosition(MemStructField field) throws MemStructException {
+        if ((field.getSize() != 4 && field.getSize() != 8) || field.isReal()) {
+            throw new MemStructException("invalid type for label " + field.getLabel());
+        }
+
+        if (field.getOffset() % field.getSize() != 0) {
+            throw new MemStructException("label not aligned " + field.getLabel());
+        }
+
+        return HEADER_SIZE + field.getOffset();
+    }
+
+    private static int readMagic(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, HEADER_MAGIC + magic.position()) < 0) return 0;
+        }
+
+        return magic.getInt(0);
+    }
+
+    /**
+     * Waits before the next check of the change counter, spinning and then yielding the processor.
+     */
+    private static void idle(int counter) {
+        if (counter < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * MemStructSnapshot.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+/**
+ * Immutable view of the contents of a struct at the time the snapshot was taken.
+ * <p>
+ * A snapshot is created in constant time and shares data with the struct. Before the struct
+ * is modified, the chunks affected by the modification are copied into the snapshot, so that
+ * only the modified chunks of large structs are duplicated. Chunks are 4096 bytes, or the whole
+ * struct when it is smaller. The struct references its snapshots weakly, so snapshots which are
+ * no longer referenced are collected together with their chunks. Writes which don't go through
+ * the struct can't be tracked, so once the storage has been returned by {@link MemStruct#getBytes()}
+ * the snapshots copy the whole struct when they are taken.
+ * <p>
+ * Accessors follow the same rules of the struct accessors, and a snapshot can be read by any
+ * thread while the struct is modified.
+ */
+public final class MemStructSnapshot {
+    // the size of the chunks
+    final static int CHUNK_SIZE = 4096;
+
+    // the struct which provides the layout
+    private final MemStruct mstruct;
+
+    // the struct storage, until every chunk has been copied
+    private byte[] mlive;
+
+    // the copied chunks
+    private final byte[][] mchunks;
+
+    private final int mdataSize;
+    private final int mchunkSize;
+
+    // the number of copied chunks
+    private int mcopied = 0;
+
+    // the element which crosses the boundary of two chunks
+    private final byte[] mscratch = new byte[8];
+
+    MemStructSnapshot(MemStruct struct, byte[] live, int size) {
+        mstruct = struct;
+        mlive = live;
+        mdataSize = size;
+        mchunkSize = Math.max(1, Math.min(CHUNK_SIZE, size));
+        mchunks = new byte[(size + mchunkSize - 1) / mchunkSize][];
+    }
+
+    /**
+     * Returns true if the struct has been modified after the snapshot was taken.
+     */
+    synchronized boolean isModified() {
+        return mcopied > 0;
+    }
+
+    /**
+     * Copies the chunks which contain the given range of bytes, before the struct modifies them.
+     * Returns true when all chunks have been copied.
+     */
+    synchronized boolean preserve(int offset, int length) {
+        int start = Math.max(0, offset);
+        int end = (int) Math.min(mdataSize, (long) offset + length);
+
+        // an empty range doesn't modify any chunk
+        if (start >= end) return mcopied == mchunks.length;
+
+        int first = start / mchunkSize;
+        int last = (end - 1) / mchunkSize;
+
+        for (int c = first; c <= last && c < mchunks.length; c++) {
+            if (mchunks[c] == null) {
+                int size = Math.min(mchunkSize, mdataSize - c * mchunkSize);
+
+                mchunks[c] = new byte[size];
+
+                System.arraycopy(mlive, c * mchunkSize, mchunks[c], 0, size);
+
+                mcopied++;
+            }
+        }
+
+        if (mcopied == mchunks.length) {
+            mlive = null;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the number of bytes which have been copied into the snapshot.
+     * @return the number of bytes
+     */
+    public synchronized int getCopiedSize() {
+        int size = 0;
+
+        for (byte[] chunk : mchunks) {
+            if (chunk != null) size += chunk.length;
+        }
+
+        return size;
+    }
+
+    /**
+     * Sets the size of the whole struct padding included.
+     * @return the size of structure in bytes
+     */
+    public int sizeOf() {
+        return mdataSize;
+    }
+
+    /**
+     * Returns a copy of the contents of the snapshot as an array of bytes.
+     * @return the structure bytes
+     */
+    public byte[] getBytes() {
+        byte[] data = new byte[mdataSize];
+
+        read(0, data, 0, mdataSize);
+
+        return data;
+    }
+
+    /**
+     * Copies the contents of the snapshot into a struct.
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public void copyTo(MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mdataSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        struct.setBytes(getBytes());
+    }
+
+    /**
+     * Gets a value from the snapshot, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found
+     */
+    public long get(String label) throws MemStructException {
+        MemStructField field = mstruct.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        return get(label, 0);
+    }
+
+    /**
+     * Gets a value from the snapshot, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found or offset is out of bounds
+     */
+    public synchronized long get(String label, int offset) throws MemStructException {
+        MemStructField field = activeField(label);
+
+        int c = locate(field, offset);
+
+        return field.getBits(source(c), base(c, field, offset), offset);
+    }
+
+    /**
+     * Gets a value from the snapshot as byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized byte getByte(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getByte(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as unsigned byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized int getUnsignedByte(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getUnsignedByte(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized short getShort(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getShort(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as unsigned short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized int getUnsignedShort(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getUnsignedShort(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized int getInt(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getInt(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as unsigned int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized long getUnsignedInt(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getUnsignedInt(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as long, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found
+     */
+    public synchronized long getLong(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getLong(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as float, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized float getFloat(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getFloat(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets a value from the snapshot as double, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or type doesn't match
+     */
+    public synchronized double getDouble(String label) throws MemStructException {
+        MemStructField field = dcField(label);
+
+        if (field == null) return 0;
+
+        int c = locate(field, 0);
+
+        return field.getDouble(source(c), base(c, field, 0));
+    }
+
+    /**
+     * Gets the string at the given label.
+     * @param label the label
+     * @return the string
+     * @throws MemStructException if label not found
+     */
+    public String getString(String label) throws MemStructException {
+        MemStructField field = activeField(label);
+
+        int size = field.getSize() * field.getCount();
+
+        if (size > 0) {
+            byte[] data = new byte[size];
+
+            read(field.getOffset(), data, 0, size);
+
+            return new String(data);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the "C" string at the given label.
+     * @param label the label
+     * @return the C string
+     * @throws MemStructException if label not found
+     */
+    public String getCString(String label) throws MemStructException {
+        String s = getString(label);
+
+        if (s != null) {
+            int idx = s.indexOf('\0');
+
+            if (idx == -1) {
+                return s;
+            } else {
+                return s.substring(0, idx);
+            }
+        } else {
+            return null;
+        }
+    }
+
+    private MemStructField dcField(String label) throws MemStructException {
+        MemStructField field = activeField(label);
+
+        // only get DC data
+        return field.isSpace() ? null : field;
+    }
+
+    /**
+     * Returns the handle of a label, checking that its variant case is selected. The handle doesn't
+     * check the case again, because it accesses the chunks of the snapshot rather than the whole struct.
+     */
+    private synchronized MemStructField activeField(String label) throws MemStructException {
+        MemStructField field = mstruct.getField(label);
+
+        MemStructVariant.Case variantCase = field.getCase();
+
+        if (variantCase != null) {
+            MemStructField discriminator = variantCase.getVariant().getDiscriminatorItem().getField();
+
+            int c = locate(discriminator, 0);
+
+            if (variantCase.getVariant().dispatch(discriminator.getBits(source(c), base(c, discriminator, 0), 0)) != variantCase) {
+                throw new MemStructException("inactive label " + label);
+            }
+        }
+
+        return field.raw();
+    }
+
+    /**
+     * Returns the chunk which contains the given element, or -1 when the element crosses
+     * the boundary of two chunks and it has been copied into the scratch space.
+     */
+    private int locate(MemStructField field, int index) throws MemStructException {
+        int position = field.getOffset() + index * field.getSize();
+
+        if (index < 0 || position + field.getSize() > mdataSize) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        int c = position / mchunkSize;
+
+        if ((position + field.getSize() - 1) / mchunkSize == c) return c;
+
+        read(position, mscratch, 0, field.getSize());
+
+        return -1;
+    }
+
+    private byte[] source(int c) {
+        if (c < 0) return mscratch;
+
+        return mchunks[c] != null ? mchunks[c] : mlive;
+    }
+
+    private int base(int c, MemStructField field, int index) {
+        if (c < 0) return -(field.getOffset() + index * field.getSize());
+
+        return mchunks[c] != null ? -c * mchunkSize : 0;
+    }
+
+    private synchronized void read(int offset, byte[] data, int dataOffset, int length) {
+        while (length > 0) {
+            int c = offset / mchunkSize;
+            int position = offset % mchunkSize;
+            int size = Math.min(length, mchunkSize - position);
+
+            if (mchunks[c] != null) {
+                System.arraycopy(mchunks[c], position, data, dataOffset, size);
+            } else {
+                System.arraycopy(mlive, offset, data, dataOffset, size);
+            }
+
+            offset += size;
+            dataOffset += size;
+            length -= size;
+        }
+    }
+}
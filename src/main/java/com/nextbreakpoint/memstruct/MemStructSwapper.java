@@ -0,0 +1,404 @@
+/*
+ * MemStructSwapper.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Converts the bytes ordering of struct data, driven by the struct layout.
+ * <p>
+ * The layout is compiled once into runs of contiguous fields of the same width,
+ * so that a whole struct, or an array of structs stored one after the other,
+ * is converted in a single sweep. Single bytes, ds.b strings and pad bytes are
+ * left untouched, while ds arrays of wider types are swapped element by element.
+ * <p>
+ * Swapping is symmetric, so the same swapper converts from big-endian to little-endian
+ * and from little-endian to big-endian. Variants are the exception: the fields of each case
+ * are compiled into their own runs, and each struct is swapped with the runs of the case
+ * selected by its discriminator, which is read in the bytes ordering of the layout. Therefore
+ * the source data of a layout with variants must be in the bytes ordering of the layout, and
+ * the data is swapped back with a swapper compiled from the layout with the other ordering.
+ * Variants which don't select any case are left untouched.
+ */
+public final class MemStructSwapper {
+    // the size of one struct
+    private final int mrecordSize;
+
+    // the runs of the fields which are not in variants
+    private final Runs mruns;
+
+    // the ranges of bytes to copy unchanged (offset and length)
+    private final int[] mcopyOffset;
+    private final int[] mcopyLength;
+
+    // the variants, their discriminators and the runs of their cases indexed by case
+    private final MemStructVariant[] mvariants;
+    private final int[] mdiscriminatorOffset;
+    private final int[] mdiscriminatorWidth;
+    private final Runs[][] mcaseRuns;
+
+    // the ordering of the layout, which is used to read the discriminators
+    private final boolean mbigEndian;
+
+    /**
+     * Compile the layout of the given struct.
+     * @param layout the struct which provides the layout
+     */
+    public MemStructSwapper(MemStruct layout) {
+        mrecordSize = layout.sizeOf();
+        mbigEndian = layout.getBytesOrdering() == ORDERING_BIG_ENDIAN;
+
+        mruns = new Runs(layout.getItems());
+
+        List<int[]> copies = new ArrayList<int[]>();
+
+        int position = 0;
+
+        for (int i = 0; i < mruns.moffset.length; i++) {
+            if (mruns.moffset[i] > position) copies.add(new int[] { position, mruns.moffset[i] - position });
+
+            position = mruns.moffset[i] + mruns.mwidth[i] * mruns.mcount[i];
+        }
+
+        if (mrecordSize > position) copies.add(new int[] { position, mrecordSize - position });
+
+        mcopyOffset = new int[copies.size()];
+        mcopyLength = new int[copies.size()];
+
+        for (int i = 0; i < copies.size(); i++) {
+            mcopyOffset[i] = copies.get(i)[0];
+            mcopyLength[i] = copies.get(i)[1];
+        }
+
+        List<MemStructVariant> variants = layout.getVariants();
+
+        mvariants = variants.toArray(new MemStructVariant[0]);
+        mdiscriminatorOffset = new int[mvariants.length];
+        mdiscriminatorWidth = new int[mvariants.length];
+        mcaseRuns = new Runs[mvariants.length][];
+
+        for (int v = 0; v < mvariants.length; v++) {
+            mdiscriminatorOffset[v] = mvariants[v].getDiscriminatorItem().getOffset();
+            mdiscriminatorWidth[v] = mvariants[v].getDiscriminatorItem().getTypeSize();
+            mcaseRuns[v] = new Runs[mvariants[v].getCases().size()];
+
+            for (MemStructVariant.Case c : mvariants[v].getCases()) mcaseRuns[v][c.getIndex()] = new Runs(layout.getItems(c));
+        }
+    }
+
+    /**
+     * Gets the number of runs the layout has been compiled into, the runs of the variant cases excluded.
+     * @return the number of runs
+     */
+    public int getRunCount() {
+        return mruns.moffset.length;
+    }
+
+    /**
+     * Swaps the bytes of the given struct in place.
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout
+     */
+    public void swap(MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (mrecordSize > 0) swap(struct.storage(), 0, 1);
+    }
+
+    /**
+     * Swaps the bytes of an array of structs in place.
+     * @param data the data
+     * @param offset the offset of the first struct
+     * @param count the number of structs
+     * @throws MemStructException if structs are out of bounds
+     */
+    public void swap(byte[] data, int offset, int count) throws MemStructException {
+        checkBounds(data.length, offset, count);
+
+        for (int r = 0; r < count; r++) {
+            int base = offset + r * mrecordSize;
+
+            // the cases are swapped before the discriminators
+            for (int v = 0; v < mvariants.length; v++) {
+                Runs runs = caseRuns(v, data, base);
+
+                if (runs != null) runs.swap(data, base);
+            }
+
+            mruns.swap(data, base);
+        }
+    }
+
+    /**
+     * Swaps the bytes of an array of structs into a destination array.
+     * Source and destination regions must not overlap unless they are the same region.
+     * @param src the source data
+     * @param srcOffset the offset of the first struct in source data
+     * @param dst the destination data
+     * @param dstOffset the offset of the first struct in destination data
+     * @param count the number of structs
+     * @throws MemStructException if structs are out of bounds
+     */
+    public void swap(byte[] src, int srcOffset, byte[] dst, int dstOffset, int count) throws MemStructException {
+        if (src == dst && srcOffset == dstOffset) {
+            swap(dst, dstOffset, count);
+
+            return;
+        }
+
+        checkBounds(src.length, srcOffset, count);
+        checkBounds(dst.length, dstOffset, count);
+
+        for (int r = 0; r < count; r++) {
+            int srcBase = srcOffset + r * mrecordSize;
+            int dstBase = dstOffset + r * mrecordSize;
+
+            for (int i = 0; i < mcopyOffset.length; i++) {
+                System.arraycopy(src, srcBase + mcopyOffset[i], dst, dstBase + mcopyOffset[i], mcopyLength[i]);
+            }
+
+            mruns.swap(src, srcBase, dst, dstBase);
+
+            for (int v = 0; v < mvariants.length; v++) {
+                Runs runs = caseRuns(v, src, srcBase);
+
+                if (runs != null) runs.swap(src, srcBase, dst, dstBase);
+            }
+        }
+    }
+
+    /**
+     * Swaps the bytes of an array of structs in place, within a byte buffer.
+     * The position, limit and order of the buffer are not changed.
+     * @param buffer the buffer
+     * @param offset the absolute offset of the first struct
+     * @param count the number of structs
+     * @throws MemStructException if structs are out of bounds
+     */
+    public void swap(ByteBuffer buffer, int offset, int count) throws MemStructException {
+        swap(buffer, offset, buffer, offset, count);
+    }
+
+    /**
+     * Swaps the bytes of an array of structs into a destination byte buffer.
+     * The position, limit and order of the buffers are not changed.
+     * Source and destination regions must not overlap unless they are the same region.
+     * @param src the source buffer
+     * @param srcOffset the absolute offset of the first struct in source buffer
+     * @param dst the destination buffer
+     * @param dstOffset the absolute offset of the first struct in destination buffer
+     * @param count the number of structs
+     * @throws MemStructException if structs are out of bounds
+     */
+    public void swap(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int count) throws MemStructException {
+        checkBounds(src.limit(), srcOffset, count);
+        checkBounds(dst.limit(), dstOffset, count);
+
+        boolean inPlace = src == dst && srcOffset == dstOffset;
+
+        // the elements are read and written with the same order, so that reversing their bytes swaps them
+        if (dst.order() != src.order()) dst = dst.duplicate().order(src.order());
+
+        for (int r = 0; r < count; r++) {
+            int srcBase = srcOffset + r * mrecordSize;
+            int dstBase = dstOffset + r * mrecordSize;
+
+            if (!inPlace) {
+                for (int i = 0; i < mcopyOffset.length; i++) {
+                    int s = srcBase + mcopyOffset[i];
+                    int d = dstBase + mcopyOffset[i];
+
+                    for (int k = 0; k < mcopyLength[i]; k++) dst.put(d + k, src.get(s + k));
+                }
+            }
+
+            // the cases are swapped before the discriminators, which may be swapped in place
+            for (int v = 0; v < mvariants.length; v++) {
+                Runs runs = caseRuns(v, src, srcBase);
+
+                if (runs != null) runs.swap(src, srcBase, dst, dstBase);
+            }
+
+            mruns.swap(src, srcBase, dst, dstBase);
+        }
+    }
+
+    /**
+     * Returns the runs of the case selected by the discriminator of the given struct, or null.
+     */
+    private Runs caseRuns(int v, byte[] data, int base) {
+        long value = 0;
+
+        int offset = base + mdiscriminatorOffset[v];
+        int width = mdiscriminatorWidth[v];
+
+        for (int i = 0; i < width; i++) {
+            value = value << 8;
+
+            if (mbigEndian) {
+                value |= data[offset + i] & 0xFF;
+            } else {
+                value |= data[offset + width - i - 1] & 0xFF;
+            }
+        }
+
+        MemStructVariant.Case c = mvariants[v].dispatch(value);
+
+        return c != null ? mcaseRuns[v][c.getIndex()] : null;
+    }
+
+    private Runs caseRuns(int v, ByteBuffer buffer, int base) {
+        long value = 0;
+
+        int offset = base + mdiscriminatorOffset[v];
+        int width = mdiscriminatorWidth[v];
+
+        for (int i = 0; i < width; i++) {
+            value = value << 8;
+
+            if (mbigEndian) {
+                value |= buffer.get(offset + i) & 0xFF;
+            } else {
+                value |= buffer.get(offset + width - i - 1) & 0xFF;
+            }
+        }
+
+        MemStructVariant.Case c = mvariants[v].dispatch(value);
+
+        return c != null ? mcaseRuns[v][c.getIndex()] : null;
+    }
+
+    private void checkBounds(int length, int offset, int count) throws MemStructException {
+        if (offset < 0 || count < 0 || (long) offset + (long) count * mrecordSize > length) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    /**
+     * Runs of contiguous fields of the same width (offset, width and count of elements).
+     */
+    private static final class Runs {
+        private final int[] moffset;
+        private final int[] mwidth;
+        private final int[] mcount;
+
+        Runs(List<MemStruct.StructItem> items) {
+            List<int[]> runs = new ArrayList<int[]>();
+
+            for (MemStruct.StructItem si : items) {
+                int width = si.getTypeSize();
+
+                if (width < 2) continue;
+
+                int count = si.getTotalSize() / width;
+
+                if (count == 0) continue;
+
+                int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+
+                if (last != null && last[1] == width && last[0] + last[1] * last[2] == si.getOffset()) {
+                    last[2] += count;
+                } else {
+                    runs.add(new int[] { si.getOffset(), width, count });
+                }
+            }
+
+            moffset = new int[runs.size()];
+            mwidth = new int[runs.size()];
+            mcount = new int[runs.size()];
+
+            for (int i = 0; i < runs.size(); i++) {
+                moffset[i] = runs.get(i)[0];
+                mwidth[i] = runs.get(i)[1];
+                mcount[i] = runs.get(i)[2];
+            }
+        }
+
+        void swap(byte[] data, int base) {
+            for (int i = 0; i < moffset.length; i++) {
+                int width = mwidth[i];
+                int end = base + moffset[i] + width * mcount[i];
+
+                for (int p = base + moffset[i]; p < end; p += width) {
+                    for (int lo = p, hi = p + width - 1; lo < hi; lo++, hi--) {
+                        byte b = data[lo];
+                        data[lo] = data[hi];
+                        data[hi] = b;
+                    }
+                }
+            }
+        }
+
+        void swap(byte[] src, int srcBase, byte[] dst, int dstBase) {
+            for (int i = 0; i < moffset.length; i++) {
+                int width = mwidth[i];
+                int length = width * mcount[i];
+                int s = srcBase + moffset[i];
+                int d = dstBase + moffset[i];
+
+                for (int p = 0; p < length; p += width) {
+                    for (int k = 0; k < width; k++) {
+                        dst[d + p + k] = src[s + p + width - k - 1];
+                    }
+                }
+            }
+        }
+
+        void swap(ByteBuffer src, int srcBase, ByteBuffer dst, int dstBase) {
+            for (int i = 0; i < moffset.length; i++) {
+                int width = mwidth[i];
+                int length = width * mcount[i];
+                int s = srcBase + moffset[i];
+                int d = dstBase + moffset[i];
+
+                switch (width) {
+                    case 2: {
+                        for (int p = 0; p < length; p += 2) dst.putShort(d + p, Short.reverseBytes(src.getShort(s + p)));
+
+                        break;
+                    }
+
+                    case 4: {
+                        for (int p = 0; p < length; p += 4) dst.putInt(d + p, Integer.reverseBytes(src.getInt(s + p)));
+
+                        break;
+                    }
+
+                    case 8: {
+                        for (int p = 0; p < length; p += 8) dst.putLong(d + p, Long.reverseBytes(src.getLong(s + p)));
+
+                        break;
+                    }
+
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * MemStructVariant.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Variant of a struct, which is a region of bytes shared by alternative cases.
+ * <p>
+ * The active case is selected by the value of a discriminator, which is a dc integer label
+ * declared before the variant. The dispatch table is computed when the struct is built: it is
+ * an array indexed by value when all values are small, otherwise a sorted array of values.
+ * <p>
+ * The size of the variant is the size of the largest case.
+ */
+public final class MemStructVariant {
+    // the largest value of a dense dispatch table
+    private final static int DENSE_LIMIT = 4096;
+
+    private final String mlabel;
+    private final MemStruct.StructItem mdiscriminator;
+    private final int moffset;
+    private int msize;
+
+    private final List<Case> mcases = new ArrayList<Case>();
+
+    // dense dispatch table, or null
+    private Case[] mtable;
+
+    // sparse dispatch table, sorted by value
+    private long[] mvalues;
+    private Case[] msorted;
+
+    MemStructVariant(String label, MemStruct.StructItem discriminator, int offset) {
+        mlabel = label;
+        mdiscriminator = discriminator;
+        moffset = offset;
+    }
+
+    /**
+     * Adds a case. Returns null if the value is already used.
+     */
+    Case addCase(String label, long value) {
+        // compare values as the discriminator is read
+        if (mdiscriminator.getTypeSize() < 8) value &= (1L << mdiscriminator.getTypeSize() * 8) - 1;
+
+        for (Case c : mcases) {
+            if (c.mvalue == value) return null;
+        }
+
+        Case c = new Case(label, value, mcases.size());
+
+        mcases.add(c);
+
+        return c;
+    }
+
+    /**
+     * Sets the size of the variant and computes the dispatch table.
+     */
+    void complete(int size) {
+        msize = size;
+
+        long min = 0;
+        long max = 0;
+
+        for (Case c : mcases) {
+            min = Math.min(min, c.mvalue);
+            max = Math.max(max, c.mvalue);
+        }
+
+        if (min >= 0 && max < DENSE_LIMIT) {
+            mtable = new Case[(int) max + 1];
+
+            for (Case c : mcases) mtable[(int) c.mvalue] = c;
+        } else {
+            msorted = mcases.toArray(new Case[0]);
+
+            Arrays.sort(msorted, new Comparator<Case>() {
+                public int compare(Case a, Case b) {
+                    return Long.compare(a.mvalue, b.mvalue);
+                }
+            });
+
+            mvalues = new long[msorted.length];
+
+            for (int i = 0; i < msorted.length; i++) mvalues[i] = msorted[i].mvalue;
+        }
+    }
+
+    /**
+     * Returns the item of the discriminator.
+     */
+    MemStruct.StructItem getDiscriminatorItem() {
+        return mdiscriminator;
+    }
+
+    /**
+     * Gets the label of the variant.
+     * @return the label
+     */
+    public String getLabel() {
+        return mlabel;
+    }
+
+    /**
+     * Gets the label of the discriminator.
+     * @return the label
+     */
+    public String getDiscriminator() {
+        return mdiscriminator.getLabel();
+    }
+
+    /**
+     * Gets the offset in bytes of the variant.
+     * @return the offset
+     */
+    public int getOffset() {
+        return moffset;
+    }
+
+    /**
+     * Gets the size in bytes of the variant, which is the size of the largest case.
+     * @return the size
+     */
+    public int getSize() {
+        return msize;
+    }
+
+    /**
+     * Gets the cases in declaration order.
+     * @return the cases
+     */
+    public List<Case> getCases() {
+        return Collections.unmodifiableList(mcases);
+    }
+
+    /**
+     * Finds the case selected by a value of the discriminator.
+     * @param value the value
+     * @return the case, or null if no case has the given value
+     */
+    public Case dispatch(long value) {
+        if (mtable != null) {
+            return value >= 0 && value < mtable.length ? mtable[(int) value] : null;
+        }
+
+        int index = Arrays.binarySearch(mvalues, value);
+
+        return index >= 0 ? msorted[index] : null;
+    }
+
+    public String toString() {
+        return "[" + moffset + "] size=" + msize + " bytes, variant=" + mlabel + ", discriminator=" + mdiscriminator.getLabel();
+    }
+
+    /**
+     * Case of a variant.
+     */
+    public final class Case {
+        private final String mlabel;
+        private final long mvalue;
+        private final int mindex;
+        private int msize;
+
+        private Case(String label, long value, int index) {
+            mlabel = label;
+            mvalue = value;
+            mindex = index;
+        }
+
+        /**
+         * Returns the index of the case in declaration order.
+         */
+        int getIndex() {
+            return mindex;
+        }
+
+        /**
+         * Sets the size of the case.
+         */
+        void setSize(int size) {
+            msize = size;
+        }
+
+        /**
+         * Gets the label of the case.
+         * @return the label
+         */
+        public String getLabel() {
+            return mlabel;
+        }
+
+        /**
+         * Gets the value of the discriminator which selects the case.
+         * @return the value
+         */
+        public long getValue() {
+            return mvalue;
+        }
+
+        /**
+         * Gets the size in bytes of the case, from the offset of the variant.
+         * @return the size
+         */
+        public int getSize() {
+            return msize;
+        }
+
+        /**
+         * Gets the variant which contains the case.
+         * @return the variant
+         */
+        public MemStructVariant getVariant() {
+            return MemStructVariant.this;
+        }
+
+        public String toString() {
+            return "case=" + mlabel + ", value=" + mvalue + ", size=" + msize + " bytes";
+        }
+    }
+}
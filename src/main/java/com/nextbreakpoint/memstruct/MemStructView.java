@@ -0,0 +1,1091 @@
+/*
+ * MemStructView.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Flyweight view of a struct stored in a buffer, such as a message of a stream or an entry of a hash table.
+ * <p>
+ * A view reads and writes fields in place, without copying the struct. The same view can be pointed
+ * to another struct, so that decoding a stream of structs doesn't create garbage.
+ * <p>
+ * Accessors follow the same rules of the struct accessors, and typed accessors follow the same
+ * rules of the field handles. Fields can be accessed by label or by handle, where the handle
+ * comes from a struct with the same definition. Labels which are read only, such as
+ * the key of a hash table, can't be modified. Labels of a variant case can be accessed only when
+ * the discriminator selects the case.
+ */
+public final class MemStructView {
+    // the struct which provides the layout
+    private final MemStruct mlayout;
+
+    // the labels which can't be modified
+    private final Set<String> mreadOnly = new HashSet<String>();
+
+    private final int mdataSize;
+
+    private final ByteOrder morder;
+
+    // the buffer and the offset of the struct, or null if the view doesn't point to a struct
+    private ByteBuffer mbuffer;
+    private int moffset;
+
+    // the last buffer with different bytes ordering and its ordered duplicate
+    private ByteBuffer msource;
+    private ByteBuffer mordered;
+
+    // the last array and its wrapper
+    private byte[] marray;
+    private ByteBuffer mwrapped;
+
+    /**
+     * Creates a view which doesn't point to a struct.
+     * @param layout the struct which provides the layout
+     */
+    public MemStructView(MemStruct layout) {
+        this(layout, new String[0]);
+    }
+
+    MemStructView(MemStruct layout, String[] readOnly) {
+        mlayout = layout;
+        mdataSize = layout.sizeOf();
+        morder = layout.getBytesOrdering() == ORDERING_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        for (String label : readOnly) mreadOnly.add(label);
+    }
+
+    /**
+     * Points the view to the struct at the given offset of a buffer.
+     * The bytes ordering of the buffer is not modified.
+     * @param buffer the buffer
+     * @param offset the offset of the struct
+     */
+    public void point(ByteBuffer buffer, int offset) {
+        if (buffer.order() != morder) {
+            if (buffer != msource) {
+                msource = buffer;
+                mordered = buffer.duplicate().order(morder);
+            }
+
+            buffer = mordered;
+        }
+
+        mbuffer = buffer;
+        moffset = offset;
+    }
+
+    /**
+     * Points the view to the struct at the given offset of an array.
+     * @param data the array
+     * @param offset the offset of the struct
+     */
+    public void point(byte[] data, int offset) {
+        if (data != marray) {
+            marray = data;
+            mwrapped = ByteBuffer.wrap(data).order(morder);
+        }
+
+        point(mwrapped, offset);
+    }
+
+    /**
+     * Detaches the view from the struct.
+     */
+    void reset() {
+        mbuffer = null;
+        moffset = 0;
+    }
+
+    /**
+     * Returns true if the view points to a struct.
+     * @return true if the view is valid
+     */
+    public boolean isValid() {
+        return mbuffer != null;
+    }
+
+    /**
+     * Sets the size of the struct padding included.
+     * @return the size of structure in bytes
+     */
+    public int sizeOf() {
+        return mdataSize;
+    }
+
+    /**
+     * Gets the case of a variant selected by the current value of the discriminator.
+     * @param label the label of the variant
+     * @return the case, or null if no case has the value of the discriminator
+     * @throws MemStructException if label not found, label is not a variant or view is not valid
+     */
+    public MemStructVariant.Case getCase(String label) throws MemStructException {
+        MemStructVariant variant = mlayout.getVariant(label);
+
+        return variant.dispatch(get(variant.getDiscriminator(), 0));
+    }
+
+    /**
+     * Gets a value from the struct, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or view is not valid
+     */
+    public long get(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        return get(label, 0);
+    }
+
+    /**
+     * Gets a value from the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, offset is out of bounds or view is not valid
+     */
+    public long get(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int position = position(field, offset);
+
+        switch (field.getSize()) {
+            case 1:
+                return mbuffer.get(position) & 0xFFL;
+
+            case 2:
+                return mbuffer.getShort(position) & 0xFFFFL;
+
+            case 4:
+                return mbuffer.getInt(position) & 0xFFFFFFFFL;
+
+            default:
+                return mbuffer.getLong(position);
+        }
+    }
+
+    /**
+     * Sets a value into the struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, label is read only or view is not valid
+     */
+    public void set(String label, long value) throws MemStructException {
+        set(label, value, 0);
+    }
+
+    /**
+     * Sets a value into the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, label is read only, offset is out of bounds or view is not valid
+     */
+    public void set(String label, long value, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        if (mreadOnly.contains(label)) {
+            throw new MemStructException("read only label " + label);
+        }
+
+        int position = position(field, offset);
+
+        switch (field.getSize()) {
+            case 1:
+                mbuffer.put(position, (byte) value);
+                break;
+
+            case 2:
+                mbuffer.putShort(position, (short) value);
+                break;
+
+            case 4:
+                mbuffer.putInt(position, (int) value);
+                break;
+
+            default:
+                mbuffer.putLong(position, value);
+                break;
+        }
+    }
+
+    /**
+     * Gets a value from the struct as byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public byte getByte(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getByte(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as byte, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public byte getByte(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getByte(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as byte, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public byte getByte(MemStructField field) throws MemStructException {
+        return getByte(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as byte, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public byte getByte(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getByte(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned byte, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public int getUnsignedByte(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getUnsignedByte(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned byte, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public int getUnsignedByte(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getUnsignedByte(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as unsigned byte, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public int getUnsignedByte(MemStructField field) throws MemStructException {
+        return getUnsignedByte(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as unsigned byte, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public int getUnsignedByte(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getUnsignedByte(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public short getShort(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getShort(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as short, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public short getShort(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getShort(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as short, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public short getShort(MemStructField field) throws MemStructException {
+        return getShort(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as short, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public short getShort(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getShort(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned short, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public int getUnsignedShort(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getUnsignedShort(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned short, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public int getUnsignedShort(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getUnsignedShort(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as unsigned short, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public int getUnsignedShort(MemStructField field) throws MemStructException {
+        return getUnsignedShort(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as unsigned short, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public int getUnsignedShort(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getUnsignedShort(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public int getInt(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getInt(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as int, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public int getInt(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getInt(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as int, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public int getInt(MemStructField field) throws MemStructException {
+        return getInt(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as int, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public int getInt(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getInt(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned int, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public long getUnsignedInt(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getUnsignedInt(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as unsigned int, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public long getUnsignedInt(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getUnsignedInt(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as unsigned int, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public long getUnsignedInt(MemStructField field) throws MemStructException {
+        return getUnsignedInt(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as unsigned int, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public long getUnsignedInt(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getUnsignedInt(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as long, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public long getLong(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getLong(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as long, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public long getLong(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getLong(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as long, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public long getLong(MemStructField field) throws MemStructException {
+        return getLong(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as long, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public long getLong(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getLong(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as float, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public float getFloat(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getFloat(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as float, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public float getFloat(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getFloat(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as float, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public float getFloat(MemStructField field) throws MemStructException {
+        return getFloat(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as float, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public float getFloat(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getFloat(mbuffer, moffset, index);
+    }
+
+    /**
+     * Gets a value from the struct as double, given the label.
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or view is not valid
+     */
+    public double getDouble(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        // only get DC data
+        if (field.isSpace()) return 0;
+
+        position(field, 0);
+
+        return field.getDouble(mbuffer, moffset);
+    }
+
+    /**
+     * Gets a value from the struct as double, given the label and the offset relative to the label.
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match, offset is out of bounds or view is not valid
+     */
+    public double getDouble(String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        position(field, offset);
+
+        return field.getDouble(mbuffer, moffset, offset);
+    }
+
+    /**
+     * Gets a field of the struct as double, given the handle.
+     * @param field the handle
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match or view is not valid
+     */
+    public double getDouble(MemStructField field) throws MemStructException {
+        return getDouble(field, 0);
+    }
+
+    /**
+     * Gets an element of a field of the struct as double, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @return the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, index is out of bounds or view is not valid
+     */
+    public double getDouble(MemStructField field, int index) throws MemStructException {
+        field = resolve(field);
+
+        position(field, index);
+
+        return field.getDouble(mbuffer, moffset, index);
+    }
+
+    /**
+     * Sets a field of the struct from a byte, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setByte(MemStructField field, byte value) throws MemStructException {
+        setByte(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from a byte, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setByte(MemStructField field, int index, byte value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setByte(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Sets a field of the struct from a short, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setShort(MemStructField field, short value) throws MemStructException {
+        setShort(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from a short, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setShort(MemStructField field, int index, short value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setShort(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Sets a field of the struct from an int, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setInt(MemStructField field, int value) throws MemStructException {
+        setInt(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from an int, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setInt(MemStructField field, int index, int value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setInt(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Sets a field of the struct from a long, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setLong(MemStructField field, long value) throws MemStructException {
+        setLong(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from a long, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setLong(MemStructField field, int index, long value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setLong(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Sets a float value into the struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match, label is read only or view is not valid
+     */
+    public void setFloat(String label, float value) throws MemStructException {
+        setFloat(mlayout.getField(label), 0, value);
+    }
+
+    /**
+     * Sets a float value into the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, type doesn't match, label is read only, offset is out of bounds or view is not valid
+     */
+    public void setFloat(String label, float value, int offset) throws MemStructException {
+        setFloat(mlayout.getField(label), offset, value);
+    }
+
+    /**
+     * Sets a field of the struct from a float, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setFloat(MemStructField field, float value) throws MemStructException {
+        setFloat(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from a float, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setFloat(MemStructField field, int index, float value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setFloat(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Sets a double value into the struct, given the label.
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match, label is read only or view is not valid
+     */
+    public void setDouble(String label, double value) throws MemStructException {
+        setDouble(mlayout.getField(label), 0, value);
+    }
+
+    /**
+     * Sets a double value into the struct, given the label and the offset relative to the label.
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found, type doesn't match, label is read only, offset is out of bounds or view is not valid
+     */
+    public void setDouble(String label, double value, int offset) throws MemStructException {
+        setDouble(mlayout.getField(label), offset, value);
+    }
+
+    /**
+     * Sets a field of the struct from a double, given the handle.
+     * @param field the handle
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only or view is not valid
+     */
+    public void setDouble(MemStructField field, double value) throws MemStructException {
+        setDouble(field, 0, value);
+    }
+
+    /**
+     * Sets an element of a field of the struct from a double, given the handle.
+     * @param field the handle
+     * @param index the index of the element
+     * @param value the value
+     * @throws MemStructException if handle doesn't belong to the layout, type doesn't match, field is read only, index is out of bounds or view is not valid
+     */
+    public void setDouble(MemStructField field, int index, double value) throws MemStructException {
+        field = resolve(field);
+
+        if (mreadOnly.contains(field.getLabel())) {
+            throw new MemStructException("read only label " + field.getLabel());
+        }
+
+        position(field, index);
+
+        field.setDouble(mbuffer, moffset, index, value);
+    }
+
+    /**
+     * Gets the string at the given label.
+     * @param label the label
+     * @return the string
+     * @throws MemStructException if label not found or view is not valid
+     */
+    public String getString(String label) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        int size = field.getSize() * field.getCount();
+
+        if (size > 0) {
+            int position = position(field, 0);
+
+            byte[] data = new byte[size];
+
+            for (int i = 0; i < size; i++) data[i] = mbuffer.get(position + i);
+
+            return new String(data);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the "C" string at the given label.
+     * @param label the label
+     * @return the C string
+     * @throws MemStructException if label not found or view is not valid
+     */
+    public String getCString(String label) throws MemStructException {
+        String s = getString(label);
+
+        if (s != null) {
+            int idx = s.indexOf('\0');
+
+            if (idx == -1) {
+                return s;
+            } else {
+                return s.substring(0, idx);
+            }
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Sets a string at the given label. The remaining space is cleared.
+     * @param label the label
+     * @param data the string
+     * @return the number of copied bytes
+     * @throws MemStructException if label not found, label is read only or view is not valid
+     */
+    public int setString(String label, String data) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        if (mreadOnly.contains(label)) {
+            throw new MemStructException("read only label " + label);
+        }
+
+        int size = field.getSize() * field.getCount();
+
+        int position = position(field, 0);
+
+        byte[] bytes = data != null ? data.getBytes() : new byte[0];
+
+        int dataSize = Math.min(size, bytes.length);
+
+        for (int i = 0; i < size; i++) mbuffer.put(position + i, i < dataSize ? bytes[i] : 0);
+
+        return dataSize;
+    }
+
+    /**
+     * Copies the struct into another struct.
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout or view is not valid
+     */
+    public void copyTo(MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mdataSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (mbuffer == null) {
+            throw new MemStructException("invalid view");
+        }
+
+        byte[] data = new byte[mdataSize];
+
+        for (int i = 0; i < mdataSize; i++) data[i] = mbuffer.get(moffset + i);
+
+        struct.setBytes(data);
+    }
+
+    private MemStructField resolve(MemStructField field) throws MemStructException {
+        MemStructField own = mlayout.fieldAt(field.getIndex());
+
+        if (own == null || !own.matches(field)) {
+            throw new MemStructException("incompatible field " + field.getLabel());
+        }
+
+        return own;
+    }
+
+    private int position(MemStructField field, int offset) throws MemStructException {
+        if (mbuffer == null) {
+            throw new MemStructException("invalid view");
+        }
+
+        int position = field.getOffset() + offset * field.getSize();
+
+        if (offset < 0 || position + field.getSize() > mdataSize) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        MemStructVariant.Case variantCase = field.getCase();
+
+        if (variantCase != null && getCase(variantCase.getVariant().getLabel()) != variantCase) {
+            throw new MemStructException("inactive label " + field.getLabel());
+        }
+
+        return moffset + position;
+    }
+}
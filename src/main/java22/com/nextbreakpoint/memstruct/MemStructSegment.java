@@ -0,0 +1,491 @@
+/*
+ * MemStructSegment.java
+ *
+ * Copyright (C) 2001-2016 Andrea Medeghini
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This file is part of MemStruct.
+ *
+ * MemStruct is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with MemStruct; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+package com.nextbreakpoint.memstruct;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.*;
+
+/**
+ * Array of structs stored in a memory segment, which can be on heap, off heap or mapped from a file.
+ * <p>
+ * The segment is allocated from an arena, which controls its lifetime. Offsets and indexes are 64 bits,
+ * so an array of structs can be larger than 2 GB. The layout of the struct can be exported as an equivalent
+ * StructLayout, and each field as a VarHandle, so that the same definition drives native calls on the
+ * same memory, without copying.
+ * <p>
+ * Exported layouts have byte alignment 1, because MemStruct places fields according to BytesPadding rather
+ * than to the alignment of the platform. Fields are ValueLayouts with the bytes ordering of the struct,
+ * ds fields are SequenceLayouts, and padding between fields and at the end of the struct is PaddingLayout.
+ * Variants are UnionLayouts of the cases, where each case is a StructLayout named after the case and padded
+ * to the size of the variant. The fields of the cases are accessed with the field handles of the struct,
+ * which check the discriminator, while the exported VarHandles don't check it.
+ * <p>
+ * This class requires Java 22 or later.
+ */
+public final class MemStructSegment implements AutoCloseable {
+    private final MemStruct mlayout;
+    private final StructLayout mmemoryLayout;
+    private final long mrecordSize;
+    private final long mcount;
+    private final ByteOrder morder;
+
+    private final Arena marena;
+    private final MemorySegment msegment;
+
+    private final HashMap<String, VarHandle> mhandles = new HashMap<String, VarHandle>();
+
+    /**
+     * Allocates an array of structs in a confined arena, which is closed by close.
+     * Each struct is initialized with the contents of the given struct.
+     * @param layout the struct which provides the layout and the initial contents
+     * @param count the number of structs
+     * @throws MemStructException if count is not valid
+     */
+    public MemStructSegment(MemStruct layout, long count) throws MemStructException {
+        this(layout, count, Arena.ofConfined(), true);
+    }
+
+    /**
+     * Allocates an array of structs in the given arena, which controls the lifetime of the segment.
+     * Each struct is initialized with the contents of the given struct.
+     * @param layout the struct which provides the layout and the initial contents
+     * @param count the number of structs
+     * @param arena the arena
+     * @throws MemStructException if count is not valid
+     */
+    public MemStructSegment(MemStruct layout, long count, Arena arena) throws MemStructException {
+        this(layout, count, arena, false);
+    }
+
+    /**
+     * Wraps an existing segment, which contains as many structs as it fits.
+     * @param layout the struct which provides the layout
+     * @param segment the segment
+     * @throws MemStructException if struct size is zero
+     */
+    public MemStructSegment(MemStruct layout, MemorySegment segment) throws MemStructException {
+        if (layout.sizeOf() == 0) {
+            throw new MemStructException("invalid struct size");
+        }
+
+        mlayout = layout;
+        mmemoryLayout = toMemoryLayout(layout);
+        mrecordSize = layout.sizeOf();
+        mcount = segment.byteSize() / mrecordSize;
+        morder = byteOrder(layout);
+        marena = null;
+        msegment = segment;
+    }
+
+    private MemStructSegment(MemStruct layout, long count, Arena arena, boolean owned) throws MemStructException {
+        try {
+            if (count < 0 || layout.sizeOf() == 0) {
+                throw new MemStructException("invalid number of structs");
+            }
+
+            mlayout = layout;
+            mmemoryLayout = toMemoryLayout(layout);
+            mrecordSize = layout.sizeOf();
+            mcount = count;
+            morder = byteOrder(layout);
+            marena = owned ? arena : null;
+            msegment = arena.allocate(MemoryLayout.sequenceLayout(count, mmemoryLayout));
+        } catch (Throwable e) {
+            // nobody else can close the arena created for this object
+            if (owned) arena.close();
+
+            throw e;
+        }
+
+        MemorySegment template = MemorySegment.ofArray(layout.data());
+
+        for (long i = 0; i < count; i++) MemorySegment.copy(template, 0, msegment, i * mrecordSize, mrecordSize);
+    }
+
+    /**
+     * Exports the layout of a struct as an equivalent StructLayout, named after the labels.
+     * @param layout the struct which provides the layout
+     * @return the struct layout
+     */
+    public static StructLayout toMemoryLayout(MemStruct layout) {
+        return structLayout(layout, layout.getItems(), 0, layout.sizeOf());
+    }
+
+    /**
+     * Returns the layout of the given fields, which are placed between base and base + size.
+     */
+    private static StructLayout structLayout(MemStruct layout, List<MemStruct.StructItem> items, long base, long size) {
+        ByteOrder order = byteOrder(layout);
+
+        List<MemoryLayout> elements = new ArrayList<MemoryLayout>();
+
+        long offset = base;
+
+        for (MemStruct.StructItem si : items) {
+            if (si.getOffset() > offset) elements.add(MemoryLayout.paddingLayout(si.getOffset() - offset));
+
+            MemoryLayout element;
+
+            if (si.getVariant() != null) {
+                element = unionLayout(layout, si.getVariant());
+            } else {
+                element = valueLayout(si.getTypeSize(), si.isReal(), order);
+
+                if (si.isSpace()) {
+                    element = MemoryLayout.sequenceLayout(si.getTotalSize() / si.getTypeSize(), element);
+                }
+            }
+
+            elements.add(element.withName(si.getLabel()));
+
+            offset = si.getOffset() + si.getTotalSize();
+        }
+
+        if (base + size > offset) elements.add(MemoryLayout.paddingLayout(base + size - offset));
+
+        return MemoryLayout.structLayout(elements.toArray(new MemoryLayout[0]));
+    }
+
+    private static MemoryLayout unionLayout(MemStruct layout, MemStructVariant variant) {
+        List<MemoryLayout> cases = new ArrayList<MemoryLayout>();
+
+        for (MemStructVariant.Case c : variant.getCases()) {
+            cases.add(structLayout(layout, layout.getItems(c), variant.getOffset(), variant.getSize()).withName(c.getLabel()));
+        }
+
+        return MemoryLayout.unionLayout(cases.toArray(new MemoryLayout[0]));
+    }
+
+    /**
+     * Closes the arena, if it has been created by this object.
+     */
+    public void close() {
+        if (marena != null) marena.close();
+    }
+
+    /**
+     * Gets the segment which contains the structs.
+     * @return the segment
+     */
+    public MemorySegment segment() {
+        return msegment;
+    }
+
+    /**
+     * Gets the layout of one struct.
+     * @return the struct layout
+     */
+    public StructLayout getMemoryLayout() {
+        return mmemoryLayout;
+    }
+
+    /**
+     * Gets a VarHandle which accesses the field at the given label. The coordinates of
+     * the handle are the segment and the offset of the struct, followed by the index of
+     * the element for ds fields. The handles of the fields of a variant case don't check the discriminator.
+     * @param label the label
+     * @return the var handle
+     * @throws MemStructException if label not found or label is a variant
+     */
+    public VarHandle varHandle(String label) throws MemStructException {
+        VarHandle handle = mhandles.get(label);
+
+        if (handle == null) {
+            MemStructField field = mlayout.getField(label);
+
+            for (MemStructVariant variant : mlayout.getVariants()) {
+                if (variant.getLabel().equals(label)) {
+                    throw new MemStructException("invalid type for label " + label);
+                }
+            }
+
+            List<MemoryLayout.PathElement> path = new ArrayList<MemoryLayout.PathElement>();
+
+            if (field.getCase() != null) {
+                path.add(MemoryLayout.PathElement.groupElement(field.getCase().getVariant().getLabel()));
+                path.add(MemoryLayout.PathElement.groupElement(field.getCase().getLabel()));
+            }
+
+            path.add(MemoryLayout.PathElement.groupElement(label));
+
+            if (field.isSpace()) path.add(MemoryLayout.PathElement.sequenceElement());
+
+            handle = mmemoryLayout.varHandle(path.toArray(new MemoryLayout.PathElement[0]));
+
+            mhandles.put(label, handle);
+        }
+
+        return handle;
+    }
+
+    /**
+     * Gets the number of structs.
+     * @return the number of structs
+     */
+    public long count() {
+        return mcount;
+    }
+
+    /**
+     * Sets the size of one struct padding included.
+     * @return the size of structure in bytes
+     */
+    public long sizeOf() {
+        return mrecordSize;
+    }
+
+    /**
+     * Gets the offset in bytes of the struct at the given index.
+     * @param index the index of the struct
+     * @return the offset
+     */
+    public long offsetOf(long index) {
+        return index * mrecordSize;
+    }
+
+    /**
+     * Gets the offset in bytes of a given label, within the struct at the given index.
+     * @param label the label
+     * @param index the index of the struct
+     * @return the offset
+     * @throws MemStructException if label not found
+     */
+    public long getOffset(String label, long index) throws MemStructException {
+        return index * mrecordSize + mlayout.getField(label).getOffset();
+    }
+
+    /**
+     * Gets a value from the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found or index is out of bounds
+     */
+    public long get(long index, String label) throws MemStructException {
+        return get(index, label, 0);
+    }
+
+    /**
+     * Gets a value from the struct at the given index, given the label and the offset relative to the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @param offset the offset
+     * @return the value
+     * @throws MemStructException if label not found or index is out of bounds
+     */
+    public long get(long index, String label, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        long position = position(index, field, offset);
+
+        try {
+            switch (field.getSize()) {
+                case 1:
+                    return msegment.get(ValueLayout.JAVA_BYTE, position) & 0xFFL;
+
+                case 2:
+                    return msegment.get(ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(morder), position) & 0xFFFFL;
+
+                case 4:
+                    return msegment.get(ValueLayout.JAVA_INT_UNALIGNED.withOrder(morder), position) & 0xFFFFFFFFL;
+
+                default:
+                    return msegment.get(ValueLayout.JAVA_LONG_UNALIGNED.withOrder(morder), position);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    /**
+     * Sets a value into the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found or index is out of bounds
+     */
+    public void set(long index, String label, long value) throws MemStructException {
+        set(index, label, value, 0);
+    }
+
+    /**
+     * Sets a value into the struct at the given index, given the label and the offset relative to the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @param value the value
+     * @param offset the offset
+     * @throws MemStructException if label not found or index is out of bounds
+     */
+    public void set(long index, String label, long value, int offset) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        long position = position(index, field, offset);
+
+        try {
+            switch (field.getSize()) {
+                case 1:
+                    msegment.set(ValueLayout.JAVA_BYTE, position, (byte) value);
+                    break;
+
+                case 2:
+                    msegment.set(ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(morder), position, (short) value);
+                    break;
+
+                case 4:
+                    msegment.set(ValueLayout.JAVA_INT_UNALIGNED.withOrder(morder), position, (int) value);
+                    break;
+
+                default:
+                    msegment.set(ValueLayout.JAVA_LONG_UNALIGNED.withOrder(morder), position, value);
+                    break;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    /**
+     * Gets a float value from the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public float getFloat(long index, String label) throws MemStructException {
+        return Float.intBitsToFloat((int) get(index, checkReal(label, 4), 0));
+    }
+
+    /**
+     * Sets a float value into the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setFloat(long index, String label, float value) throws MemStructException {
+        set(index, checkReal(label, 4), Float.floatToRawIntBits(value), 0);
+    }
+
+    /**
+     * Gets a double value from the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @return the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public double getDouble(long index, String label) throws MemStructException {
+        return Double.longBitsToDouble(get(index, checkReal(label, 8), 0));
+    }
+
+    /**
+     * Sets a double value into the struct at the given index, given the label.
+     * @param index the index of the struct
+     * @param label the label
+     * @param value the value
+     * @throws MemStructException if label not found, type doesn't match or index is out of bounds
+     */
+    public void setDouble(long index, String label, double value) throws MemStructException {
+        set(index, checkReal(label, 8), Double.doubleToRawLongBits(value), 0);
+    }
+
+    /**
+     * Copies a struct into the struct at the given index.
+     * @param index the index of the struct
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout or index is out of bounds
+     */
+    public void copyFrom(long index, MemStruct struct) throws MemStructException {
+        checkRecord(index, struct);
+
+        MemorySegment.copy(MemorySegment.ofArray(struct.data()), 0, msegment, index * mrecordSize, mrecordSize);
+    }
+
+    /**
+     * Copies the struct at the given index into a struct.
+     * @param index the index of the struct
+     * @param struct the struct
+     * @throws MemStructException if struct size doesn't match the layout or index is out of bounds
+     */
+    public void copyTo(long index, MemStruct struct) throws MemStructException {
+        checkRecord(index, struct);
+
+        MemorySegment.copy(msegment, index * mrecordSize, MemorySegment.ofArray(struct.storage()), 0, mrecordSize);
+    }
+
+    private void checkRecord(long index, MemStruct struct) throws MemStructException {
+        if (struct.sizeOf() != mrecordSize) {
+            throw new MemStructException("incompatible layout");
+        }
+
+        if (index < 0 || index >= mcount) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+    }
+
+    private String checkReal(String label, int size) throws MemStructException {
+        MemStructField field = mlayout.getField(label);
+
+        if (!field.isReal() || field.getSize() != size) {
+            throw new MemStructException("invalid type for label " + label);
+        }
+
+        return label;
+    }
+
+    private long position(long index, MemStructField field, int offset) throws MemStructException {
+        if (index < 0 || index >= mcount || offset < 0 || field.getOffset() + (long) (offset + 1) * field.getSize() > mrecordSize) {
+            throw new MemStructException("memory offset out of bounds");
+        }
+
+        return index * mrecordSize + field.getOffset() + (long) offset * field.getSize();
+    }
+
+    private static ByteOrder byteOrder(MemStruct layout) {
+        return layout.getBytesOrdering() == ORDERING_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    private static MemoryLayout valueLayout(int size, boolean real, ByteOrder order) {
+        switch (size) {
+            case 1:
+                return ValueLayout.JAVA_BYTE;
+
+            case 2:
+                return ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(order);
+
+            case 4:
+                return real ? ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(order) : ValueLayout.JAVA_INT_UNALIGNED.withOrder(order);
+
+            default:
+                return real ? ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(order) : ValueLayout.JAVA_LONG_UNALIGNED.withOrder(order);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MemStructColumnsTest {
+    private static final String TRADE = "flags dc.b 0\nid dc.l 0\nqty dc.i 0\nside dc.w 0\nprice dc.d 0\nrate dc.f 0\nname ds.b 8\nlevels ds.i 3";
+
+    private static final String MESSAGE = "type dc.b 0\nbody variant type\n"
+            + "login case 1\nuser ds.b 6\ntoken dc.w 0\n"
+            + "quote case 2\nprice dc.d 0\nqty dc.i 0\nbody end variant\nchecksum dc.i 0";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private static MemStruct trade(int i) throws MemStructException {
+        MemStruct ms = new MemStruct(TRADE, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+        ms.set("flags", 0x80 | i);
+        ms.set("id", 1000 + i);
+        ms.set("qty", -i);
+        ms.set("side", i % 2);
+        ms.setDouble("price", i * 0.25);
+        ms.setFloat("rate", i * 0.5f);
+        ms.setString("name", "t" + i);
+        for (int k = 0; k < 3; k++) ms.set("levels", i * 10 + k, k);
+        return ms;
+    }
+
+    @Test
+    public void shouldStoreEachFieldInPrimitiveColumn() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        for (int i = 0; i < 10; i++) columns.add(trade(i));
+        assertThat(columns.size(), is(equalTo(10)));
+        assertThat(columns.getLongColumn(layout.getField("id"))[7], is(equalTo(1007L)));
+        assertThat(columns.getIntColumn(layout.getField("qty"))[3], is(equalTo(-3)));
+        assertThat(columns.getShortColumn(layout.getField("side"))[5], is(equalTo((short) 1)));
+        assertThat(columns.getDoubleColumn(layout.getField("price"))[8], is(equalTo(2.0)));
+        assertThat(columns.getFloatColumn(layout.getField("rate"))[2], is(equalTo(1.0f)));
+        assertThat(columns.getIntColumn(layout.getField("levels"))[4 * 3 + 2], is(equalTo(42)));
+    }
+
+    @Test
+    public void shouldScanSingleColumn() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 0);
+        for (int i = 0; i < 100; i++) columns.add(trade(i));
+        double[] prices = columns.getDoubleColumn(layout.getField("price"));
+        double sum = 0;
+        for (int i = 0; i < columns.size(); i++) sum += prices[i];
+        assertThat(sum, is(equalTo(0.25 * 99 * 100 / 2)));
+    }
+
+    @Test
+    public void shouldAccessFieldsWithHandles() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 16);
+        for (int i = 0; i < 5; i++) columns.add(trade(i));
+        MemStructField flags = layout.getField("flags");
+        MemStructField qty = layout.getField("qty");
+        MemStructField rate = layout.getField("rate");
+        MemStructField levels = layout.getField("levels");
+        assertThat(columns.getByte(flags, 3), is(equalTo((byte) 0x83)));
+        assertThat(columns.getUnsignedByte(flags, 3), is(equalTo(0x83)));
+        assertThat(columns.getInt(qty, 4), is(equalTo(-4)));
+        assertThat(columns.getUnsignedInt(qty, 4), is(equalTo(0xFFFFFFFCL)));
+        assertThat(columns.getInt(levels, 2, 1), is(equalTo(21)));
+        columns.setFloat(rate, 1, 7.5f);
+        columns.setInt(levels, 1, 2, 99);
+        assertThat(columns.getFloat(rate, 1), is(equalTo(7.5f)));
+        assertThat(columns.getLong(levels, 1, 2), is(equalTo(99L)));
+    }
+
+    @Test
+    public void shouldTransposeRowsAndColumns() throws MemStructException {
+        MemStruct layout = trade(0);
+        int size = layout.sizeOf();
+        byte[] rows = new byte[size * 20];
+        for (int i = 0; i < 20; i++) System.arraycopy(trade(i).getBytes(), 0, rows, i * size, size);
+        MemStructColumns columns = new MemStructColumns(layout, 8);
+        columns.addRows(rows, 0, 20);
+        byte[] copy = new byte[size * 20];
+        columns.getRows(0, 20, copy, 0);
+        MemStruct record = trade(0);
+        for (int i = 0; i < 20; i++) {
+            System.arraycopy(copy, i * size, record.getBytes(), 0, size);
+            assertThat(record.get("id"), is(equalTo(1000L + i)));
+            assertThat(record.getDouble("price"), is(equalTo(i * 0.25)));
+            assertThat(record.getCString("name"), is(equalTo("t" + i)));
+            assertThat(record.get("levels", 2), is(equalTo(i * 10L + 2)));
+        }
+    }
+
+    @Test
+    public void shouldGetAndSetRows() throws MemStructException {
+        MemStruct layout = new MemStruct("a dc.w 0\nb dc.d 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructColumns columns = new MemStructColumns(layout, 2);
+        layout.set("a", 1);
+        columns.add(layout);
+        columns.add(layout);
+        layout.set("a", 2);
+        layout.setDouble("b", 0.5);
+        columns.setRow(1, layout);
+        MemStruct record = new MemStruct("a dc.w 0\nb dc.d 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        columns.getRow(1, record);
+        assertThat(record.get("a"), is(equalTo(2L)));
+        assertThat(record.getDouble("b"), is(equalTo(0.5)));
+        columns.getRow(0, record);
+        assertThat(record.get("a"), is(equalTo(1L)));
+    }
+
+    @Test
+    public void shouldThrowWhenColumnTypeDoesNotMatch() throws MemStructException {
+        MemStruct layout = trade(0);
+        exception.expect(MemStructException.class);
+        new MemStructColumns(layout, 1).getLongColumn(layout.getField("price"));
+    }
+
+    @Test
+    public void shouldThrowWhenRealFieldIsAccessedAsInteger() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(layout);
+        exception.expect(MemStructException.class);
+        exception.expectMessage("invalid type for label price");
+        columns.getLong(layout.getField("price"), 0);
+    }
+
+    @Test
+    public void shouldThrowWhenIntegerFieldIsSetAsReal() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(layout);
+        exception.expect(MemStructException.class);
+        columns.setFloat(layout.getField("qty"), 0, 1f);
+    }
+
+    @Test
+    public void shouldAccessFieldsOfActiveCase() throws MemStructException {
+        MemStruct layout = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        layout.set("type", 2);
+        layout.setDouble("price", 2.5);
+        layout.set("qty", -7);
+        columns.add(layout);
+        layout.set("type", 1);
+        layout.set("token", 0xFFFE);
+        columns.add(layout);
+        assertThat(columns.getDouble(layout.getField("price"), 0), is(equalTo(2.5)));
+        assertThat(columns.getInt(layout.getField("qty"), 0), is(equalTo(-7)));
+        assertThat(columns.getShort(layout.getField("token"), 1), is(equalTo((short) -2)));
+        assertThat(columns.getUnsignedShort(layout.getField("token"), 1), is(equalTo(0xFFFE)));
+        columns.setInt(layout.getField("qty"), 0, 42);
+        columns.setByte(layout.getField("user"), 1, 5, (byte) 'x');
+        MemStruct record = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        columns.getRow(0, record);
+        assertThat(record.get("qty"), is(equalTo(42L)));
+        columns.getRow(1, record);
+        assertThat(record.get("user", 5), is(equalTo((long) 'x')));
+    }
+
+    @Test
+    public void shouldThrowWhenCaseIsInactive() throws MemStructException {
+        MemStruct layout = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        layout.set("type", 2);
+        columns.add(layout);
+        columns.setByte(layout.getField("type"), 0, (byte) 1);
+        exception.expect(MemStructException.class);
+        exception.expectMessage("inactive label price");
+        columns.getDouble(layout.getField("price"), 0);
+    }
+
+    @Test
+    public void shouldKeepSnapshotWhenCollectionIsModified() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 16);
+        for (int i = 0; i < 3; i++) columns.add(trade(i));
+        MemStructColumns.Snapshot snapshot = columns.snapshot();
+        columns.setLong(layout.getField("id"), 1, 7);
+        columns.setDouble(layout.getField("price"), 2, 9.5);
+        columns.setRow(0, trade(5));
+        columns.add(trade(3));
+        assertThat(columns.getLong(layout.getField("id"), 1), is(equalTo(7L)));
+        assertThat(snapshot.size(), is(equalTo(3)));
+        assertThat(snapshot.getLong(layout.getField("id"), 1), is(equalTo(1001L)));
+        assertThat(snapshot.getDouble(layout.getField("price"), 2), is(equalTo(0.5)));
+        assertThat(snapshot.getInt(layout.getField("levels"), 0, 2), is(equalTo(2)));
+        MemStruct record = trade(0);
+        snapshot.getRow(2, record);
+        assertThat(record.getBytes(), is(equalTo(trade(2).getBytes())));
+    }
+
+    @Test
+    public void shouldCopyOnlyModifiedChunksOfColumn() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 10000);
+        for (int i = 0; i < 10000; i++) columns.add(trade(i));
+        MemStructColumns.Snapshot snapshot = columns.snapshot();
+        assertThat(snapshot.getCopiedSize(), is(equalTo(0L)));
+        columns.setLong(layout.getField("id"), 5000, 7);
+        columns.setLong(layout.getField("id"), 5001, 8);
+        assertThat(snapshot.getCopiedSize(), is(equalTo(4096L)));
+        assertThat(snapshot.getLong(layout.getField("id"), 5000), is(equalTo(6000L)));
+        assertThat(snapshot.getLong(layout.getField("id"), 9999), is(equalTo(10999L)));
+    }
+
+    @Test
+    public void shouldReuseSnapshotWhenCollectionIsNotModified() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(trade(1));
+        MemStructColumns.Snapshot snapshot = columns.snapshot();
+        assertThat(columns.snapshot(), is(sameInstance(snapshot)));
+        columns.setInt(layout.getField("qty"), 0, 3);
+        assertThat(columns.snapshot(), is(not(sameInstance(snapshot))));
+    }
+
+    @Test
+    public void shouldKeepOldColumnsWhenCollectionGrows() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 2);
+        columns.add(trade(0));
+        columns.add(trade(1));
+        MemStructColumns.Snapshot snapshot = columns.snapshot();
+        columns.add(trade(2));
+        columns.setLong(layout.getField("id"), 0, 7);
+        assertThat(snapshot.getCopiedSize(), is(equalTo(0L)));
+        assertThat(snapshot.getLong(layout.getField("id"), 0), is(equalTo(1000L)));
+    }
+
+    @Test
+    public void shouldCopyExposedColumnWhenSnapshotIsTaken() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(trade(1));
+        MemStructColumns.Snapshot before = columns.snapshot();
+        long[] ids = columns.getLongColumn(layout.getField("id"));
+        MemStructColumns.Snapshot after = columns.snapshot();
+        ids[0] = 7;
+        assertThat(before.getLong(layout.getField("id"), 0), is(equalTo(1001L)));
+        assertThat(after.getLong(layout.getField("id"), 0), is(equalTo(1001L)));
+        assertThat(after.getCopiedSize(), is(equalTo(8L)));
+    }
+
+    @Test
+    public void shouldKeepCaseFieldsInSnapshot() throws MemStructException {
+        MemStruct layout = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        layout.set("type", 2);
+        layout.setDouble("price", 2.5);
+        columns.add(layout);
+        MemStructColumns.Snapshot snapshot = columns.snapshot();
+        columns.setDouble(layout.getField("price"), 0, 4.5);
+        columns.setByte(layout.getField("type"), 0, (byte) 1);
+        assertThat(snapshot.getDouble(layout.getField("price"), 0), is(equalTo(2.5)));
+        exception.expect(MemStructException.class);
+        exception.expectMessage("inactive label token");
+        snapshot.getShort(layout.getField("token"), 0);
+    }
+
+    @Test
+    public void shouldAcceptHandlesOfLayoutWithSameDefinition() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(trade(3));
+        assertThat(columns.getLong(trade(1).getField("id"), 0), is(equalTo(1003L)));
+    }
+
+    @Test
+    public void shouldThrowWhenHandleBelongsToOtherLayout() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(layout);
+        MemStruct other = new MemStruct("id dc.l 0\nflags dc.b 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+        exception.expect(MemStructException.class);
+        exception.expectMessage("incompatible field id");
+        columns.getLong(other.getField("id"), 0);
+    }
+
+    @Test
+    public void shouldThrowWhenRowsOverflowArray() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        exception.expect(MemStructException.class);
+        exception.expectMessage("memory offset out of bounds");
+        columns.addRows(new byte[layout.sizeOf()], 0, Integer.MAX_VALUE / layout.sizeOf() * 2 + 2);
+    }
+
+    @Test
+    public void shouldThrowWhenRowIsOutOfBounds() throws MemStructException {
+        MemStruct layout = trade(0);
+        MemStructColumns columns = new MemStructColumns(layout, 4);
+        columns.add(layout);
+        exception.expect(MemStructException.class);
+        columns.getLong(layout.getField("id"), 1);
+    }
+}
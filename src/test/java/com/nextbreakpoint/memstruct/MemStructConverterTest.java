@@ -0,0 +1,125 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_INT;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_32BIT;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructConverterTest {
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void shouldMergeAdjacentFieldsIntoSingleCopy() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.b 1\nb dc.w 2\nc dc.l 3", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.b 0\nb dc.w 0\nc dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(new MemStructConverter(source, target).getStepCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void shouldConvertReorderedAndAddedFields() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.b 1\nb dc.w 2\nname ds.b 4", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("name ds.b 4\nc dc.i 77\nb dc.w 0\na dc.b 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_INT);
+        source.setString("name", "ABCD");
+        new MemStructConverter(source, target).convert(source, target);
+        assertThat(target.get("a"), is(equalTo(1L)));
+        assertThat(target.get("b"), is(equalTo(2L)));
+        assertThat(target.get("c"), is(equalTo(77L)));
+        assertThat(target.getString("name"), is(equalTo("ABCD")));
+    }
+
+    @Test
+    public void shouldWidenNarrowAndSwapFields() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.w 40000\nb dc.l 0\nc dc.s 1000\nd ds.w 3", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.i 0\nb dc.l 0\nc dc.s 0\nd ds.l 2", LONG_SIZE_32BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        source.set("b", 0x123456789AL);
+        for (int i = 0; i < 3; i++) source.set("d", 100 + i, i);
+        new MemStructConverter(source, target, false).convert(source, target);
+        assertThat(target.sizeOf(), is(equalTo(16)));
+        assertThat(target.get("a"), is(equalTo(40000L)));
+        assertThat(target.get("b"), is(equalTo(0x3456789AL)));
+        assertThat(target.get("c"), is(equalTo(1000L)));
+        assertThat(target.get("d", 0), is(equalTo(100L)));
+        assertThat(target.get("d", 1), is(equalTo(101L)));
+    }
+
+    @Test
+    public void shouldConvertArrayOfStructs() throws MemStructException {
+        MemStruct source = new MemStruct("id dc.l 0\nflags dc.b 0", LONG_SIZE_32BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("version dc.b 2\nid dc.l 0\nflags dc.w 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        byte[] src = new byte[source.sizeOf() * 4];
+        for (int r = 0; r < 4; r++) {
+            source.set("id", 1000 + r);
+            source.set("flags", r);
+            System.arraycopy(source.getBytes(), 0, src, r * source.sizeOf(), source.sizeOf());
+        }
+        byte[] dst = new byte[target.sizeOf() * 4];
+        new MemStructConverter(source, target).convert(src, 0, dst, 0, 4);
+        for (int r = 0; r < 4; r++) {
+            byte[] record = new byte[target.sizeOf()];
+            System.arraycopy(dst, r * target.sizeOf(), record, 0, record.length);
+            target.setBytes(record);
+            assertThat(target.get("version"), is(equalTo(2L)));
+            assertThat(target.get("id"), is(equalTo(1000L + r)));
+            assertThat(target.get("flags"), is(equalTo((long) r)));
+        }
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenLayoutIsIncompatible() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.b 1", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.w 1", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructConverter converter = new MemStructConverter(source, target);
+        exception.expect(MemStructException.class);
+        converter.convert(target, target);
+    }
+
+    @Test
+    public void shouldConvertFloatingPointFieldsByValue() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.f 1.5\nb dc.i 42\nc dc.d 2.5", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.d 0\nb dc.d 0\nc dc.i 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        new MemStructConverter(source, target).convert(source, target);
+        assertThat(target.getDouble("a"), is(equalTo(1.5)));
+        assertThat(target.getDouble("b"), is(equalTo(42.0)));
+        assertThat(target.getInt("c"), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldSignExtendWhenWidening() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.w 0\nb dc.b 0\nc dc.i 0\nd ds.w 2", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.i 0\nb dc.l 0\nc dc.d 0\nd ds.i 2", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        source.set("a", -1);
+        source.set("b", -2);
+        source.set("c", -3);
+        source.set("d", -4, 1);
+        MemStructConverter converter = new MemStructConverter(source, target);
+        assertThat(converter.isSigned(), is(equalTo(true)));
+        converter.convert(source, target);
+        assertThat(target.getInt("a"), is(equalTo(-1)));
+        assertThat(target.getLong("b"), is(equalTo(-2L)));
+        assertThat(target.getDouble("c"), is(equalTo(-3.0)));
+        assertThat(target.getInt("d", 1), is(equalTo(-4)));
+    }
+
+    @Test
+    public void shouldZeroExtendWhenUnsigned() throws MemStructException {
+        MemStruct source = new MemStruct("a dc.w 0\nc dc.i 0\ne dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("a dc.i 0\nc dc.d 0\ne dc.d 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        source.set("a", -1);
+        source.set("c", -3);
+        source.set("e", -1);
+        new MemStructConverter(source, target, false).convert(source, target);
+        assertThat(target.get("a"), is(equalTo(65535L)));
+        assertThat(target.getDouble("c"), is(equalTo(4294967293.0)));
+        assertThat(target.getDouble("e"), is(equalTo(18446744073709551615.0)));
+    }
+}
@@ -0,0 +1,285 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructHashTableTest {
+    private static final String LAYOUT = "id dc.l 0\nprice dc.d 0\nqty dc.i 0\nname ds.b 8";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private static MemStruct record(long id, double price, int qty) throws MemStructException {
+        MemStruct ms = new MemStruct(LAYOUT, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        ms.set("id", id);
+        ms.setDouble("price", price);
+        ms.set("qty", qty);
+        ms.setString("name", "r" + id);
+        return ms;
+    }
+
+    @Test
+    public void shouldPutAndGetRecords() throws MemStructException, IOException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        assertThat(table.put(record(1, 1.5, 10)), is(equalTo(true)));
+        assertThat(table.put(record(2, 2.5, 20)), is(equalTo(true)));
+        MemStruct result = record(2, 0, 0);
+        assertThat(table.get(result, result), is(equalTo(true)));
+        assertThat(result.getDouble("price"), is(equalTo(2.5)));
+        assertThat(result.get("qty"), is(equalTo(20L)));
+        assertThat(table.get(record(3, 0, 0), result), is(equalTo(false)));
+        assertThat(table.size(), is(equalTo(2L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldReplaceRecordWithSameKey() throws MemStructException, IOException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        table.put(record(1, 1.5, 10));
+        assertThat(table.put(record(1, 3.5, 30)), is(equalTo(false)));
+        MemStructView view = table.view();
+        assertThat(table.find(1, view), is(equalTo(true)));
+        assertThat(view.getDouble("price"), is(equalTo(3.5)));
+        assertThat(table.size(), is(equalTo(1L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldModifyRecordsInPlaceThroughView() throws MemStructException, IOException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        table.put(record(7, 1.5, 10));
+        MemStructView view = table.view();
+        table.find(7, view);
+        view.set("qty", 11);
+        view.setString("name", "seven");
+        table.find(7, view);
+        assertThat(view.get("qty"), is(equalTo(11L)));
+        assertThat(view.getCString("name"), is(equalTo("seven")));
+        table.close();
+    }
+
+    @Test
+    public void shouldNotModifyKeyThroughView() throws MemStructException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        table.put(record(7, 1.5, 10));
+        MemStructView view = table.view();
+        table.find(7, view);
+        exception.expect(MemStructException.class);
+        view.set("id", 8);
+    }
+
+    @Test
+    public void shouldRemoveRecords() throws MemStructException, IOException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        for (int i = 0; i < 10; i++) table.put(record(i, i, i));
+        assertThat(table.remove(3), is(equalTo(true)));
+        assertThat(table.remove(record(4, 0, 0)), is(equalTo(true)));
+        assertThat(table.remove(3), is(equalTo(false)));
+        MemStructView view = table.view();
+        assertThat(table.find(3, view), is(equalTo(false)));
+        assertThat(view.isValid(), is(equalTo(false)));
+        assertThat(table.find(9, view), is(equalTo(true)));
+        assertThat(table.size(), is(equalTo(8L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldResizeIncrementally() throws MemStructException, IOException {
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16);
+        boolean resizing = false;
+        for (int i = 0; i < 10000; i++) {
+            table.put(record(i, i * 0.5, i));
+            resizing |= table.isResizing();
+            if (i % 3 == 0) table.remove(i / 2);
+        }
+        assertThat(resizing, is(equalTo(true)));
+        MemStructView view = table.view();
+        long count = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (table.find(i, view)) {
+                assertThat(view.getDouble("price"), is(equalTo(i * 0.5)));
+                count++;
+            }
+        }
+        assertThat(count, is(equalTo(table.size())));
+        assertThat(table.find(9999, view), is(equalTo(true)));
+        table.close();
+    }
+
+    @Test
+    public void shouldUseCompositeKey() throws MemStructException, IOException {
+        MemStruct layout = new MemStruct("a dc.i 0\nb dc.w 0\nvalue dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructHashTable table = new MemStructHashTable(layout, new String[] { "a", "b" }, 16);
+        for (int a = 0; a < 10; a++) {
+            for (int b = 0; b < 10; b++) {
+                layout.set("a", a);
+                layout.set("b", b);
+                layout.set("value", a * 100 + b);
+                table.put(layout);
+            }
+        }
+        layout.set("a", 4);
+        layout.set("b", 7);
+        layout.set("value", 0);
+        assertThat(table.get(layout, layout), is(equalTo(true)));
+        assertThat(layout.get("value"), is(equalTo(407L)));
+        assertThat(table.size(), is(equalTo(100L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldPersistRecordsInFile() throws MemStructException, IOException {
+        File file = File.createTempFile("memstruct", ".tab");
+        file.delete();
+        file.deleteOnExit();
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file);
+        for (int i = 0; i < 1000; i++) table.put(record(i, i, i));
+        table.close();
+        assertThat(new File(file.getPath() + ".resize").exists(), is(equalTo(false)));
+        table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file);
+        assertThat(table.size(), is(equalTo(1000L)));
+        MemStructView view = table.view();
+        assertThat(table.find(500, view), is(equalTo(true)));
+        assertThat(view.get("qty"), is(equalTo(500L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldResumeResizeWhenFileIsOpened() throws MemStructException, IOException {
+        File file = File.createTempFile("memstruct", ".tab");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".resize").deleteOnExit();
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 1024, file);
+        int i = 0;
+        while (!table.isResizing()) table.put(record(i, i, i++));
+        for (int k = 0; k < 3; k++) table.put(record(i, i, i++));
+        table.flush();
+        // don't close, as if the process terminated
+        table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file);
+        assertThat(table.isResizing(), is(equalTo(true)));
+        assertThat(table.size(), is(equalTo((long) i)));
+        MemStructView view = table.view();
+        for (int k = 0; k < i; k++) assertThat(table.find(k, view), is(equalTo(true)));
+        table.close();
+    }
+
+    @Test
+    public void shouldRemoveCopiesLeftByInterruptedMigration() throws MemStructException, IOException {
+        File file = File.createTempFile("memstruct", ".tab");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".resize").deleteOnExit();
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 1024, file);
+        int i = 0;
+        while (!table.isResizing()) table.put(record(i, i, i++));
+        table.flush();
+        byte[] old = Files.readAllBytes(file.toPath());
+        table.put(record(i, i, i++));
+        table.flush();
+        // the entries have been copied, but the old table has lost the slots which were removed
+        Files.write(file.toPath(), old);
+        table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file);
+        assertThat(table.size(), is(equalTo((long) i)));
+        MemStructView view = table.view();
+        for (int k = 0; k < i; k++) {
+            assertThat(table.remove(k), is(equalTo(true)));
+            assertThat(table.find(k, view), is(equalTo(false)));
+        }
+        assertThat(table.size(), is(equalTo(0L)));
+        table.close();
+    }
+
+    @Test
+    public void shouldRecoverEntriesWhenProcessIsKilledDuringMigration() throws Exception {
+        File file = File.createTempFile("memstruct", ".tab");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".resize").deleteOnExit();
+        Process child = startChild(file);
+        long last = -1;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            OutputStream writer = child.getOutputStream();
+            int resizing = 0;
+            while (resizing < 5) {
+                writer.write(1);
+                writer.flush();
+                String line = reader.readLine();
+                assertThat(line != null, is(equalTo(true)));
+                last = Long.parseLong(line.split(" ")[0]);
+                if (line.endsWith("R")) resizing++;
+            }
+            // the child is killed while it executes the next operation
+            writer.write(1);
+            writer.flush();
+            child.destroyForcibly();
+            assertThat(child.waitFor(30, TimeUnit.SECONDS), is(equalTo(true)));
+        } finally {
+            child.destroyForcibly();
+        }
+        MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file);
+        MemStructView view = table.view();
+        long count = 0;
+        for (long k = 0; k <= last + 1; k++) {
+            boolean found = table.find(k, view);
+            if (found) {
+                assertThat(view.get("qty"), is(equalTo(k)));
+                count++;
+            }
+            long removal = k * 2 % 3 == 0 ? k * 2 : k * 2 + 1;
+            boolean removed = removal % 3 == 0 && removal <= last;
+            boolean unknown = k == last + 1 || (removal % 3 == 0 && removal == last + 1);
+            if (!unknown) assertThat(found, is(equalTo(!removed)));
+        }
+        assertThat(table.size(), is(equalTo(count)));
+        table.close();
+    }
+
+    @Test
+    public void shouldThrowWhenFileContainsDifferentLayout() throws MemStructException, IOException {
+        File file = File.createTempFile("memstruct", ".tab");
+        file.delete();
+        file.deleteOnExit();
+        new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 16, file).close();
+        exception.expect(MemStructException.class);
+        new MemStructHashTable(record(0, 0, 0), new String[] { "qty" }, 16, file);
+    }
+
+    private Process startChild(File file) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Child.class.getName(), file.getAbsolutePath());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    public static class Child {
+        public static void main(String[] args) throws Exception {
+            MemStructHashTable table = new MemStructHashTable(record(0, 0, 0), new String[] { "id" }, 1024, new File(args[0]));
+            // executes one operation for each byte received
+            for (long i = 0; System.in.read() != -1; i++) {
+                table.put(record(i, i, (int) i));
+                if (i % 3 == 0) table.remove(i / 2);
+                System.out.println(i + (table.isResizing() ? " R" : ""));
+                System.out.flush();
+            }
+        }
+    }
+}
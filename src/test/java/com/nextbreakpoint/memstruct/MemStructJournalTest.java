@@ -0,0 +1,342 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MemStructJournalTest {
+    private static final String DEFINITION = "value dc.l 0\ncheck dc.l 0\nprice dc.d 0\nrate dc.f 0\nflags dc.b 0\nname ds.b 8";
+
+    private static final int RECORDS = 8;
+
+    private static final int ACKNOWLEDGED = 200;
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private File records;
+    private File journal;
+
+    @Before
+    public void createFiles() throws IOException {
+        records = File.createTempFile("memstruct", ".dat");
+        journal = File.createTempFile("memstruct", ".log");
+        records.delete();
+        journal.delete();
+    }
+
+    @After
+    public void deleteFiles() {
+        records.delete();
+        journal.delete();
+    }
+
+    @Test
+    public void shouldApplyUpdatesWhenCommitted() throws Exception {
+        MemStruct layout = layout();
+        layout.set("check", 5);
+        MemStructJournal store = new MemStructJournal(records, journal, layout, RECORDS);
+        store.set(3, "value", 42);
+        store.setDouble(3, "price", 1.5);
+        store.setFloat(2, "rate", 0.5f);
+        store.setString(2, "name", "acme");
+        assertThat(store.get(3, "value"), is(equalTo(0L)));
+        assertThat(store.commit(), is(equalTo(4L)));
+        assertThat(store.get(3, "value"), is(equalTo(42L)));
+        assertThat(store.get(3, "check"), is(equalTo(5L)));
+        assertThat(store.getDouble(3, "price"), is(equalTo(1.5)));
+        assertThat(store.getFloat(2, "rate"), is(equalTo(0.5f)));
+        MemStruct copy = layout();
+        store.copyTo(2, copy);
+        assertThat(copy.getCString("name"), is(equalTo("acme")));
+        assertThat(store.journalSize() > MemStructJournal.JOURNAL_HEADER_SIZE, is(equalTo(true)));
+        store.close();
+        assertThat(journal.length(), is(equalTo((long) MemStructJournal.JOURNAL_HEADER_SIZE)));
+        store = new MemStructJournal(records, journal, layout(), 0);
+        assertThat(store.count(), is(equalTo(RECORDS)));
+        assertThat(store.get(3, "value"), is(equalTo(42L)));
+        store.close();
+    }
+
+    @Test
+    public void shouldReplayJournalWhenRecordsAreLost() throws Exception {
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        MemStruct record = layout();
+        record.set("value", 7);
+        record.set("flags", 0x81);
+        store.copyFrom(1, record);
+        store.commit();
+        store.set(4, "value", 9);
+        store.commit();
+        // simulates the loss of the pages of the records which have not been written to disk
+        RandomAccessFile file = new RandomAccessFile(records, "rw");
+        file.seek(MemStructJournal.HEADER_SIZE);
+        file.write(new byte[layout().sizeOf() * RECORDS]);
+        file.close();
+        store = new MemStructJournal(records, journal, layout(), RECORDS);
+        assertThat(store.get(1, "value"), is(equalTo(7L)));
+        assertThat(store.get(1, "flags"), is(equalTo(0x81L)));
+        assertThat(store.get(4, "value"), is(equalTo(9L)));
+        store.close();
+    }
+
+    @Test
+    public void shouldDiscardIncompleteBatch() throws Exception {
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        store.set(0, "value", 1);
+        store.commit();
+        long size = journal.length();
+        store.set(0, "value", 2);
+        store.commit();
+        // simulates a batch which has been partially written
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        file = new RandomAccessFile(records, "rw");
+        file.seek(MemStructJournal.HEADER_SIZE);
+        file.write(new byte[8]);
+        file.close();
+        assertTrue(journal.length() > size);
+        store = new MemStructJournal(records, journal, layout(), RECORDS);
+        assertThat(store.get(0, "value"), is(equalTo(1L)));
+        store.close();
+    }
+
+    @Test
+    public void shouldCommitUpdatesOfConcurrentThreads() throws Exception {
+        final MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS, 5);
+        Thread[] threads = new Thread[4];
+        final Exception[] failures = new Exception[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 1; i <= 100; i++) {
+                            store.set(thread, "value", i);
+                            store.set(thread, "check", i * 31L);
+                            store.commit();
+                        }
+                    } catch (Exception e) {
+                        failures[thread] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (Exception failure : failures) assertThat(failure == null, is(equalTo(true)));
+        for (int t = 0; t < threads.length; t++) {
+            assertThat(store.get(t, "value"), is(equalTo(100L)));
+            assertThat(store.get(t, "check"), is(equalTo(3100L)));
+        }
+        store.close();
+    }
+
+    @Test
+    public void shouldNotCommitUpdatesOfOtherThreads() throws Exception {
+        final MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        store.set(0, "value", 1);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    store.set(1, "value", 2);
+                    store.commit();
+                } catch (MemStructException e) {
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertThat(store.get(1, "value"), is(equalTo(2L)));
+        assertThat(store.get(0, "value"), is(equalTo(0L)));
+        store.commit();
+        assertThat(store.get(0, "value"), is(equalTo(1L)));
+        store.close();
+    }
+
+    @Test
+    public void shouldRecoverCommittedUpdatesWhenProcessIsKilled() throws Exception {
+        new MemStructJournal(records, journal, layout(), RECORDS).close();
+        Process child = startChild();
+        long[] acknowledged = new long[RECORDS];
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            for (int count = 0; count < ACKNOWLEDGED; count++) {
+                String line = reader.readLine();
+                assertThat(line != null, is(equalTo(true)));
+                long i = Long.parseLong(line);
+                acknowledged[(int) (i % RECORDS)] = i;
+            }
+            // the child is still writing updates
+            child.destroyForcibly();
+            assertThat(child.waitFor(30, TimeUnit.SECONDS), is(equalTo(true)));
+        } finally {
+            child.destroyForcibly();
+        }
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        for (int r = 0; r < RECORDS; r++) {
+            long value = store.get(r, "value");
+            assertThat(store.get(r, "check"), is(equalTo(value * 31)));
+            assertTrue(value >= acknowledged[r]);
+        }
+        store.close();
+    }
+
+    @Test
+    public void shouldRecoverCommittedUpdatesOfConcurrentThreadsWhenProcessIsKilled() throws Exception {
+        new MemStructJournal(records, journal, layout(), RECORDS).close();
+        Process child = startChild(Writers.class);
+        long[] acknowledged = new long[RECORDS];
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            for (int count = 0; count < ACKNOWLEDGED; count++) {
+                String line = reader.readLine();
+                assertThat(line != null, is(equalTo(true)));
+                String[] update = line.split(" ");
+                acknowledged[Integer.parseInt(update[0])] = Long.parseLong(update[1]);
+            }
+            // the threads of the child are still writing updates
+            child.destroyForcibly();
+            assertThat(child.waitFor(30, TimeUnit.SECONDS), is(equalTo(true)));
+        } finally {
+            child.destroyForcibly();
+        }
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        for (int r = 0; r < RECORDS; r++) {
+            long value = store.get(r, "value");
+            assertThat(store.get(r, "check"), is(equalTo(value * 31)));
+            assertTrue(value >= acknowledged[r]);
+        }
+        store.close();
+    }
+
+    @Test
+    public void shouldCreateRecordsFileWithoutHeaderAgain() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(records, "rw");
+        file.setLength(MemStructJournal.HEADER_SIZE + layout().sizeOf() * 2);
+        file.close();
+        MemStruct layout = layout();
+        layout.set("check", 5);
+        MemStructJournal store = new MemStructJournal(records, journal, layout, RECORDS);
+        assertThat(store.count(), is(equalTo(RECORDS)));
+        assertThat(store.get(RECORDS - 1, "check"), is(equalTo(5L)));
+        store.close();
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenLayoutDoesNotMatch() throws Exception {
+        new MemStructJournal(records, journal, layout(), RECORDS).close();
+        exception.expect(MemStructException.class);
+        new MemStructJournal(records, journal, new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_LONG), RECORDS);
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenRecordIsOutOfBounds() throws Exception {
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        try {
+            exception.expect(MemStructException.class);
+            store.set(RECORDS, "value", 1);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenTypeDoesNotMatch() throws Exception {
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        try {
+            exception.expect(MemStructException.class);
+            store.setFloat(0, "price", 1f);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenFieldIsNotReal() throws Exception {
+        MemStructJournal store = new MemStructJournal(records, journal, layout(), RECORDS);
+        try {
+            exception.expect(MemStructException.class);
+            exception.expectMessage("invalid type for label value");
+            store.getDouble(0, "value");
+        } finally {
+            store.close();
+        }
+    }
+
+    private Process startChild() throws IOException {
+        return startChild(Child.class);
+    }
+
+    private Process startChild(Class<?> main) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), main.getName(), records.getAbsolutePath(), journal.getAbsolutePath());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    private static MemStruct layout() throws MemStructException {
+        return new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+    }
+
+    public static class Child {
+        public static void main(String[] args) throws Exception {
+            MemStructJournal store = new MemStructJournal(new File(args[0]), new File(args[1]), layout(), RECORDS, 10);
+            for (long i = 1; ; i++) {
+                int record = (int) (i % RECORDS);
+                store.set(record, "value", i);
+                store.set(record, "check", i * 31);
+                store.commit();
+                System.out.println(i);
+                System.out.flush();
+            }
+        }
+    }
+
+    public static class Writers {
+        public static void main(String[] args) throws Exception {
+            final MemStructJournal store = new MemStructJournal(new File(args[0]), new File(args[1]), layout(), RECORDS, 10);
+            final int threads = 4;
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            // each thread updates its own records, and commits both fields together
+                            for (long i = 1; ; i++) {
+                                int record = thread + (int) (i % (RECORDS / threads)) * threads;
+                                store.set(record, "value", i);
+                                Thread.yield();
+                                store.set(record, "check", i * 31);
+                                store.commit();
+                                System.out.println(record + " " + i);
+                                System.out.flush();
+                            }
+                        } catch (MemStructException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }).start();
+            }
+        }
+    }
+}
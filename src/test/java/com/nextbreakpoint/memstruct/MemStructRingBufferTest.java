@@ -0,0 +1,141 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.ProducerType.PRODUCER_MULTI;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.ProducerType.PRODUCER_SINGLE;
+import static com.nextbreakpoint.memstruct.MemStructRingBuffer.WaitStrategy.*;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructRingBufferTest {
+    private static final String DEFINITION = "producer dc.i 0\nvalue dc.l 0";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void shouldThrowExceptionWhenCapacityIsNotPowerOfTwo() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStructRingBuffer(layout(), 100, PRODUCER_SINGLE, WAIT_BUSY_SPIN);
+    }
+
+    @Test
+    public void shouldReturnMinusOneWhenBufferIsFull() throws MemStructException {
+        MemStructRingBuffer ring = new MemStructRingBuffer(layout(), 4, PRODUCER_SINGLE, WAIT_BUSY_SPIN);
+        assertThat(ring.tryNext(4), is(equalTo(3L)));
+        assertThat(ring.tryNext(1), is(equalTo(-1L)));
+    }
+
+    @Test
+    public void shouldConsumePublishedSlotsInBatches() throws MemStructException {
+        MemStruct ms = layout();
+        final MemStructField value = ms.getField("value");
+        MemStructRingBuffer ring = new MemStructRingBuffer(ms, 8, PRODUCER_SINGLE, WAIT_BUSY_SPIN);
+        long hi = ring.next(5);
+        for (long s = hi - 4; s <= hi; s++) value.setLong(ring.getBytes(), ring.offsetOf(s), s * 10);
+        ring.publish(hi - 4, hi);
+        assertThat(ring.size(), is(equalTo(5)));
+        final List<Long> values = new ArrayList<Long>();
+        final List<Boolean> ends = new ArrayList<Boolean>();
+        MemStructRingBuffer.Handler handler = new MemStructRingBuffer.Handler() {
+            public void onSlot(byte[] data, int offset, long sequence, boolean endOfBatch) throws MemStructException {
+                values.add(value.getLong(data, offset));
+                ends.add(endOfBatch);
+            }
+        };
+        assertThat(ring.poll(handler, 3), is(equalTo(3)));
+        assertThat(ring.poll(handler, 3), is(equalTo(2)));
+        assertThat(ring.poll(handler, 3), is(equalTo(0)));
+        assertThat(values.toString(), is(equalTo("[0, 10, 20, 30, 40]")));
+        assertThat(ends.toString(), is(equalTo("[false, false, true, false, true]")));
+    }
+
+    @Test
+    public void shouldCopyStructsToAndFromSlots() throws MemStructException {
+        MemStruct ms = layout();
+        MemStructRingBuffer ring = new MemStructRingBuffer(ms, 2, PRODUCER_SINGLE, WAIT_YIELD);
+        ms.set("value", 1234);
+        long s = ring.next();
+        ring.write(s, ms);
+        ring.publish(s);
+        MemStruct copy = layout();
+        ring.read(s, copy);
+        assertThat(copy.get("value"), is(equalTo(1234L)));
+    }
+
+    @Test
+    public void shouldPassMessagesFromSingleProducer() throws Exception {
+        for (MemStructRingBuffer.WaitStrategy strategy : MemStructRingBuffer.WaitStrategy.values()) {
+            assertThat(runProducers(PRODUCER_SINGLE, strategy, 1, 5000), is(equalTo(expectedSum(1, 5000))));
+        }
+    }
+
+    @Test
+    public void shouldPassMessagesFromMultipleProducers() throws Exception {
+        for (MemStructRingBuffer.WaitStrategy strategy : MemStructRingBuffer.WaitStrategy.values()) {
+            assertThat(runProducers(PRODUCER_MULTI, strategy, 4, 2000), is(equalTo(expectedSum(4, 2000))));
+        }
+    }
+
+    private static long expectedSum(int producers, int messages) {
+        return producers * ((long) messages * (messages - 1) / 2);
+    }
+
+    private static long runProducers(MemStructRingBuffer.ProducerType type, MemStructRingBuffer.WaitStrategy strategy, int producers, final int messages) throws Exception {
+        MemStruct ms = layout();
+        final MemStructField value = ms.getField("value");
+        final MemStructField producer = ms.getField("producer");
+        final MemStructRingBuffer ring = new MemStructRingBuffer(ms, 64, type, strategy);
+        final long[] last = new long[producers];
+        final long[] sum = new long[1];
+        final boolean[] ordered = new boolean[] { true };
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = -1;
+            final int id = p;
+            threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < messages; i++) {
+                            long s = ring.next();
+                            producer.setInt(ring.getBytes(), ring.offsetOf(s), id);
+                            value.setLong(ring.getBytes(), ring.offsetOf(s), i);
+                            ring.publish(s);
+                        }
+                    } catch (MemStructException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        MemStructRingBuffer.Handler handler = new MemStructRingBuffer.Handler() {
+            public void onSlot(byte[] data, int offset, long sequence, boolean endOfBatch) throws MemStructException {
+                int id = producer.getInt(data, offset);
+                long v = value.getLong(data, offset);
+                if (v != last[id] + 1) ordered[0] = false;
+                last[id] = v;
+                sum[0] += v;
+            }
+        };
+        int consumed = 0;
+        while (consumed < producers * messages) consumed += ring.take(handler, 16);
+        for (Thread thread : threads) thread.join();
+        assertThat(ordered[0], is(equalTo(true)));
+        return sum[0];
+    }
+
+    private static MemStruct layout() throws MemStructException {
+        return new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+    }
+}
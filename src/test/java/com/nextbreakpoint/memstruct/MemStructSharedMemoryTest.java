@@ -0,0 +1,195 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructSharedMemoryTest {
+    private static final String DEFINITION = "ready dc.i 0\nrequest dc.l 0\nresponse dc.l 0\ncounter dc.l 0\nname ds.b 16";
+
+    private static final int INCREMENTS = 10000;
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        File dir = new File("/dev/shm");
+        file = File.createTempFile("memstruct", ".shm", dir.isDirectory() && dir.canWrite() ? dir : null);
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldInitializeFileWithStructContents() throws Exception {
+        MemStruct ms = layout();
+        ms.set("request", 42);
+        ms.setString("name", "status");
+        new MemStructSharedMemory(file, ms, 1).close();
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, layout(), 1);
+        MemStruct copy = layout();
+        shared.copyTo(copy);
+        shared.close();
+        assertThat(file.length(), is(equalTo((long) MemStructSharedMemory.HEADER_SIZE + ms.sizeOf())));
+        assertThat(copy.get("request"), is(equalTo(42L)));
+        assertThat(copy.getCString("name"), is(equalTo("status")));
+    }
+
+    @Test
+    public void shouldInitializeFileLeftWithoutHeader() throws Exception {
+        MemStruct ms = layout();
+        ms.set("request", 42);
+        // a process died after sizing the file, before writing the header
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(MemStructSharedMemory.HEADER_SIZE + ms.sizeOf());
+        raf.close();
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, ms, 1);
+        assertThat(shared.get("request"), is(equalTo(42L)));
+        shared.close();
+        // a process died after writing part of the header
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(10);
+        raf.close();
+        shared = new MemStructSharedMemory(file, ms, 1);
+        assertThat(shared.get("request"), is(equalTo(42L)));
+        shared.close();
+        assertThat(file.length(), is(equalTo((long) MemStructSharedMemory.HEADER_SIZE + ms.sizeOf())));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenFileIsLockedByThisProcess() throws Exception {
+        RandomAccessFile other = new RandomAccessFile(file, "rw");
+        FileLock lock = other.getChannel().lock();
+        try {
+            exception.expect(MemStructException.class);
+            exception.expectMessage("cannot lock file");
+            new MemStructSharedMemory(file, layout(), 1);
+        } finally {
+            lock.release();
+            other.close();
+        }
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenLayoutDoesNotMatch() throws Exception {
+        new MemStructSharedMemory(file, layout(), 1).close();
+        exception.expect(MemStructException.class);
+        new MemStructSharedMemory(file, new MemStruct(DEFINITION.replace("request", "command"), LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG), 1);
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenVersionDoesNotMatch() throws Exception {
+        new MemStructSharedMemory(file, layout(), 1).close();
+        exception.expect(MemStructException.class);
+        new MemStructSharedMemory(file, layout(), 2);
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenFieldIsNotAligned() throws Exception {
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, new MemStruct("flag dc.b 0\nvalue dc.l 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE), 1);
+        try {
+            exception.expect(MemStructException.class);
+            shared.getAndAdd("value", 1);
+        } finally {
+            shared.close();
+        }
+    }
+
+    @Test
+    public void shouldAccessFieldsThroughView() throws Exception {
+        MemStruct ms = layout();
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, ms, 1);
+        MemStructView view = shared.view();
+        view.setLong(ms.getField("request"), -9);
+        view.setInt(ms.getField("ready"), 1);
+        assertThat(shared.get("request"), is(equalTo(-9L)));
+        assertThat(view.getInt("ready"), is(equalTo(1)));
+        assertThat(shared.getVolatile("ready"), is(equalTo(1L)));
+        shared.close();
+    }
+
+    @Test
+    public void shouldIncrementChangeCounter() throws Exception {
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, layout(), 1);
+        assertThat(shared.beginChange(), is(equalTo(1L)));
+        shared.set("request", 7);
+        assertThat(shared.endChange(), is(equalTo(2L)));
+        assertThat(shared.awaitChange(0, 10), is(equalTo(2L)));
+        assertThat(shared.awaitChange(2, 10), is(equalTo(2L)));
+        shared.close();
+    }
+
+    @Test
+    public void shouldExchangeValuesWithAnotherProcess() throws Exception {
+        MemStructSharedMemory shared = new MemStructSharedMemory(file, layout(), 1);
+        Process child = startChild();
+        try {
+            long deadline = System.currentTimeMillis() + 30000;
+            while (shared.getVolatile("ready") == 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertThat(shared.getVolatile("ready"), is(equalTo(1L)));
+            for (int i = 0; i < INCREMENTS; i++) shared.getAndAdd("counter", 1);
+            shared.beginChange();
+            shared.set("request", 41);
+            long count = shared.endChange();
+            count = shared.awaitChange(count, 30000);
+            MemStruct copy = layout();
+            shared.copyTo(copy);
+            assertThat(copy.get("response"), is(equalTo(42L)));
+            assertThat(child.waitFor(30, TimeUnit.SECONDS), is(equalTo(true)));
+            assertThat(child.exitValue(), is(equalTo(0)));
+            assertThat(shared.getVolatile("counter"), is(equalTo(2L * INCREMENTS)));
+        } finally {
+            child.destroy();
+            shared.close();
+        }
+    }
+
+    private Process startChild() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Child.class.getName(), file.getAbsolutePath());
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    private static MemStruct layout() throws MemStructException {
+        return new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+    }
+
+    public static class Child {
+        public static void main(String[] args) throws Exception {
+            MemStructSharedMemory shared = new MemStructSharedMemory(new File(args[0]), layout(), 1);
+            long count = shared.getChangeCount();
+            shared.setVolatile("ready", 1);
+            for (int i = 0; i < INCREMENTS; i++) shared.getAndAdd("counter", 1);
+            count = shared.awaitChange(count, 30000);
+            MemStruct copy = layout();
+            shared.copyTo(copy);
+            shared.beginChange();
+            shared.set("response", copy.get("request") + 1);
+            shared.endChange();
+            shared.close();
+            System.exit(0);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MemStructSnapshotTest {
+    @Test
+    public void shouldNotCopyDataUntilStructIsModified() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 10\nb dc.d 1.5\nname ds.b 8", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructSnapshot snapshot = ms.snapshot();
+        assertThat(snapshot.getCopiedSize(), is(equalTo(0)));
+        assertThat(ms.snapshot(), is(sameInstance(snapshot)));
+        assertThat(snapshot.get("a"), is(equalTo(10L)));
+        assertThat(snapshot.getDouble("b"), is(equalTo(1.5)));
+    }
+
+    @Test
+    public void shouldNotCopyDataWhenNoBytesAreWritten() throws MemStructException {
+        MemStruct ms = new MemStruct("data ds.l 1024", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.setBytes(new byte[0]);
+        assertThat(ms.sharingSnapshots(), is(equalTo(1)));
+        assertThat(snapshot.getCopiedSize(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldKeepValuesWhenStructIsModified() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 10\nb dc.d 1.5\nname ds.b 8", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.setString("name", "before");
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("a", 20);
+        ms.setDouble("b", 2.5);
+        ms.setString("name", "after");
+        assertThat(snapshot.get("a"), is(equalTo(10L)));
+        assertThat(snapshot.getDouble("b"), is(equalTo(1.5)));
+        assertThat(snapshot.getCString("name"), is(equalTo("before")));
+        assertThat(ms.get("a"), is(equalTo(20L)));
+        assertThat(ms.snapshot(), is(not(sameInstance(snapshot))));
+        assertThat(ms.snapshot().get("a"), is(equalTo(20L)));
+    }
+
+    @Test
+    public void shouldCopyOnlyModifiedChunks() throws MemStructException {
+        MemStruct ms = new MemStruct("data ds.l 4096", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        for (int i = 0; i < 4096; i++) ms.set("data", i, i);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("data", -1, 1000);
+        ms.set("data", -1, 1001);
+        assertThat(snapshot.getCopiedSize(), is(equalTo(MemStructSnapshot.CHUNK_SIZE)));
+        assertThat(snapshot.get("data", 1000), is(equalTo(1000L)));
+        assertThat(snapshot.get("data", 3000), is(equalTo(3000L)));
+        assertThat(ms.get("data", 1000), is(equalTo(-1L)));
+    }
+
+    @Test
+    public void shouldDetachSnapshotWhenBytesAreReturned() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 10", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.getBytes()[7] = 11;
+        assertThat(snapshot.get("a"), is(equalTo(10L)));
+        assertThat(ms.get("a"), is(equalTo(11L)));
+    }
+
+    @Test
+    public void shouldKeepValuesWhenHeldBytesAreModified() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 10\nb dc.l 20", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        byte[] live = ms.getBytes();
+        MemStructSnapshot snapshot = ms.snapshot();
+        live[7] = 99;
+        ms.getField("b").setLong(live, 0, 30);
+        assertThat(snapshot.get("a"), is(equalTo(10L)));
+        assertThat(snapshot.getLong("b"), is(equalTo(20L)));
+        assertThat(ms.get("a"), is(equalTo(99L)));
+        assertThat(ms.snapshot().getLong("b"), is(equalTo(30L)));
+    }
+
+    @Test
+    public void shouldReadElementsWhichCrossChunks() throws MemStructException {
+        MemStruct ms = new MemStruct("flag dc.b 1\ndata ds.l 1024", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        for (int i = 0; i < 1024; i++) ms.set("data", -i, i);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("data", 0, 1);
+        for (int i = 0; i < 1024; i++) assertThat(snapshot.get("data", i), is(equalTo((long) -i)));
+        ms.set("data", 0, 511);
+        assertThat(snapshot.get("data", 511), is(equalTo(-511L)));
+        assertThat(snapshot.getByte("flag"), is(equalTo((byte) 1)));
+    }
+
+    @Test
+    public void shouldReadSnapshotWhileStructIsModified() throws Exception {
+        final MemStruct ms = new MemStruct("flag dc.b 1\ndata ds.l 2048", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        for (int i = 0; i < 2048; i++) ms.set("data", 7, i);
+        final MemStructSnapshot snapshot = ms.snapshot();
+        Thread[] readers = new Thread[3];
+        final long[] failures = new long[readers.length];
+        for (int t = 0; t < readers.length; t++) {
+            final int reader = t;
+            readers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < 2048; i++) {
+                                if (snapshot.get("data", i) != 7) failures[reader]++;
+                            }
+                        }
+                    } catch (MemStructException e) {
+                        failures[reader]++;
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 2047; i >= 0; i--) ms.set("data", round, i);
+        }
+        for (Thread reader : readers) reader.join();
+        for (long failure : failures) assertThat(failure, is(equalTo(0L)));
+        assertThat(snapshot.getCopiedSize(), is(equalTo(ms.sizeOf())));
+    }
+
+    @Test
+    public void shouldReleaseSnapshotsWhichAreNoLongerReferenced() throws Exception {
+        MemStruct ms = new MemStruct("data ds.l 4096", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("data", 1, 0);
+        assertThat(snapshot.getCopiedSize(), is(equalTo(MemStructSnapshot.CHUNK_SIZE)));
+        assertThat(ms.sharingSnapshots(), is(equalTo(1)));
+        WeakReference<MemStructSnapshot> reference = new WeakReference<MemStructSnapshot>(snapshot);
+        snapshot = null;
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(reference.get() == null, is(equalTo(true)));
+        assertThat(ms.sharingSnapshots(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldCopySnapshotIntoStruct() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.i 10\nb dc.f 0.5", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("a", 30);
+        MemStruct copy = new MemStruct("a dc.i 0\nb dc.f 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        snapshot.copyTo(copy);
+        assertThat(copy.getInt("a"), is(equalTo(10)));
+        assertThat(copy.getFloat("b"), is(equalTo(0.5f)));
+    }
+}
@@ -0,0 +1,109 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructSwapperTest {
+    private static final String DEFINITION = "a dc.b 1\nb dc.w 2000\nc dc.s 3000\nd dc.i 100000\ne dc.l 5000000\nname ds.b 6\nf ds.w 3";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void shouldMergeFieldsOfSameWidthIntoRuns() throws MemStructException {
+        MemStruct ms = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(new MemStructSwapper(ms).getRunCount(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldSwapStructInPlace() throws MemStructException {
+        MemStruct be = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_LONG);
+        MemStruct le = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG);
+        be.setString("name", "ABCDEF");
+        for (int i = 0; i < 3; i++) be.set("f", 300 + i, i);
+        le.setBytes(be.getBytes());
+        new MemStructSwapper(le).swap(le);
+        assertThat(le.get("a"), is(equalTo(1L)));
+        assertThat(le.get("b"), is(equalTo(2000L)));
+        assertThat(le.get("c"), is(equalTo(3000L)));
+        assertThat(le.get("d"), is(equalTo(100000L)));
+        assertThat(le.get("e"), is(equalTo(5000000L)));
+        assertThat(le.getString("name"), is(equalTo("ABCDEF")));
+        for (int i = 0; i < 3; i++) assertThat(le.get("f", i), is(equalTo(300L + i)));
+    }
+
+    @Test
+    public void shouldSwapArrayOfStructsIntoDestination() throws MemStructException {
+        MemStruct be = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct le = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        int size = be.sizeOf();
+        byte[] src = new byte[size * 3];
+        for (int r = 0; r < 3; r++) {
+            be.set("d", r);
+            System.arraycopy(be.getBytes(), 0, src, r * size, size);
+        }
+        byte[] dst = new byte[size * 3];
+        new MemStructSwapper(be).swap(src, 0, dst, 0, 3);
+        for (int r = 0; r < 3; r++) {
+            byte[] record = new byte[size];
+            System.arraycopy(dst, r * size, record, 0, size);
+            le.setBytes(record);
+            assertThat(le.get("d"), is(equalTo((long) r)));
+            assertThat(le.get("e"), is(equalTo(5000000L)));
+        }
+    }
+
+    @Test
+    public void shouldSwapByteBufferRegion() throws MemStructException {
+        MemStruct be = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct le = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        be.setString("name", "XYZ");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(be.sizeOf() + 4);
+        for (int i = 0; i < be.sizeOf(); i++) buffer.put(4 + i, be.getBytes()[i]);
+        new MemStructSwapper(be).swap(buffer, 4, 1);
+        byte[] record = new byte[be.sizeOf()];
+        for (int i = 0; i < record.length; i++) record[i] = buffer.get(4 + i);
+        le.setBytes(record);
+        assertThat(le.get("b"), is(equalTo(2000L)));
+        assertThat(le.get("e"), is(equalTo(5000000L)));
+        assertThat(le.getCString("name"), is(equalTo("XYZ")));
+        assertThat(buffer.position(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldSwapBetweenBuffersWithDifferentOrder() throws MemStructException {
+        MemStruct be = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct le = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        for (int i = 0; i < 3; i++) be.set("f", 300 + i, i);
+        ByteBuffer src = ByteBuffer.wrap(be.getBytes().clone()).order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer dst = ByteBuffer.allocate(be.sizeOf()).order(ByteOrder.LITTLE_ENDIAN);
+        new MemStructSwapper(be).swap(src, 0, dst, 0, 1);
+        le.setBytes(dst.array());
+        assertThat(le.get("b"), is(equalTo(2000L)));
+        assertThat(le.get("c"), is(equalTo(3000L)));
+        assertThat(le.get("d"), is(equalTo(100000L)));
+        assertThat(le.get("e"), is(equalTo(5000000L)));
+        for (int i = 0; i < 3; i++) assertThat(le.get("f", i), is(equalTo(300L + i)));
+        assertThat(dst.order(), is(equalTo(ByteOrder.LITTLE_ENDIAN)));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenStructsAreOutOfBounds() throws MemStructException {
+        MemStruct ms = new MemStruct(DEFINITION, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        new MemStructSwapper(ms).swap(new byte[ms.sizeOf()], 0, 2);
+    }
+}
@@ -4,6 +4,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
 import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
 import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.*;
@@ -247,4 +251,158 @@ public class MemStructTest {
         assertThat(new MemStruct("label1 dc.b 0\nlabel2 dc.l 0", LONG_SIZE_32BIT, ORDERING_LITTLE_ENDIAN, PADDING_INT).getOffset("label2"), is(equalTo(4L)));
         assertThat(new MemStruct("label1 dc.b 0\nlabel2 dc.l 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_LONG).getOffset("label2"), is(equalTo(8L)));
     }
+
+    @Test
+    public void shouldReturnCorrectSizeOfFloatAndDouble() throws MemStructException {
+        assertThat(new MemStruct("label dc.f 0", LONG_SIZE_16BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).sizeOf(), is(equalTo(4)));
+        assertThat(new MemStruct("label dc.d 0", LONG_SIZE_16BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).sizeOf(), is(equalTo(8)));
+        assertThat(new MemStruct("label ds.f 5", LONG_SIZE_16BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).sizeOf(), is(equalTo(20)));
+        assertThat(new MemStruct("label ds.d 5", LONG_SIZE_16BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).sizeOf(), is(equalTo(40)));
+    }
+
+    @Test
+    public void shouldReturnCorrectValueOfFloatAndDouble() throws MemStructException {
+        assertThat(new MemStruct("label dc.f 1.5", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).getFloat("label"), is(equalTo(1.5f)));
+        assertThat(new MemStruct("label dc.d -2.25", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE).getDouble("label"), is(equalTo(-2.25)));
+    }
+
+    @Test
+    public void shouldRespectIEEEBitPatterns() throws MemStructException {
+        assertThat(new MemStruct("label dc.f 1.0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE).getBytes(), is(equalTo(new byte[] { 0x3F, -128, 0, 0 })));
+        assertThat(new MemStruct("label dc.f 1.0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).getBytes(), is(equalTo(new byte[] { 0, 0, -128, 0x3F })));
+        assertThat(new MemStruct("label dc.d 1.0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE).getBytes(), is(equalTo(new byte[] { 0x3F, -16, 0, 0, 0, 0, 0, 0 })));
+        assertThat(new MemStruct("label dc.d 1.0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE).getBytes(), is(equalTo(new byte[] { 0, 0, 0, 0, 0, 0, -16, 0x3F })));
+    }
+
+    @Test
+    public void shouldChangeValueOfFloatAndDoubleArray() throws MemStructException {
+        MemStruct ms = new MemStruct("f ds.f 4\nd ds.d 4", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        for (int i = 0; i < 4; i++) ms.setFloat("f", i + 0.5f, i);
+        for (int i = 0; i < 4; i++) ms.setDouble("d", i + 0.25, i);
+        for (int i = 0; i < 4; i++) assertThat(ms.getFloat("f", i), is(equalTo(i + 0.5f)));
+        for (int i = 0; i < 4; i++) assertThat(ms.getDouble("d", i), is(equalTo(i + 0.25)));
+    }
+
+    @Test
+    public void shouldReturnSignedAndUnsignedValues() throws MemStructException {
+        MemStruct ms = new MemStruct("b dc.b 0\nw dc.w 0\ni dc.i 0\nl dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("b", -1);
+        ms.set("w", -2);
+        ms.set("i", -3);
+        ms.set("l", -4);
+        assertThat(ms.getByte("b"), is(equalTo((byte) -1)));
+        assertThat(ms.getUnsignedByte("b"), is(equalTo(255)));
+        assertThat(ms.getShort("w"), is(equalTo((short) -2)));
+        assertThat(ms.getUnsignedShort("w"), is(equalTo(65534)));
+        assertThat(ms.getInt("i"), is(equalTo(-3)));
+        assertThat(ms.getUnsignedInt("i"), is(equalTo(0xFFFFFFFDL)));
+        assertThat(ms.getLong("l"), is(equalTo(-4L)));
+        assertThat(ms.getLong("w"), is(equalTo(-2L)));
+        assertThat(ms.getInt("b"), is(equalTo(-1)));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenTypeDoesNotMatch() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStruct("label dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE).getInt("label");
+    }
+
+    @Test
+    public void shouldAccessFieldsOfConsecutiveStructs() throws MemStructException {
+        MemStruct ms = new MemStruct("id dc.i 0\nprice dc.d 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        MemStructField id = ms.getField("id");
+        MemStructField price = ms.getField("price");
+        byte[] data = new byte[ms.sizeOf() * 3];
+        id.setInts(data, 0, new int[] { 7, -8, 9 }, 0, 3);
+        price.setDoubles(data, 0, new double[] { 1.5, 2.5, -3.5 }, 0, 3);
+        assertThat(id.getInt(data, ms.sizeOf()), is(equalTo(-8)));
+        assertThat(price.getDouble(data, ms.sizeOf() * 2), is(equalTo(-3.5)));
+        double[] prices = new double[3];
+        price.getDoubles(data, 0, prices, 0, 3);
+        assertThat(prices, is(equalTo(new double[] { 1.5, 2.5, -3.5 })));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenIntegerAccessorReadsFloat() throws MemStructException {
+        MemStruct ms = new MemStruct("f dc.f 1.5\ni dc.i 2", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        ms.getInt("f");
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenFloatAccessorReadsInteger() throws MemStructException {
+        MemStruct ms = new MemStruct("f dc.f 1.5\ni dc.i 2", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        ms.getField("i").getFloat(ms.data(), 0);
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenLongIsSetIntoDouble() throws MemStructException {
+        MemStruct ms = new MemStruct("d dc.d 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        ms.getField("d").setLong(ms.getBytes(), 0, 1);
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenBulkValuesAreOutOfBounds() throws MemStructException {
+        MemStruct ms = new MemStruct("id dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        ms.getField("id").getInts(new byte[ms.sizeOf() * 4], 0, new int[2], 0, 4);
+    }
+
+    @Test
+    public void shouldAccessFieldsOfStructsInBuffers() throws MemStructException {
+        MemStruct ms = new MemStruct("b dc.b 0\nw dc.w 0\ni dc.i 0\nf dc.f 0\nd dc.d 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        MemStructField b = ms.getField("b");
+        MemStructField w = ms.getField("w");
+        MemStructField i = ms.getField("i");
+        MemStructField f = ms.getField("f");
+        MemStructField d = ms.getField("d");
+        ByteBuffer buffer = ByteBuffer.allocate(ms.sizeOf() * 2).order(ByteOrder.BIG_ENDIAN);
+        int base = ms.sizeOf();
+        b.setByte(buffer, base, (byte) -1);
+        w.setShort(buffer, base, (short) -2);
+        i.setInt(buffer, base, 0x01020304);
+        f.setFloat(buffer, base, 1.5f);
+        d.setDouble(buffer, base, -2.5);
+        assertThat(b.getUnsignedByte(buffer, base), is(equalTo(255)));
+        assertThat(w.getShort(buffer, base), is(equalTo((short) -2)));
+        assertThat(w.getUnsignedShort(buffer, base), is(equalTo(65534)));
+        assertThat(i.getLong(buffer, base), is(equalTo(0x01020304L)));
+        assertThat(f.getFloat(buffer, base), is(equalTo(1.5f)));
+        assertThat(d.getDouble(buffer, base), is(equalTo(-2.5)));
+        // the buffer holds the layout ordering, whatever its own ordering is
+        assertThat(buffer.get(base + i.getOffset()), is(equalTo((byte) 0x04)));
+        ms.setBytes(Arrays.copyOfRange(buffer.array(), base, base + ms.sizeOf()));
+        assertThat(ms.getInt("i"), is(equalTo(0x01020304)));
+        assertThat(ms.getDouble("d"), is(equalTo(-2.5)));
+    }
+
+    @Test
+    public void shouldAccessViewByLabelAndByHandle() throws MemStructException {
+        MemStruct ms = new MemStruct("b dc.b 0\nw dc.w 0\ni ds.i 2\nf dc.f 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct other = new MemStruct("b dc.b 0\nw dc.w 0\ni ds.i 2\nf dc.f 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructView view = new MemStructView(ms);
+        view.point(new byte[ms.sizeOf()], 0);
+        view.setByte(other.getField("b"), (byte) -3);
+        view.setShort(ms.getField("w"), (short) -4);
+        view.setInt(ms.getField("i"), 1, -5);
+        view.setFloat("f", 0.25f);
+        assertThat(view.getByte("b"), is(equalTo((byte) -3)));
+        assertThat(view.getUnsignedByte(ms.getField("b")), is(equalTo(253)));
+        assertThat(view.getUnsignedShort("w"), is(equalTo(65532)));
+        assertThat(view.getInt("i", 1), is(equalTo(-5)));
+        assertThat(view.getUnsignedInt(other.getField("i"), 1), is(equalTo(0xFFFFFFFBL)));
+        assertThat(view.getFloat(ms.getField("f")), is(equalTo(0.25f)));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenViewUsesHandleOfAnotherLayout() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.i 0\nb dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct other = new MemStruct("b dc.i 0\na dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructView view = new MemStructView(ms);
+        view.point(new byte[ms.sizeOf()], 0);
+        exception.expect(MemStructException.class);
+        view.getInt(other.getField("a"));
+    }
 }
@@ -0,0 +1,244 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MemStructVariantTest {
+    private static final String MESSAGE = "type dc.b 0\nlength dc.w 0\nbody variant type\n"
+            + "login case 1\nuser ds.b 16\ntoken dc.i 0\n"
+            + "quote case 2\nsymbol ds.b 8\nprice dc.d 0\nqty dc.l 0\n"
+            + "logout case 3\nbody end variant\nchecksum dc.i 0";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void shouldOverlayCasesAtVariantOffset() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(ms.getOffset("body"), is(equalTo(3L)));
+        assertThat(ms.getOffset("user"), is(equalTo(3L)));
+        assertThat(ms.getOffset("symbol"), is(equalTo(3L)));
+        assertThat(ms.getOffset("price"), is(equalTo(11L)));
+        assertThat(ms.getOffset("checksum"), is(equalTo(27L)));
+        assertThat(ms.sizeOf(), is(equalTo(31)));
+        MemStructVariant variant = ms.getVariant("body");
+        assertThat(variant.getSize(), is(equalTo(24)));
+        assertThat(variant.getDiscriminator(), is(equalTo("type")));
+        assertThat(variant.getCases().size(), is(equalTo(3)));
+        assertThat(variant.getCases().get(0).getSize(), is(equalTo(20)));
+        assertThat(variant.getCases().get(2).getSize(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldDispatchOnDiscriminator() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(ms.getCase("body"), is(nullValue()));
+        ms.set("type", 2);
+        assertThat(ms.getCase("body").getLabel(), is(equalTo("quote")));
+        assertThat(ms.getVariant("body").dispatch(1), is(sameInstance(ms.getVariant("body").getCases().get(0))));
+        assertThat(ms.getVariant("body").dispatch(4), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDispatchSparseValues() throws MemStructException {
+        MemStruct ms = new MemStruct("type dc.l 0x7FFF0000\nbody variant type\na case 0x7FFF0000\nx dc.i 5\nb case -1\ny dc.l 0\nbody end variant", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(ms.getCase("body").getLabel(), is(equalTo("a")));
+        assertThat(ms.get("x"), is(equalTo(5L)));
+        ms.set("type", -1);
+        assertThat(ms.getCase("body").getLabel(), is(equalTo("b")));
+    }
+
+    @Test
+    public void shouldInitializeSelectedCase() throws MemStructException {
+        MemStruct ms = new MemStruct("type dc.b 2\nbody variant type\na case 1\nx dc.i 7\nb case 2\ny dc.i 9\nbody end variant", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        assertThat(ms.get("y"), is(equalTo(9L)));
+    }
+
+    @Test
+    public void shouldDecodeMixedStreamWithOneView() throws MemStructException {
+        MemStruct layout = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        MemStruct message = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        ByteBuffer stream = ByteBuffer.allocate(layout.sizeOf() * 3);
+        message.set("type", 1);
+        message.setString("user", "alice");
+        message.set("token", 42);
+        stream.put(message.getBytes());
+        message.set("type", 2);
+        message.setString("symbol", "ACME");
+        message.setDouble("price", 12.5);
+        message.set("qty", 100);
+        stream.put(message.getBytes());
+        message.set("type", 3);
+        stream.put(message.getBytes());
+        MemStructView view = new MemStructView(layout);
+        StringBuilder builder = new StringBuilder();
+        for (int offset = 0; offset < stream.capacity(); offset += layout.sizeOf()) {
+            view.point(stream, offset);
+            MemStructVariant.Case c = view.getCase("body");
+            builder.append(c.getLabel()).append(":");
+            if (c.getValue() == 1) {
+                builder.append(view.getCString("user")).append(",").append(view.get("token"));
+            } else if (c.getValue() == 2) {
+                builder.append(view.getCString("symbol")).append(",").append(view.getDouble("price")).append(",").append(view.get("qty"));
+            }
+            builder.append(";");
+        }
+        assertThat(builder.toString(), is(equalTo("login:alice,42;quote:ACME,12.5,100;logout:;")));
+    }
+
+    @Test
+    public void shouldThrowWhenViewAccessesInactiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("type", 1);
+        MemStructView view = new MemStructView(ms);
+        view.point(ms.getBytes(), 0);
+        exception.expect(MemStructException.class);
+        view.getDouble("price");
+    }
+
+    @Test
+    public void shouldSwapFieldsOfActiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("type", 2);
+        ms.set("length", 0x0102);
+        ms.set("qty", 0x0102030405060708L);
+        ms.set("checksum", 0x01020304);
+        byte[] data = ms.getBytes().clone();
+        new MemStructSwapper(ms).swap(ms);
+        assertThat(ms.get("length"), is(equalTo(0x0201L)));
+        assertThat(ms.get("qty"), is(equalTo(0x0807060504030201L)));
+        assertThat(ms.get("checksum"), is(equalTo(0x04030201L)));
+        MemStruct le = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        ByteBuffer buffer = ByteBuffer.wrap(data.clone());
+        new MemStructSwapper(ms).swap(buffer, 0, 1);
+        le.setBytes(buffer.array());
+        assertThat(le.get("qty"), is(equalTo(0x0102030405060708L)));
+        new MemStructSwapper(le).swap(le.getBytes(), 0, 1);
+        assertThat(le.getBytes(), is(equalTo(data)));
+    }
+
+    @Test
+    public void shouldSwapFieldsOfEachRecordCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        byte[] data = new byte[ms.sizeOf() * 2];
+        ms.set("type", 1);
+        ms.set("token", 0x01020304);
+        System.arraycopy(ms.getBytes(), 0, data, 0, ms.sizeOf());
+        ms.set("type", 2);
+        ms.set("qty", 0x0102030405060708L);
+        System.arraycopy(ms.getBytes(), 0, data, ms.sizeOf(), ms.sizeOf());
+        byte[] swapped = new byte[data.length];
+        new MemStructSwapper(ms).swap(data, 0, swapped, 0, 2);
+        MemStructView view = new MemStructView(new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE));
+        view.point(swapped, 0);
+        assertThat(view.get("token"), is(equalTo(0x01020304L)));
+        view.point(swapped, ms.sizeOf());
+        assertThat(view.get("qty"), is(equalTo(0x0102030405060708L)));
+    }
+
+    @Test
+    public void shouldConvertFieldsOfActiveCase() throws MemStructException {
+        MemStruct source = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStruct target = new MemStruct("type dc.w 0\nbody variant type\n"
+                + "quote case 7\nqty dc.l 0\nprice dc.d 0\nsymbol ds.b 8\n"
+                + "login case 9\ntoken dc.i 0\nuser ds.b 16\n"
+                + "body end variant\nlength dc.w 0\nchecksum dc.i 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        source.set("type", 2);
+        source.set("length", 31);
+        source.setString("symbol", "ACME");
+        source.setDouble("price", 12.5);
+        source.set("qty", 100);
+        new MemStructConverter(source, target).convert(source, target);
+        assertThat(target.getCase("body").getLabel(), is(equalTo("quote")));
+        assertThat(target.get("type"), is(equalTo(7L)));
+        assertThat(target.get("length"), is(equalTo(31L)));
+        assertThat(target.get("qty"), is(equalTo(100L)));
+        assertThat(target.getDouble("price"), is(equalTo(12.5)));
+        assertThat(target.getCString("symbol"), is(equalTo("ACME")));
+        source.set("type", 1);
+        source.setString("user", "alice");
+        source.set("token", 42);
+        new MemStructConverter(source, target).convert(source, target);
+        assertThat(target.getCase("body").getLabel(), is(equalTo("login")));
+        assertThat(target.get("type"), is(equalTo(9L)));
+        assertThat(target.get("token"), is(equalTo(42L)));
+        assertThat(target.getCString("user"), is(equalTo("alice")));
+    }
+
+    @Test
+    public void shouldThrowWhenStructSetsInactiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("type", 1);
+        exception.expect(MemStructException.class);
+        exception.expectMessage("inactive label qty");
+        ms.set("qty", 1);
+    }
+
+    @Test
+    public void shouldThrowWhenStructGetsInactiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("type", 3);
+        exception.expect(MemStructException.class);
+        ms.getDouble("price");
+    }
+
+    @Test
+    public void shouldThrowWhenFieldAccessesInactiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        MemStructField token = ms.getField("token");
+        ms.set("type", 1);
+        token.setInt(ms.getBytes(), 0, 5);
+        assertThat(token.getInt(ms.getBytes(), 0), is(equalTo(5)));
+        ms.set("type", 2);
+        exception.expect(MemStructException.class);
+        token.getInt(ms.getBytes(), 0);
+    }
+
+    @Test
+    public void shouldThrowWhenSnapshotReadsInactiveCase() throws MemStructException {
+        MemStruct ms = new MemStruct(MESSAGE, LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        ms.set("type", 1);
+        MemStructSnapshot snapshot = ms.snapshot();
+        ms.set("type", 2);
+        assertThat(snapshot.get("token"), is(equalTo(0L)));
+        exception.expect(MemStructException.class);
+        snapshot.get("qty");
+    }
+
+    @Test
+    public void shouldThrowWhenVariantIsNotClosed() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStruct("type dc.b 0\nbody variant type\na case 1\nx dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+    }
+
+    @Test
+    public void shouldThrowWhenDiscriminatorIsInvalid() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStruct("type ds.b 4\nbody variant type\na case 1\nbody end variant", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+    }
+
+    @Test
+    public void shouldThrowWhenCaseValueIsDuplicated() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStruct("type dc.b 0\nbody variant type\na case 1\nb case 0x01\nbody end variant", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+    }
+
+    @Test
+    public void shouldThrowWhenFieldIsOutsideCase() throws MemStructException {
+        exception.expect(MemStructException.class);
+        new MemStruct("type dc.b 0\nbody variant type\nx dc.i 0\nbody end variant", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+    }
+}
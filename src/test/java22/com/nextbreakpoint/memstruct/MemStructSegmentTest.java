@@ -0,0 +1,172 @@
+package com.nextbreakpoint.memstruct;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.UnionLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_BIG_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesOrdering.ORDERING_LITTLE_ENDIAN;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_NONE;
+import static com.nextbreakpoint.memstruct.MemStruct.BytesPadding.PADDING_LONG;
+import static com.nextbreakpoint.memstruct.MemStruct.LongSize.LONG_SIZE_64BIT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemStructSegmentTest {
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void shouldExportEquivalentLayout() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.b 1\nb dc.l 2\nc dc.d 0.5\nname ds.b 3", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_LONG);
+        StructLayout layout = MemStructSegment.toMemoryLayout(ms);
+        assertThat(layout.byteSize(), is(equalTo((long) ms.sizeOf())));
+        assertThat(layout.byteOffset(MemoryLayout.PathElement.groupElement("b")), is(equalTo((long) ms.getOffset("b"))));
+        assertThat(layout.byteOffset(MemoryLayout.PathElement.groupElement("c")), is(equalTo((long) ms.getOffset("c"))));
+        assertThat(layout.byteOffset(MemoryLayout.PathElement.groupElement("name")), is(equalTo((long) ms.getOffset("name"))));
+    }
+
+    @Test
+    public void shouldExportVariantAsUnionOfCases() throws MemStructException {
+        MemStruct ms = new MemStruct("type dc.b 2\nbody variant type\nlogin case 1\nuser ds.b 16\ntoken dc.i 0\n"
+                + "quote case 2\nprice dc.d 0\nqty dc.l 0\nbody end variant\nchecksum dc.i 0", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        StructLayout layout = MemStructSegment.toMemoryLayout(ms);
+        assertThat(layout.byteSize(), is(equalTo((long) ms.sizeOf())));
+        assertThat(layout.select(MemoryLayout.PathElement.groupElement("body")) instanceof UnionLayout, is(equalTo(true)));
+        assertThat(layout.byteOffset(MemoryLayout.PathElement.groupElement("body"), MemoryLayout.PathElement.groupElement("quote"),
+                MemoryLayout.PathElement.groupElement("qty")), is(equalTo((long) ms.getOffset("qty"))));
+        assertThat(layout.byteOffset(MemoryLayout.PathElement.groupElement("checksum")), is(equalTo((long) ms.getOffset("checksum"))));
+        try (MemStructSegment segment = new MemStructSegment(ms, 2)) {
+            segment.varHandle("qty").set(segment.segment(), segment.offsetOf(1), 77L);
+            assertThat(segment.get(1, "qty"), is(equalTo(77L)));
+        }
+    }
+
+    @Test
+    public void shouldInitializeStructsWithTemplate() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.i 7\nb dc.f 1.5", LONG_SIZE_64BIT, ORDERING_LITTLE_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 100)) {
+            assertThat(segment.count(), is(equalTo(100L)));
+            assertThat(segment.get(99, "a"), is(equalTo(7L)));
+            assertThat(segment.getFloat(50, "b"), is(equalTo(1.5f)));
+        }
+    }
+
+    @Test
+    public void shouldSetAndGetValuesAtIndex() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.w 0\nb dc.d 0\nc ds.i 4", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 10)) {
+            segment.set(3, "a", 0xFFFF);
+            segment.setDouble(3, "b", 2.5);
+            segment.set(3, "c", 42, 2);
+            assertThat(segment.get(3, "a"), is(equalTo(0xFFFFL)));
+            assertThat(segment.getDouble(3, "b"), is(equalTo(2.5)));
+            assertThat(segment.get(3, "c", 2), is(equalTo(42L)));
+            assertThat(segment.get(2, "a"), is(equalTo(0L)));
+        }
+    }
+
+    @Test
+    public void shouldAccessFieldsWithVarHandles() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.i 0\nb dc.d 0\nc ds.w 4", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 10)) {
+            MemorySegment data = segment.segment();
+            VarHandle a = segment.varHandle("a");
+            VarHandle b = segment.varHandle("b");
+            VarHandle c = segment.varHandle("c");
+            a.set(data, segment.offsetOf(5), 123);
+            b.set(data, segment.offsetOf(5), 0.25);
+            c.set(data, segment.offsetOf(5), 3L, (short) 9);
+            assertThat(segment.get(5, "a"), is(equalTo(123L)));
+            assertThat(segment.getDouble(5, "b"), is(equalTo(0.25)));
+            assertThat(segment.get(5, "c", 3), is(equalTo(9L)));
+        }
+    }
+
+    @Test
+    public void shouldCopyStructsInAndOut() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0\nname ds.b 8", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (Arena arena = Arena.ofConfined()) {
+            MemStructSegment segment = new MemStructSegment(ms, 4, arena);
+            MemStruct in = new MemStruct("a dc.l 5\nname ds.b 8", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+            in.setString("name", "abc");
+            segment.copyFrom(2, in);
+            MemStruct out = new MemStruct("a dc.l 0\nname ds.b 8", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+            segment.copyTo(2, out);
+            assertThat(out.get("a"), is(equalTo(5L)));
+            assertThat(out.getCString("name"), is(equalTo("abc")));
+        }
+    }
+
+    @Test
+    public void shouldUseLongOffsets() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0\npad ds.b 1048568", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        // the segment is never accessed, so it doesn't need to be backed by memory
+        MemStructSegment segment = new MemStructSegment(ms, MemorySegment.NULL.reinterpret(3L << 30));
+        assertThat(segment.count(), is(equalTo(3072L)));
+        assertThat(segment.offsetOf(3000), is(equalTo(3000L << 20)));
+        assertThat(segment.getOffset("a", 3000), is(equalTo(3000L << 20)));
+    }
+
+    @Test
+    public void shouldAccessMappedFile() throws MemStructException, IOException {
+        MemStruct ms = new MemStruct("a dc.l 0\npad ds.b 1048568", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        File file = File.createTempFile("memstruct", ".dat");
+        file.deleteOnExit();
+        try (Arena arena = Arena.ofConfined(); FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemStructSegment segment = new MemStructSegment(ms, channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L << 20, arena));
+            assertThat(segment.count(), is(equalTo(4L)));
+            segment.set(3, "a", 77);
+            assertThat(segment.get(3, "a"), is(equalTo(77L)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldThrowWhenIndexIsOutOfBounds() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 2)) {
+            exception.expect(MemStructException.class);
+            segment.get(2, "a");
+        }
+    }
+
+    @Test
+    public void shouldThrowWhenIntegerFieldIsAccessedAsReal() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0\nb dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 1)) {
+            exception.expect(MemStructException.class);
+            exception.expectMessage("invalid type for label a");
+            segment.getDouble(0, "a");
+        }
+    }
+
+    @Test
+    public void shouldThrowWhenIntegerFieldIsSetAsReal() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0\nb dc.i 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        try (MemStructSegment segment = new MemStructSegment(ms, 1)) {
+            exception.expect(MemStructException.class);
+            segment.setFloat(0, "b", 1f);
+        }
+    }
+
+    @Test
+    public void shouldThrowWhenCountIsNotValid() throws MemStructException {
+        MemStruct ms = new MemStruct("a dc.l 0", LONG_SIZE_64BIT, ORDERING_BIG_ENDIAN, PADDING_NONE);
+        exception.expect(MemStructException.class);
+        new MemStructSegment(ms, -1);
+    }
+}